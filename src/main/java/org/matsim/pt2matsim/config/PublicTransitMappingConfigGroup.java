@@ -46,17 +46,26 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 	public static final String GROUP_NAME = "PublicTransitMapping";
 
 	public enum TravelCostType { linkLength, travelTime }
+	public enum PseudoRoutingScheduling { staticLines, dynamicRoutes }
+	public enum PseudoGraphType { dijkstra, layered }
+	public enum LinkCandidateCreatorType { standard, lazy }
 
 	private static final String INPUT_NETWORK_FILE = "inputNetworkFile";
 	private static final String INPUT_SCHEDULE_FILE = "inputScheduleFile";
 	private static final String OUTPUT_NETWORK_FILE = "outputNetworkFile";
 	private static final String OUTPUT_SCHEDULE_FILE = "outputScheduleFile";
 	private static final String OUTPUT_STREET_NETWORK_FILE = "outputStreetNetworkFile";
+	private static final String PREVIOUS_MAPPED_SCHEDULE_FILE = "previousMappedScheduleFile";
+	private static final String PREVIOUS_MAPPED_NETWORK_FILE = "previousMappedNetworkFile";
+	private static final String CACHE_DIRECTORY = "cacheDirectory";
+	private static final String CHECKPOINT_FILE = "checkpointFile";
 
 	private static final String TRAVEL_COST_TYPE = "travelCostType";
 	private static final String MAX_TRAVEL_COST_FACTOR = "maxTravelCostFactor";
 	private static final String SCHEDULE_FREESPEED_MODES = "scheduleFreespeedModes";
 	private static final String NUM_OF_THREADS = "numOfThreads";
+	private static final String PSEUDO_ROUTING_SCHEDULING = "pseudoRoutingScheduling";
+	private static final String PSEUDO_GRAPH_TYPE = "pseudoGraphType";
 
 	private static final String MODES_TO_KEEP_ON_CLEAN_UP = "modesToKeepOnCleanUp";
 	private static final String REMOVE_NOT_USED_STOP_FACILITIES = "removeNotUsedStopFacilities";
@@ -64,6 +73,7 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 	private static final String N_LINK_THRESHOLD = "nLinkThreshold";
 	private static final String CANDIDATE_DISTANCE_MULTIPLIER = "candidateDistanceMultiplier";
 	private static final String MAX_LINK_CANDIDATE_DISTANCE = "maxLinkCandidateDistance";
+	private static final String LINK_CANDIDATE_CREATOR_TYPE = "linkCandidateCreatorType";
 
 	private static final String ROUTING_WITH_CANDIDATE_DISTANCE = "routingWithCandidateDistance";
 
@@ -73,6 +83,8 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 	private Set<String> modesToKeepOnCleanUp = new HashSet<>();
 	private double maxTravelCostFactor = 5.0;
 	private int numOfThreads = 2;
+	private PseudoRoutingScheduling pseudoRoutingScheduling = PseudoRoutingScheduling.dynamicRoutes;
+	private PseudoGraphType pseudoGraphType = PseudoGraphType.dijkstra;
 	private boolean removeNotUsedStopFacilities = true;
 
 	private String inputNetworkFile = null;
@@ -80,12 +92,17 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 	private String outputNetworkFile = null;
 	private String outputStreetNetworkFile = null;
 	private String outputScheduleFile = null;
+	private String previousMappedScheduleFile = null;
+	private String previousMappedNetworkFile = null;
+	private String cacheDirectory = null;
+	private String checkpointFile = null;
 	private TravelCostType travelCostType = TravelCostType.linkLength;
 
 	private boolean routingWithCandidateDistance = true;
 	private int nLinkThreshold = 6;
 	private double maxLinkCandidateDistance = 90;
 	private double candiateDistanceMulitplier = 1.6;
+	private LinkCandidateCreatorType linkCandidateCreatorType = LinkCandidateCreatorType.standard;
 
 	public PublicTransitMappingConfigGroup() {
 		super(GROUP_NAME);
@@ -147,13 +164,30 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 				"\t\tbetween stops from the schedule. If " + TRAVEL_COST_TYPE + " is \n" +
 				"\t\t" + TravelCostType.linkLength + " minTravel cost is the beeline distance.");
 		map.put(NUM_OF_THREADS,
-				"Defines the number of numOfThreads that should be used for pseudoRouting. Default: 2.");
+				"Defines the number of numOfThreads that should be used for link candidate creation and pseudoRouting. Default: 2.");
+		map.put(PSEUDO_ROUTING_SCHEDULING,
+				"Defines how transit routes are distributed on the pseudoRouting threads. \"" + PseudoRoutingScheduling.staticLines + "\": \n" +
+				"\t\ttransit lines are assigned to threads round-robin before routing starts. \"" + PseudoRoutingScheduling.dynamicRoutes + "\" (default): \n" +
+				"\t\tidle threads take the next transit route from a shared queue, routes with the highest estimated effort \n" +
+				"\t\t(number of stops times number of routes with the same stop sequence) are routed first.");
+		map.put(PSEUDO_GRAPH_TYPE,
+				"Algorithm to find the best link candidate sequence of a transit route. \"" + PseudoGraphType.dijkstra + "\" (default): \n" +
+				"\t\tdijkstra on the pseudo graph. \"" + PseudoGraphType.layered + "\": one forward pass over the link candidates of \n" +
+				"\t\tall stops, same result with less memory and cpu usage for long transit routes.");
 		map.put(INPUT_NETWORK_FILE, "Path to the input network file. Not needed if PTMapper is called within another class.");
 		map.put(INPUT_SCHEDULE_FILE, "Path to the input schedule file. Not needed if PTMapper is called within another class.");
 		map.put(OUTPUT_NETWORK_FILE, "Path to the output network file. Not needed if PTMapper is used within another class.");
 		map.put(OUTPUT_STREET_NETWORK_FILE, "Path to the output car only network file. The input multimodal map is filtered. \n" +
 				"\t\tNot needed if PTMapper is used within another class.");
 		map.put(OUTPUT_SCHEDULE_FILE, "Path to the output schedule file. Not needed if PTMapper is used within another class.");
+		map.put(PREVIOUS_MAPPED_SCHEDULE_FILE, "Path to a previously mapped schedule (optional). Transit routes with the same schedule mode, stop \n" +
+				"\t\tfacilities and stop coordinates reuse their previous link sequence and are not routed again.");
+		map.put(CACHE_DIRECTORY, "Directory for cache files (optional). Link candidates, paths between stops and router landmarks \n" +
+				"\t\tare stored there and loaded in later runs with the same network, schedule and mode assignment.");
+		map.put(CHECKPOINT_FILE, "Path to a checkpoint file (optional). Routed transit routes and their artificial links are \n" +
+				"\t\trecorded there periodically. An aborted run can be resumed with Step3_PublicTransitMapper [config] resume.");
+		map.put(PREVIOUS_MAPPED_NETWORK_FILE, "Path to the network of the previously mapped schedule (optional). Artificial links used by \n" +
+				"\t\treused transit routes that are missing in the input network are copied from it.");
 		map.put(REMOVE_NOT_USED_STOP_FACILITIES,
 				"If true, stop facilities that are not used by any transit route are removed from the schedule. Default: true");
 		map.put(ROUTING_WITH_CANDIDATE_DISTANCE,
@@ -173,6 +207,10 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 		map.put(MAX_LINK_CANDIDATE_DISTANCE,
 				"The maximal distance [meter] a link candidate is allowed to have from the stop facility.\n" +
 				"\t\tNo link candidates beyond this distance are added.");
+		map.put(LINK_CANDIDATE_CREATOR_TYPE,
+				"\"" + LinkCandidateCreatorType.standard + "\" (default): link candidates of all stops are created before routing. \"" + LinkCandidateCreatorType.lazy + "\": \n" +
+				"\t\tlink candidates are created when a stop is routed and shared by stops with the same mode and neighbour \n" +
+				"\t\tstop facilities, only a limited number of candidate sets is kept in memory. Cannot be used with shape routing.");
 		return map;
 	}
 
@@ -283,6 +321,32 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 		this.numOfThreads = numOfThreads;
 	}
 
+	/**
+	 * Distribution of transit routes on threads
+	 */
+	@StringGetter(PSEUDO_ROUTING_SCHEDULING)
+	public PseudoRoutingScheduling getPseudoRoutingScheduling() {
+		return pseudoRoutingScheduling;
+	}
+
+	@StringSetter(PSEUDO_ROUTING_SCHEDULING)
+	public void setPseudoRoutingScheduling(PseudoRoutingScheduling pseudoRoutingScheduling) {
+		this.pseudoRoutingScheduling = pseudoRoutingScheduling;
+	}
+
+	/**
+	 * Pseudo graph implementation
+	 */
+	@StringGetter(PSEUDO_GRAPH_TYPE)
+	public PseudoGraphType getPseudoGraphType() {
+		return pseudoGraphType;
+	}
+
+	@StringSetter(PSEUDO_GRAPH_TYPE)
+	public void setPseudoGraphType(PseudoGraphType pseudoGraphType) {
+		this.pseudoGraphType = pseudoGraphType;
+	}
+
 	/**
 	 *
 	 */
@@ -397,6 +461,62 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 		this.outputStreetNetworkFile = outputStreetNetworkFile.equals("") ? null : outputStreetNetworkFile;
 	}
 
+	@StringGetter(CACHE_DIRECTORY)
+	public String getCacheDirectoryStr() {
+		return this.cacheDirectory == null ? "" : this.cacheDirectory;
+	}
+
+	public String getCacheDirectory() {
+		return this.cacheDirectory;
+	}
+
+	@StringSetter(CACHE_DIRECTORY)
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory.equals("") ? null : cacheDirectory;
+	}
+
+	@StringGetter(CHECKPOINT_FILE)
+	public String getCheckpointFileStr() {
+		return this.checkpointFile == null ? "" : this.checkpointFile;
+	}
+
+	public String getCheckpointFile() {
+		return this.checkpointFile;
+	}
+
+	@StringSetter(CHECKPOINT_FILE)
+	public void setCheckpointFile(String checkpointFile) {
+		this.checkpointFile = checkpointFile.equals("") ? null : checkpointFile;
+	}
+
+	@StringGetter(PREVIOUS_MAPPED_SCHEDULE_FILE)
+	public String getPreviousMappedScheduleFileStr() {
+		return this.previousMappedScheduleFile == null ? "" : this.previousMappedScheduleFile;
+	}
+
+	public String getPreviousMappedScheduleFile() {
+		return this.previousMappedScheduleFile;
+	}
+
+	@StringSetter(PREVIOUS_MAPPED_SCHEDULE_FILE)
+	public void setPreviousMappedScheduleFile(String previousMappedScheduleFile) {
+		this.previousMappedScheduleFile = previousMappedScheduleFile.equals("") ? null : previousMappedScheduleFile;
+	}
+
+	@StringGetter(PREVIOUS_MAPPED_NETWORK_FILE)
+	public String getPreviousMappedNetworkFileStr() {
+		return this.previousMappedNetworkFile == null ? "" : this.previousMappedNetworkFile;
+	}
+
+	public String getPreviousMappedNetworkFile() {
+		return this.previousMappedNetworkFile;
+	}
+
+	@StringSetter(PREVIOUS_MAPPED_NETWORK_FILE)
+	public void setPreviousMappedNetworkFile(String previousMappedNetworkFile) {
+		this.previousMappedNetworkFile = previousMappedNetworkFile.equals("") ? null : previousMappedNetworkFile;
+	}
+
 	public String getOutputScheduleFile() {
 		return this.outputScheduleFile;
 	}
@@ -468,6 +588,19 @@ public class PublicTransitMappingConfigGroup extends ReflectiveConfigGroup {
 		this.candiateDistanceMulitplier = multiplier < 1 ? 1 : multiplier;
 	}
 
+	/**
+	 * Link candidate creator implementation
+	 */
+	@StringGetter(LINK_CANDIDATE_CREATOR_TYPE)
+	public LinkCandidateCreatorType getLinkCandidateCreatorType() {
+		return linkCandidateCreatorType;
+	}
+
+	@StringSetter(LINK_CANDIDATE_CREATOR_TYPE)
+	public void setLinkCandidateCreatorType(LinkCandidateCreatorType linkCandidateCreatorType) {
+		this.linkCandidateCreatorType = linkCandidateCreatorType;
+	}
+
 
 	/**
 	 * Parameterset that define which network transport modes the router
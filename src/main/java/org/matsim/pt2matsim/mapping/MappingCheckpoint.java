@@ -0,0 +1,310 @@
+package org.matsim.pt2matsim.mapping;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.config.PublicTransitMappingStrings;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateImpl;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.PublicTransitStopImpl;
+import org.matsim.pt2matsim.mapping.pseudoRouter.ArtificialLink;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoRouteStop;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoRouteStopImpl;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoSchedule;
+import org.matsim.pt2matsim.tools.CacheTools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Records the pseudo routes calculated by the {@link PseudoRouting} threads in a checkpoint file,
+ * together with the artificial links they use. If a mapping run is aborted, a new run with the same
+ * schedule, network and config can resume from the checkpoint file: the recorded transit routes
+ * are added to the pseudo schedule and are not routed again.
+ * <p/>
+ * Each pseudo route is appended as one record, records are flushed to the file periodically. A
+ * record that has not been written completely (i.e. the process has been killed while writing) is
+ * ignored when resuming. The file starts with a hash of the network, the stop sequences of the
+ * schedule and the config parameters that change the result of pseudo routing (link candidates,
+ * travel costs, mode assignment and pseudo graph). A checkpoint file of a different schedule,
+ * network or config is not used. Link candidates and schedule routers must be created from the
+ * config, the key does not cover other inputs (e.g. shapes).
+ */
+public class MappingCheckpoint implements Closeable {
+
+	protected static Logger log = Logger.getLogger(MappingCheckpoint.class);
+
+	private static final int MAGIC = 0x50544d52;
+	private static final int VERSION = 1;
+	private static final long FLUSH_INTERVAL_MS = 30 * 1000;
+
+	private final Map<String, RouteRecord> records = new HashMap<>();
+	private final Map<Id<Link>, ArtificialLinkRecord> artificialLinks = new LinkedHashMap<>();
+	private final DataOutputStream out;
+	private long lastFlush = System.currentTimeMillis();
+	private int nWritten = 0;
+
+	/**
+	 * @param checkpointFile the checkpoint file
+	 * @param schedule       the schedule that is mapped
+	 * @param network        the network the schedule is mapped to (including loop links of link candidates)
+	 * @param config         the config used for mapping
+	 * @param resume         if <tt>true</tt>, the pseudo routes recorded in an existing checkpoint file are
+	 *                       loaded and new records are appended. Otherwise the file is overwritten.
+	 */
+	public MappingCheckpoint(String checkpointFile, TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config, boolean resume) {
+		File file = new File(checkpointFile);
+		String key = createKey(schedule, network, config).toHex();
+		try {
+			long validLength = 0;
+			if(resume && file.exists()) {
+				validLength = load(file, key);
+			}
+			if(validLength > 0) {
+				// drop an incompletely written record at the end of the file
+				try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					raf.setLength(validLength);
+				}
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			} else {
+				if(resume) {
+					log.warn("No usable checkpoint file " + checkpointFile + " found, all transit routes are routed");
+				}
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot open checkpoint file " + checkpointFile, e);
+		}
+	}
+
+	private static CacheTools.Key createKey(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config) {
+		CacheTools.Key key = new CacheTools.Key().add(network)
+				.add(config.getMaxTravelCostFactor())
+				.add(config.getTravelCostType().name())
+				.add(String.valueOf(config.getRoutingWithCandidateDistance()))
+				.add(config.getNLinkThreshold())
+				.add(config.getCandidateDistanceMultiplier())
+				.add(config.getMaxLinkCandidateDistance())
+				.add(config.getLinkCandidateCreatorType().name())
+				.add(config.getPseudoGraphType().name())
+				.add(config.getTransportModeAssignment());
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				key.add(transitLine.getId().toString()).add(transitRoute.getId().toString()).add(transitRoute.getTransportMode());
+				for(TransitRouteStop routeStop : transitRoute.getStops()) {
+					key.add(routeStop.getStopFacility().getId().toString());
+				}
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Reads all complete records of the checkpoint file
+	 *
+	 * @return the length of the file up to the last complete record, 0 if the file cannot be used
+	 */
+	private long load(File file, String key) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+				log.warn("Checkpoint file " + file + " has been created for another schedule, network or config and is ignored");
+				return 0;
+			}
+			long validLength = 8 + 2 + key.getBytes("UTF-8").length;
+			while(true) {
+				byte[] bytes;
+				try {
+					bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+				} catch (EOFException e) {
+					break;
+				}
+				readRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+				validLength += 4 + bytes.length;
+			}
+			log.info(records.size() + " pseudo routes and " + artificialLinks.size() + " artificial links loaded from checkpoint file " + file);
+			return validLength;
+		} catch (EOFException e) {
+			return 0;
+		}
+	}
+
+	private void readRecord(DataInputStream in) throws IOException {
+		RouteRecord record = new RouteRecord();
+		String lineId = in.readUTF();
+		String routeId = in.readUTF();
+		int nStops = in.readInt();
+		for(int i = 0; i < nStops; i++) {
+			record.stopLinkIds.add(Id.createLinkId(in.readUTF()));
+		}
+		int nLinks = in.readInt();
+		for(int i = 0; i < nLinks; i++) {
+			record.linkIds.add(Id.createLinkId(in.readUTF()));
+		}
+		int nArtificialLinks = in.readInt();
+		for(int i = 0; i < nArtificialLinks; i++) {
+			ArtificialLinkRecord a = new ArtificialLinkRecord(Id.createLinkId(in.readUTF()), Id.createNodeId(in.readUTF()), Id.createNodeId(in.readUTF()), in.readDouble(), in.readDouble());
+			artificialLinks.put(a.id, a);
+			record.artificialLinkIds.add(a.id);
+		}
+		records.put(createRouteKey(lineId, routeId), record);
+	}
+
+	/**
+	 * Appends a calculated pseudo route to the checkpoint file. Called by the
+	 * PseudoRouting threads, the file is flushed periodically.
+	 */
+	public synchronized void add(TransitLine transitLine, TransitRoute transitRoute, List<PseudoRouteStop> pseudoStops, List<Id<Link>> linkIds, Collection<ArtificialLink> routeArtificialLinks) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeUTF(transitLine.getId().toString());
+			record.writeUTF(transitRoute.getId().toString());
+			record.writeInt(pseudoStops.size());
+			for(PseudoRouteStop pseudoStop : pseudoStops) {
+				record.writeUTF(pseudoStop.getLinkId().toString());
+			}
+			record.writeInt(linkIds.size());
+			for(Id<Link> linkId : linkIds) {
+				record.writeUTF(linkId.toString());
+			}
+			record.writeInt(routeArtificialLinks.size());
+			for(ArtificialLink a : routeArtificialLinks) {
+				record.writeUTF(a.getId().toString());
+				record.writeUTF(a.getFromNodeId().toString());
+				record.writeUTF(a.getToNodeId().toString());
+				record.writeDouble(a.getFreespeed());
+				record.writeDouble(a.getLength());
+			}
+			record.flush();
+
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+			nWritten++;
+
+			long now = System.currentTimeMillis();
+			if(now - lastFlush > FLUSH_INTERVAL_MS) {
+				out.flush();
+				lastFlush = now;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write to checkpoint file", e);
+		}
+	}
+
+	/**
+	 * Adds a pseudo route loaded from the checkpoint file to the pseudo schedule.
+	 *
+	 * @return <tt>false</tt> if there is no usable record for the transit route, it has
+	 * to be routed in that case.
+	 */
+	public boolean addPseudoRoute(TransitLine transitLine, TransitRoute transitRoute, Network network, PseudoSchedule pseudoSchedule) {
+		RouteRecord record = records.get(createRouteKey(transitLine.getId().toString(), transitRoute.getId().toString()));
+		List<TransitRouteStop> routeStops = transitRoute.getStops();
+		if(record == null || record.stopLinkIds.size() != routeStops.size()) {
+			return false;
+		}
+		for(Id<Link> artificialLinkId : record.artificialLinkIds) {
+			ArtificialLinkRecord a = artificialLinks.get(artificialLinkId);
+			if(!network.getNodes().containsKey(a.fromNodeId) || !network.getNodes().containsKey(a.toNodeId)) {
+				return false;
+			}
+		}
+
+		List<PseudoRouteStop> pseudoStops = new ArrayList<>();
+		for(int i = 0; i < routeStops.size(); i++) {
+			Link stopLink = network.getLinks().get(record.stopLinkIds.get(i));
+			if(stopLink == null) {
+				return false;
+			}
+			TransitRouteStop routeStop = routeStops.get(i);
+			pseudoStops.add(new PseudoRouteStopImpl(i, routeStop, new LinkCandidateImpl(stopLink, new PublicTransitStopImpl(transitLine, transitRoute, routeStop))));
+		}
+		pseudoSchedule.addPseudoRoute(transitLine, transitRoute, pseudoStops, record.linkIds);
+		record.used = true;
+		return true;
+	}
+
+	/**
+	 * Adds the artificial links of the pseudo routes added with {@link #addPseudoRoute} to the network.
+	 *
+	 * @return the number of artificial links added
+	 */
+	public int addArtificialLinks(Network network) {
+		Set<Id<Link>> usedLinkIds = new HashSet<>();
+		for(RouteRecord record : records.values()) {
+			if(record.used) {
+				usedLinkIds.addAll(record.artificialLinkIds);
+			}
+		}
+		int nAdded = 0;
+		for(ArtificialLinkRecord a : artificialLinks.values()) {
+			if(usedLinkIds.contains(a.id) && !network.getLinks().containsKey(a.id)) {
+				Node fromNode = network.getNodes().get(a.fromNodeId);
+				Node toNode = network.getNodes().get(a.toNodeId);
+				Link link = network.getFactory().createLink(a.id, fromNode, toNode);
+				link.setFreespeed(a.freespeed);
+				link.setLength(a.length);
+				link.setCapacity(9999);
+				link.setNumberOfLanes(1.0);
+				link.setAllowedModes(PublicTransitMappingStrings.ARTIFICIAL_LINK_MODE_AS_SET);
+				network.addLink(link);
+				nAdded++;
+			}
+		}
+		return nAdded;
+	}
+
+	/**
+	 * @return the number of records written to the checkpoint file by this instance
+	 */
+	public synchronized int getNumberOfWrittenRoutes() {
+		return nWritten;
+	}
+
+	/**
+	 * Flushes and closes the checkpoint file
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot close checkpoint file", e);
+		}
+	}
+
+	private static String createRouteKey(String lineId, String routeId) {
+		return lineId + "\t" + routeId;
+	}
+
+	private static class RouteRecord {
+		private final List<Id<Link>> stopLinkIds = new ArrayList<>();
+		private final List<Id<Link>> linkIds = new ArrayList<>();
+		private final List<Id<Link>> artificialLinkIds = new ArrayList<>();
+		private boolean used = false;
+	}
+
+	private static class ArtificialLinkRecord {
+		private final Id<Link> id;
+		private final Id<Node> fromNodeId;
+		private final Id<Node> toNodeId;
+		private final double freespeed;
+		private final double length;
+
+		private ArtificialLinkRecord(Id<Link> id, Id<Node> fromNodeId, Id<Node> toNodeId, double freespeed, double length) {
+			this.id = id;
+			this.fromNodeId = fromNodeId;
+			this.toNodeId = toNodeId;
+			this.freespeed = freespeed;
+			this.length = length;
+		}
+	}
+}
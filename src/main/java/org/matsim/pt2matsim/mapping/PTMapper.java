@@ -25,16 +25,20 @@ import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.collections.Tuple;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.utils.TransitScheduleValidator;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.config.PublicTransitMappingStrings;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateCreator;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateCreatorLazy;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateCreatorStandard;
 import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRouters;
 import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersFactory;
+import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersGtfsShapes;
 import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersStandard;
 import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoSchedule;
 import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoScheduleImpl;
@@ -44,8 +48,9 @@ import org.matsim.pt2matsim.tools.PTMapperTools;
 import org.matsim.pt2matsim.tools.ScheduleTools;
 import org.matsim.pt2matsim.tools.debug.ScheduleCleaner;
 
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 
 /**
  * References an unmapped transit schedule to a network. Combines
@@ -70,6 +75,11 @@ public class PTMapper {
 	private final PseudoSchedule pseudoSchedule = new PseudoScheduleImpl();
 	private Network network;
 	private TransitSchedule schedule;
+	private PreviousMapping previousMapping = null;
+	private String checkpointFile = null;
+	private boolean resumeFromCheckpoint = false;
+	private PublicTransitMappingConfigGroup config = null;
+	private int nCopiedRoutes = 0;
 
 	public static void mapScheduleToNetwork(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config) {
 		if(config.getInputNetworkFile() != null) {
@@ -96,6 +106,38 @@ public class PTMapper {
 		this.network = network;
 	}
 
+	/**
+	 * Incremental mapping: transit routes with the same schedule mode, stop facilities and
+	 * stop coordinates as a transit route in the previously mapped schedule reuse its link
+	 * sequence and child stop facilities. Only new or changed transit routes are routed.
+	 *
+	 * @param schedule         which will be newly routed.
+	 * @param network          schedule is mapped to this network, is modified
+	 * @param previousSchedule a previously mapped schedule
+	 * @param previousNetwork  the network of the previously mapped schedule, artificial links used by
+	 *                         the previous schedule that are not in <tt>network</tt> are copied from it.
+	 *                         Can be <tt>null</tt>.
+	 */
+	public PTMapper(TransitSchedule schedule, Network network, TransitSchedule previousSchedule, Network previousNetwork) {
+		this(schedule, network);
+		this.previousMapping = new PreviousMapping(previousSchedule, previousNetwork);
+	}
+
+	/**
+	 * Records the calculated pseudo routes in a checkpoint file (see {@link MappingCheckpoint}).
+	 * Overrides the checkpoint file set in the config.
+	 *
+	 * @param checkpointFile the checkpoint file, no checkpoint is written if <tt>null</tt>
+	 * @param resume         transit routes recorded in an existing checkpoint file of an aborted run
+	 *                       with the same schedule, network and config are not routed again. Checkpoints
+	 *                       are only used by {@link #run(PublicTransitMappingConfigGroup)}, i.e. with link
+	 *                       candidates and schedule routers created from the config.
+	 */
+	public void setCheckpoint(String checkpointFile, boolean resume) {
+		this.checkpointFile = checkpointFile;
+		this.resumeFromCheckpoint = resume;
+	}
+
 	public void run(PublicTransitMappingConfigGroup config) {
 		run(config, null, null);
 	}
@@ -104,35 +146,60 @@ public class PTMapper {
 	 * Maps the schedule to the network with parameters defined in config
 	 */
 	public void run(PublicTransitMappingConfigGroup config, LinkCandidateCreator linkCandidateCreator, ScheduleRoutersFactory scheduleRoutersFactory) {
+		this.config = config;
+		if(checkpointFile == null) {
+			checkpointFile = config.getCheckpointFile();
+		}
+		// the checkpoint key only covers the config, link candidates and routers must be created from it
+		if(checkpointFile != null && (linkCandidateCreator != null || scheduleRoutersFactory != null)) {
+			throw new RuntimeException("Checkpoint files can only be used with link candidates and schedule routers created from the config");
+		}
+
 		// use defaults
-		if(linkCandidateCreator == null) {
+		if(linkCandidateCreator == null && config.getLinkCandidateCreatorType() == PublicTransitMappingConfigGroup.LinkCandidateCreatorType.lazy) {
+			linkCandidateCreator = new LinkCandidateCreatorLazy(schedule, network, config);
+		} else if(linkCandidateCreator == null) {
 			linkCandidateCreator = new LinkCandidateCreatorStandard(schedule, network,
 					config.getNLinkThreshold(),
 					config.getCandidateDistanceMultiplier(),
 					config.getMaxLinkCandidateDistance(),
-					config.getTransportModeAssignment());
+					config.getTransportModeAssignment(),
+					config.getNumOfThreads(),
+					config.getCacheDirectory());
 		}
 		
 		if(scheduleRoutersFactory == null) {
-			scheduleRoutersFactory = new ScheduleRoutersStandard.Factory(schedule, network, config.getTransportModeAssignment(), config.getTravelCostType(), config.getRoutingWithCandidateDistance());
+			scheduleRoutersFactory = new ScheduleRoutersStandard.Factory(schedule, network, config);
 		}
 
 		run(linkCandidateCreator,
 			scheduleRoutersFactory,
 			config.getNumOfThreads(), config.getMaxTravelCostFactor(),
 			config.getScheduleFreespeedModes(), config.getModesToKeepOnCleanUp(),
-			config.getRemoveNotUsedStopFacilities());
+			config.getRemoveNotUsedStopFacilities(),
+			config.getPseudoRoutingScheduling(),
+			config.getPseudoGraphType());
 	}
 
 	/**
-	 * Maps the schedule to the network
+	 * Maps the schedule to the network, transit lines are distributed on threads
 	 */
 	public void run(LinkCandidateCreator linkCandidates, ScheduleRoutersFactory scheduleRoutersFactory, int numThreads, double maxTravelCostFactor, Set<String> scheduleFreespeedModes, Set<String> modesToKeepOnCleanup, boolean removeNotUsedStopFacilities) {
+		run(linkCandidates, scheduleRoutersFactory, numThreads, maxTravelCostFactor, scheduleFreespeedModes, modesToKeepOnCleanup, removeNotUsedStopFacilities, PublicTransitMappingConfigGroup.PseudoRoutingScheduling.staticLines, PublicTransitMappingConfigGroup.PseudoGraphType.dijkstra);
+	}
+
+	/**
+	 * Maps the schedule to the network
+	 */
+	public void run(LinkCandidateCreator linkCandidates, ScheduleRoutersFactory scheduleRoutersFactory, int numThreads, double maxTravelCostFactor, Set<String> scheduleFreespeedModes, Set<String> modesToKeepOnCleanup, boolean removeNotUsedStopFacilities, PublicTransitMappingConfigGroup.PseudoRoutingScheduling scheduling, PublicTransitMappingConfigGroup.PseudoGraphType pseudoGraphType) {
 		if(schedule == null) throw new RuntimeException("No schedule defined!");
 		if(network == null) throw new RuntimeException("No network defined!");
 
 		if(linkCandidates == null) throw new RuntimeException("No LinkCandidates defined!");
 		if(scheduleRoutersFactory == null) throw new RuntimeException("No ScheduleRoutersFactory defined!");
+		if(linkCandidates instanceof LinkCandidateCreatorLazy && scheduleRoutersFactory instanceof ScheduleRoutersGtfsShapes.Factory) {
+			throw new RuntimeException("Lazy link candidates are shared between transit routes and cannot be used with gtfs shapes!");
+		}
 
 		if(ScheduleTools.idsContainChildStopString(schedule)) {
 			throw new RuntimeException("Some stopFacility ids contain the string \"" + PublicTransitMappingStrings.SUFFIX_CHILD_STOP_FACILITIES + "\"! Schedule cannot be mapped.");
@@ -167,17 +234,75 @@ public class PTMapper {
 		log.info("==================================");
 		log.info("Calculating pseudoTransitRoutes... (" + nTransitRoutes + " transit routes in " + schedule.getTransitLines().size() + " transit lines)");
 
-		Progress progress = new Progress(nTransitRoutes, "Calculating pseudoTransitRoutes ...");
+		// reuse the previous mapping of unchanged transit routes
+		Set<TransitRoute> reusedRoutes = new HashSet<>();
+		if(previousMapping != null) {
+			for(TransitLine transitLine : this.schedule.getTransitLines().values()) {
+				for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+					if(previousMapping.addPseudoRoute(transitLine, transitRoute, network, pseudoSchedule)) {
+						reusedRoutes.add(transitRoute);
+					}
+				}
+			}
+			log.info(reusedRoutes.size() + " transit routes are unchanged and reuse their previous mapping, " +
+					(nTransitRoutes - reusedRoutes.size()) + " transit routes are routed");
+		}
+
+		// resume from the checkpoint of an aborted run, record all routed transit routes
+		MappingCheckpoint checkpoint = null;
+		Set<TransitRoute> resumedRoutes = new HashSet<>();
+		if(checkpointFile != null) {
+			if(config == null) throw new RuntimeException("Checkpoint files can only be used if the schedule is mapped with a config");
+			checkpoint = new MappingCheckpoint(checkpointFile, schedule, network, config, resumeFromCheckpoint);
+			if(resumeFromCheckpoint) {
+				for(TransitLine transitLine : this.schedule.getTransitLines().values()) {
+					for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+						if(!reusedRoutes.contains(transitRoute) && checkpoint.addPseudoRoute(transitLine, transitRoute, network, pseudoSchedule)) {
+							resumedRoutes.add(transitRoute);
+						}
+					}
+				}
+				log.info(resumedRoutes.size() + " transit routes resumed from checkpoint file " + checkpointFile);
+			}
+		}
+		Set<TransitRoute> skipRoutes = new HashSet<>(reusedRoutes);
+		skipRoutes.addAll(resumedRoutes);
+
+		Progress progress = new Progress(nTransitRoutes - skipRoutes.size(), "Calculating pseudoTransitRoutes ...");
 		
 		// initiate pseudoRouting
 		PseudoRouting[] pseudoRoutingRunnables = new PseudoRouting[numThreads];
-		for(int i = 0; i < numThreads; i++) {
-			pseudoRoutingRunnables[i] = new PseudoRoutingImpl(scheduleRoutersFactory, linkCandidates, maxTravelCostFactor, progress);
-		}
-		// spread transit lines on runnables
-		int thr = 0;
-		for(TransitLine transitLine : schedule.getTransitLines().values()) {
-			pseudoRoutingRunnables[thr++ % numThreads].addTransitLineToQueue(transitLine);
+		if(scheduling == PublicTransitMappingConfigGroup.PseudoRoutingScheduling.staticLines && skipRoutes.isEmpty()) {
+			for(int i = 0; i < numThreads; i++) {
+				pseudoRoutingRunnables[i] = new PseudoRoutingImpl(scheduleRoutersFactory, linkCandidates, maxTravelCostFactor, progress, null, pseudoGraphType, checkpoint);
+			}
+			// spread transit lines on runnables
+			int thr = 0;
+			for(TransitLine transitLine : schedule.getTransitLines().values()) {
+				pseudoRoutingRunnables[thr++ % numThreads].addTransitLineToQueue(transitLine);
+			}
+		} else if(scheduling == PublicTransitMappingConfigGroup.PseudoRoutingScheduling.staticLines) {
+			// spread transit lines on runnables, only the transit routes that are not reused or resumed are queued
+			List<Queue<List<Tuple<TransitLine, TransitRoute>>>> lineQueues = new ArrayList<>();
+			for(int i = 0; i < numThreads; i++) {
+				lineQueues.add(new ConcurrentLinkedQueue<>());
+				pseudoRoutingRunnables[i] = new PseudoRoutingImpl(scheduleRoutersFactory, linkCandidates, maxTravelCostFactor, progress, lineQueues.get(i), pseudoGraphType, checkpoint);
+			}
+			int thr = 0;
+			for(TransitLine transitLine : schedule.getTransitLines().values()) {
+				Queue<List<Tuple<TransitLine, TransitRoute>>> lineQueue = lineQueues.get(thr++ % numThreads);
+				for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+					if(!skipRoutes.contains(transitRoute)) {
+						lineQueue.add(Collections.singletonList(new Tuple<>(transitLine, transitRoute)));
+					}
+				}
+			}
+		} else {
+			// all runnables take groups of transit routes with identical stop sequences from one queue, most expensive groups first
+			Queue<List<Tuple<TransitLine, TransitRoute>>> routeQueue = createSortedRouteQueue(skipRoutes);
+			for(int i = 0; i < numThreads; i++) {
+				pseudoRoutingRunnables[i] = new PseudoRoutingImpl(scheduleRoutersFactory, linkCandidates, maxTravelCostFactor, progress, routeQueue, pseudoGraphType, checkpoint);
+			}
 		}
 
 		Thread[] threads = new Thread[numThreads];
@@ -194,6 +319,28 @@ public class PTMapper {
 				throw new RuntimeException(e);
 			}
 		}
+		scheduleRoutersFactory.routingFinished();
+		if(checkpoint != null) {
+			checkpoint.close();
+			log.info(checkpoint.getNumberOfWrittenRoutes() + " pseudo routes recorded in checkpoint file " + checkpointFile);
+		}
+		nCopiedRoutes = 0;
+		long nCompletedQueries = 0;
+		long nAbortedQueries = 0;
+		long nPrunedQueries = 0;
+		for(PseudoRouting prt : pseudoRoutingRunnables) {
+			nCopiedRoutes += prt.getNumberOfCopiedRoutes();
+			nCompletedQueries += prt.getNumberOfCompletedQueries();
+			nAbortedQueries += prt.getNumberOfAbortedQueries();
+			nPrunedQueries += prt.getNumberOfPrunedQueries();
+		}
+		if(scheduling != PublicTransitMappingConfigGroup.PseudoRoutingScheduling.staticLines) {
+			log.info(nCopiedRoutes + " transit routes have been copied from routes with identical stop sequences and were not routed");
+		}
+		long nQueries = nCompletedQueries + nAbortedQueries;
+		log.info("Link candidate pair queries: " + nCompletedQueries + " completed, " + nAbortedQueries + " aborted at max travel cost" +
+				(nQueries > 0 ? String.format(" (%.1f%%)", 100.0 * nAbortedQueries / nQueries) : ""));
+		log.info("Link candidate pairs not routed because their beeline lower bound exceeds the max travel cost: " + nPrunedQueries);
 
 
 		/* [2]
@@ -202,10 +349,19 @@ public class PTMapper {
 		 */
 		log.info("=====================================");
 		log.info("Adding artificial links to network...");
+		linkCandidates.addLoopLinks(network);
 		for(PseudoRouting prt : pseudoRoutingRunnables) {
 			prt.addArtificialLinks(network);
 			pseudoSchedule.mergePseudoSchedule(prt.getPseudoSchedule());
 		}
+		if(previousMapping != null) {
+			int nCopiedLinks = previousMapping.addReusedLinks(network);
+			log.info(nCopiedLinks + " links of reused transit routes copied from the previous network");
+		}
+		if(!resumedRoutes.isEmpty()) {
+			int nResumedLinks = checkpoint.addArtificialLinks(network);
+			log.info(nResumedLinks + " artificial links of resumed transit routes added from the checkpoint file");
+		}
 
 
 		/* [3]
@@ -222,10 +378,8 @@ public class PTMapper {
 		 */
 		log.info("================================");
 		log.info("Pulling child stop facilities...");
-		int nPulled = 1;
-		while(nPulled != 0) {
-			nPulled = PTMapperTools.pullChildStopFacilitiesTogether(this.schedule, this.network);
-		}
+		int nPulled = PTMapperTools.pullChildStopFacilitiesTogether(this.schedule, this.network, numThreads);
+		log.info("    " + nPulled + " child stop facilities pulled");
 
 		/* [5] */
 		log.info("==========================================");
@@ -255,7 +409,7 @@ public class PTMapper {
 		/*
 		  Statistics
 		 */
-		printStatistics(nStopFacilities);
+		printStatistics(nStopFacilities, scheduleRoutersFactory, reusedRoutes.size());
 	}
 
 	private void cleanScheduleAndNetwork(Set<String> scheduleFreespeedModes, Set<String> modesToKeepOnCleanup, boolean removeNotUsedStopFacilities) {
@@ -278,6 +432,51 @@ public class PTMapper {
 		// ScheduleTools.addPTModeToNetwork(schedule, network);
 	}
 
+	/**
+	 * Groups transit routes with the same mode and stop facility sequence. Link candidates are
+	 * not requested here, they are compared by the routing threads before a pseudo route is copied
+	 * within a group. Transit routes in <tt>skipRoutes</tt> are not queued.
+	 *
+	 * @return a thread safe queue with all groups of transit routes, sorted descending by
+	 * the estimated routing effort (see {@link #estimateRoutingEffort}). Routing the expensive
+	 * groups first prevents a single thread from finishing long after all other threads are idle.
+	 * Groups that are queued again by the routing threads are sorted into the queue as well.
+	 */
+	private Queue<List<Tuple<TransitLine, TransitRoute>>> createSortedRouteQueue(Set<TransitRoute> skipRoutes) {
+		Map<List<Object>, List<Tuple<TransitLine, TransitRoute>>> groups = new LinkedHashMap<>();
+		int nRoutes = 0;
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				if(skipRoutes.contains(transitRoute)) {
+					continue;
+				}
+				nRoutes++;
+				List<Object> key = new ArrayList<>();
+				key.add(transitRoute.getTransportMode());
+				for(TransitRouteStop routeStop : transitRoute.getStops()) {
+					key.add(routeStop.getStopFacility().getId());
+				}
+				groups.computeIfAbsent(key, k -> new ArrayList<>()).add(new Tuple<>(transitLine, transitRoute));
+			}
+		}
+		log.info(nRoutes + " transit routes in " + groups.size() + " groups with identical stop sequences, " +
+				(nRoutes - groups.size()) + " transit routes might not need to be routed");
+
+		Queue<List<Tuple<TransitLine, TransitRoute>>> queue = new PriorityBlockingQueue<>(Math.max(1, groups.size()),
+				(g1, g2) -> Long.compare(estimateRoutingEffort(g2), estimateRoutingEffort(g1)));
+		queue.addAll(groups.values());
+		return queue;
+	}
+
+	/**
+	 * The routing effort of a group is estimated by the number of stops times the number of
+	 * transit routes in the group. Link candidates are not requested to estimate the effort,
+	 * the number of candidates per stop is assumed to be similar for all stops.
+	 */
+	private static long estimateRoutingEffort(List<Tuple<TransitLine, TransitRoute>> group) {
+		return (long) group.get(0).getSecond().getStops().size() * group.size();
+	}
+
 	/**
 	 * Log the result of the schedule validator
 	 */
@@ -305,7 +504,7 @@ public class PTMapper {
 	/**
 	 * Print some basic mapping statistics.
 	 */
-	private void printStatistics(int inputNStopFacilities) {
+	private void printStatistics(int inputNStopFacilities, ScheduleRoutersFactory scheduleRoutersFactory, int nReusedRoutes) {
 		int nArtificialLinks = 0;
 		for(Link l : network.getLinks().values()) {
 			if(l.getAllowedModes().contains(PublicTransitMappingStrings.ARTIFICIAL_LINK_MODE)) {
@@ -346,6 +545,10 @@ public class PTMapper {
 		log.info("    Transit Routes:");
 		log.info("       total routes in schedule         " + nRoutes);
 		log.info("       routes without artificial links  " + withoutArtificialLinks);
+		if(previousMapping != null) {
+			log.info("       reused from previous mapping     " + nReusedRoutes + String.format(" (%.1f%%)", nRoutes > 0 ? 100.0 * nReusedRoutes / nRoutes : 0.0));
+		}
+		scheduleRoutersFactory.printStatistics();
 		log.info("");
 		log.info("    Run PlausibilityCheck for further analysis");
 		log.info("");
@@ -359,4 +562,12 @@ public class PTMapper {
 	public Network getNetwork() {
 		return network;
 	}
+
+	/**
+	 * @return the number of transit routes of the last run that have been copied from a routed
+	 * transit route with an identical stop sequence instead of being routed
+	 */
+	public int getNumberOfCopiedRoutes() {
+		return nCopiedRoutes;
+	}
 }
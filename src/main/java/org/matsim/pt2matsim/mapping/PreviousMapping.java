@@ -0,0 +1,195 @@
+package org.matsim.pt2matsim.mapping;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt2matsim.config.PublicTransitMappingStrings;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateImpl;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.PublicTransitStopImpl;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoRouteStop;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoRouteStopImpl;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoSchedule;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+
+import java.util.*;
+
+/**
+ * The transit routes of a previously mapped schedule, identified by their fingerprint
+ * (schedule mode, parent stop facility sequence and stop coordinates). {@link PTMapper} uses
+ * the previous link sequence and child stop facilities of an unchanged transit route instead
+ * of routing it again.
+ * <p/>
+ * Artificial links and stop loop links of a previous link sequence that are missing in the
+ * network are copied from the previous network. A transit route is not reused if one of its
+ * links connects different nodes, or if it uses a network link that has been removed since the
+ * previous mapping (i.e. the street changed, the route is routed again).
+ */
+public class PreviousMapping {
+
+	protected static Logger log = Logger.getLogger(PreviousMapping.class);
+
+	private final Network previousNetwork;
+	private final Map<String, TransitRoute> mappedRoutes = new HashMap<>();
+	private final Set<Link> linksToCopy = new LinkedHashSet<>();
+
+	/**
+	 * @param previousSchedule the previously mapped schedule
+	 * @param previousNetwork  the network the previous schedule has been mapped to, can be
+	 *                         <tt>null</tt> if all previously used links are in the network
+	 */
+	public PreviousMapping(TransitSchedule previousSchedule, Network previousNetwork) {
+		this.previousNetwork = previousNetwork;
+
+		for(TransitLine transitLine : previousSchedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				if(isMapped(transitRoute)) {
+					mappedRoutes.putIfAbsent(createFingerprint(transitRoute), transitRoute);
+				}
+			}
+		}
+		log.info(mappedRoutes.size() + " distinct mapped transit routes in previous schedule");
+	}
+
+	/**
+	 * @return the schedule mode followed by the parent stop facility id and coordinates of
+	 * each route stop. Child stop facilities have the same coordinates as their parent.
+	 */
+	public static String createFingerprint(TransitRoute transitRoute) {
+		StringBuilder fingerprint = new StringBuilder(transitRoute.getTransportMode());
+		for(TransitRouteStop routeStop : transitRoute.getStops()) {
+			TransitStopFacility stopFacility = routeStop.getStopFacility();
+			fingerprint.append("|").append(ScheduleTools.getParentStopFacilityId(stopFacility.getId().toString()))
+					.append("@").append(stopFacility.getCoord().getX())
+					.append(",").append(stopFacility.getCoord().getY());
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Adds a pseudo route to the pseudo schedule that uses the link sequence and stop links of
+	 * the previously mapped transit route with the same fingerprint. Departures and stop
+	 * offsets are taken from the given transit route.
+	 *
+	 * @return <tt>false</tt> if there is no reusable previously mapped transit route, the
+	 * transit route has to be routed in that case.
+	 */
+	public boolean addPseudoRoute(TransitLine transitLine, TransitRoute transitRoute, Network network, PseudoSchedule pseudoSchedule) {
+		TransitRoute previousRoute = mappedRoutes.get(createFingerprint(transitRoute));
+		if(previousRoute == null) {
+			return false;
+		}
+
+		Map<Id<Link>, Link> links = new HashMap<>();
+		List<Id<Link>> linkIds = ScheduleTools.getTransitRouteLinkIds(previousRoute);
+		for(Id<Link> linkId : linkIds) {
+			if(!resolveLink(linkId, network, links)) return false;
+		}
+		for(TransitRouteStop previousStop : previousRoute.getStops()) {
+			if(!resolveLink(previousStop.getStopFacility().getLinkId(), network, links)) return false;
+		}
+
+		List<TransitRouteStop> routeStops = transitRoute.getStops();
+		List<PseudoRouteStop> pseudoStops = new ArrayList<>();
+		for(int i = 0; i < routeStops.size(); i++) {
+			TransitRouteStop routeStop = routeStops.get(i);
+			Link stopLink = links.get(previousRoute.getStops().get(i).getStopFacility().getLinkId());
+			pseudoStops.add(new PseudoRouteStopImpl(i, routeStop, new LinkCandidateImpl(stopLink, new PublicTransitStopImpl(transitLine, transitRoute, routeStop))));
+		}
+
+		for(Link link : links.values()) {
+			if(!network.getLinks().containsKey(link.getId())) {
+				linksToCopy.add(link);
+			}
+		}
+		pseudoSchedule.addPseudoRoute(transitLine, transitRoute, pseudoStops, linkIds);
+		return true;
+	}
+
+	/**
+	 * Copies the artificial links of reused transit routes that are missing in the network (and
+	 * their nodes if needed) from the previous network. Should be called after the artificial links
+	 * of the newly routed transit routes have been added.
+	 *
+	 * @return the number of links copied
+	 */
+	public int addReusedLinks(Network network) {
+		NetworkFactory factory = network.getFactory();
+		int nCopied = 0;
+		for(Link previousLink : linksToCopy) {
+			if(network.getLinks().containsKey(previousLink.getId())) {
+				continue;
+			}
+			Node fromNode = getOrCopyNode(previousLink.getFromNode(), network);
+			Node toNode = getOrCopyNode(previousLink.getToNode(), network);
+			Link link = factory.createLink(previousLink.getId(), fromNode, toNode);
+			link.setLength(previousLink.getLength());
+			link.setFreespeed(previousLink.getFreespeed());
+			link.setCapacity(previousLink.getCapacity());
+			link.setNumberOfLanes(previousLink.getNumberOfLanes());
+			link.setAllowedModes(new HashSet<>(previousLink.getAllowedModes()));
+			network.addLink(link);
+			nCopied++;
+		}
+		linksToCopy.clear();
+		return nCopied;
+	}
+
+	/**
+	 * Looks up the link in the network. Only artificial links are looked up in the previous network.
+	 *
+	 * @return <tt>false</tt> if the link cannot be found, is a network link that is missing in the
+	 * network or connects other nodes in the network than in the previous network
+	 */
+	private boolean resolveLink(Id<Link> linkId, Network network, Map<Id<Link>, Link> links) {
+		if(linkId == null) return false;
+		if(links.containsKey(linkId)) return true;
+
+		Link link = network.getLinks().get(linkId);
+		Link previousLink = previousNetwork == null ? null : previousNetwork.getLinks().get(linkId);
+		if(link != null) {
+			if(previousLink != null && (!link.getFromNode().getId().equals(previousLink.getFromNode().getId()) || !link.getToNode().getId().equals(previousLink.getToNode().getId()))) {
+				return false;
+			}
+			links.put(linkId, link);
+			return true;
+		} else if(previousLink != null && isArtificial(previousLink)) {
+			links.put(linkId, previousLink);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Artificial links and stop loop links lose the artificial link mode when the mapped network
+	 * is cleaned, they are recognized by their id prefix in that case.
+	 */
+	private static boolean isArtificial(Link link) {
+		return link.getAllowedModes().contains(PublicTransitMappingStrings.ARTIFICIAL_LINK_MODE) ||
+				link.getId().toString().startsWith(PublicTransitMappingStrings.PREFIX_ARTIFICIAL);
+	}
+
+	private static Node getOrCopyNode(Node previousNode, Network network) {
+		Node node = network.getNodes().get(previousNode.getId());
+		if(node == null) {
+			node = network.getFactory().createNode(previousNode.getId(), previousNode.getCoord());
+			network.addNode(node);
+		}
+		return node;
+	}
+
+	private static boolean isMapped(TransitRoute transitRoute) {
+		if(transitRoute.getRoute() == null || transitRoute.getStops().size() < 2) {
+			return false;
+		}
+		for(TransitRouteStop routeStop : transitRoute.getStops()) {
+			if(routeStop.getStopFacility().getLinkId() == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
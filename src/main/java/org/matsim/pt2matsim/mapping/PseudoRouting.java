@@ -35,6 +35,30 @@ public interface PseudoRouting extends Runnable {
 	 */
 	PseudoSchedule getPseudoSchedule();
 
+	/**
+	 * @return the number of transit routes whose pseudo route has been copied from
+	 * an identical transit route instead of being routed
+	 */
+	int getNumberOfCopiedRoutes();
+
+	/**
+	 * @return the number of link candidate pairs for which a network path within
+	 * the max travel cost has been found
+	 */
+	long getNumberOfCompletedQueries();
+
+	/**
+	 * @return the number of link candidate pairs for which the search has been aborted
+	 * because the max travel cost has been exceeded (or no path exists)
+	 */
+	long getNumberOfAbortedQueries();
+
+	/**
+	 * @return the number of link candidate pairs that have not been routed because
+	 * their lower bound travel cost already exceeds the max travel cost
+	 */
+	long getNumberOfPrunedQueries();
+
 	/**
 	 * Adds the necessary artificial links to the network.
 	 */
@@ -19,22 +19,22 @@
 package org.matsim.pt2matsim.mapping;
 
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.utils.collections.Tuple;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateCreator;
 import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRouters;
 import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersFactory;
 import org.matsim.pt2matsim.mapping.pseudoRouter.*;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Generates and calculates the pseudoRoutes for all the queued
@@ -54,17 +54,48 @@ public class PseudoRoutingImpl implements PseudoRouting {
 	private final LinkCandidateCreator linkCandidates;
 	private final ScheduleRoutersFactory scheduleRoutersFactory;
 	private final List<TransitLine> queue = new ArrayList<>();
+	private final Queue<List<Tuple<TransitLine, TransitRoute>>> sharedRouteQueue;
+	private int nCopiedRoutes = 0;
+	private long nCompletedQueries = 0;
+	private long nAbortedQueries = 0;
+	private long nPrunedQueries = 0;
 
 	private final Set<ArtificialLink> necessaryArtificialLinks = new HashSet<>();
 
 	private final PseudoSchedule threadPseudoSchedule = new PseudoScheduleImpl();
 	private double maxTravelCostFactor;
+	private final PublicTransitMappingConfigGroup.PseudoGraphType pseudoGraphType;
+	private final MappingCheckpoint checkpoint;
 
 	public PseudoRoutingImpl(ScheduleRoutersFactory scheduleRoutersFactory, LinkCandidateCreator linkCandidates, double maxTravelCostFactor, Progress progress) {
+		this(scheduleRoutersFactory, linkCandidates, maxTravelCostFactor, progress, null, PublicTransitMappingConfigGroup.PseudoGraphType.dijkstra);
+	}
+
+	/**
+	 * @param sharedRouteQueue groups of transit routes that are polled by all PseudoRouting threads after
+	 *                         the lines added with {@link #addTransitLineToQueue} have been routed. The
+	 *                         routes of a group have the same stop facility sequence. The first route of
+	 *                         a group is routed, the others copy its result if their link candidates are
+	 *                         equal. Routes that cannot copy the result are added to the queue again as
+	 *                         a new group, so idle threads can route them.
+	 *                         Has to be thread safe, can be <tt>null</tt>.
+	 * @param pseudoGraphType  pseudo graph implementation used to find the best link candidate sequence
+	 */
+	public PseudoRoutingImpl(ScheduleRoutersFactory scheduleRoutersFactory, LinkCandidateCreator linkCandidates, double maxTravelCostFactor, Progress progress, Queue<List<Tuple<TransitLine, TransitRoute>>> sharedRouteQueue, PublicTransitMappingConfigGroup.PseudoGraphType pseudoGraphType) {
+		this(scheduleRoutersFactory, linkCandidates, maxTravelCostFactor, progress, sharedRouteQueue, pseudoGraphType, null);
+	}
+
+	/**
+	 * @param checkpoint every calculated pseudo route is recorded in this checkpoint, can be <tt>null</tt>.
+	 */
+	public PseudoRoutingImpl(ScheduleRoutersFactory scheduleRoutersFactory, LinkCandidateCreator linkCandidates, double maxTravelCostFactor, Progress progress, Queue<List<Tuple<TransitLine, TransitRoute>>> sharedRouteQueue, PublicTransitMappingConfigGroup.PseudoGraphType pseudoGraphType, MappingCheckpoint checkpoint) {
 		this.maxTravelCostFactor = maxTravelCostFactor;
 		this.scheduleRoutersFactory = scheduleRoutersFactory;
 		this.linkCandidates = linkCandidates;
 		this.progress = progress;
+		this.sharedRouteQueue = sharedRouteQueue;
+		this.pseudoGraphType = pseudoGraphType;
+		this.checkpoint = checkpoint;
 	}
 
 	@Override
@@ -78,119 +109,236 @@ public class PseudoRoutingImpl implements PseudoRouting {
 		
 		for(TransitLine transitLine : queue) {
 			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
-				/* [1]
-				  Initiate pseudoGraph and Dijkstra algorithm for the current transitRoute.
-
-				  In the pseudoGraph, all link candidates are represented as nodes and the
-				  network paths between link candidates are reduced to a representation edge
-				  only storing the travel cost. With the pseudoGraph, the best linkCandidate
-				  sequence can be calculated (using Dijkstra). From this sequence, the actual
-				  path on the network can be routed later on.
-				 */
-				PseudoGraph pseudoGraph = new PseudoGraphImpl();
+				calcPseudoRoute(scheduleRouters, transitLine, transitRoute);
+			}
+		}
+
+		if(sharedRouteQueue != null) {
+			List<Tuple<TransitLine, TransitRoute>> group;
+			while((group = sharedRouteQueue.poll()) != null) {
+				Tuple<TransitLine, TransitRoute> routed = group.get(0);
+				PseudoGraph routedPseudoGraph = calcPseudoRoute(scheduleRouters, routed.getFirst(), routed.getSecond());
+
+				// transit routes that cannot copy the pseudo route are queued again instead of being routed by this thread
+				List<Tuple<TransitLine, TransitRoute>> notCopied = new ArrayList<>();
+				for(Tuple<TransitLine, TransitRoute> route : group.subList(1, group.size())) {
+					if(!copyPseudoRoute(scheduleRouters, routedPseudoGraph, routed.getFirst(), routed.getSecond(), route.getFirst(), route.getSecond())) {
+						notCopied.add(route);
+					}
+				}
+				if(!notCopied.isEmpty()) {
+					sharedRouteQueue.add(notCopied);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the pseudo route of an already routed transit route with the same stop facility
+	 * sequence. The pseudo stops are created with the route stops of the copy, so arrival and
+	 * departure offsets are kept.
+	 *
+	 * @return <tt>false</tt> if the routes are not routed identically (different routing key,
+	 * minimal travel costs or link candidates), the pseudo route has to be calculated in that case.
+	 */
+	private boolean copyPseudoRoute(ScheduleRouters scheduleRouters, PseudoGraph routedPseudoGraph, TransitLine routedLine, TransitRoute routedRoute, TransitLine transitLine, TransitRoute transitRoute) {
+		if(!scheduleRouters.getRoutingKey(routedLine, routedRoute).equals(scheduleRouters.getRoutingKey(transitLine, transitRoute))) {
+			return false;
+		}
+
+		List<TransitRouteStop> routedStops = routedRoute.getStops();
+		List<TransitRouteStop> routeStops = transitRoute.getStops();
+		for(int i = 0; i < routeStops.size() - 1; i++) {
+			double routedMinCost = scheduleRouters.getMinimalTravelCost(routedStops.get(i), routedStops.get(i + 1), routedLine, routedRoute);
+			double minCost = scheduleRouters.getMinimalTravelCost(routeStops.get(i), routeStops.get(i + 1), transitLine, transitRoute);
+			if(routedMinCost != minCost) {
+				return false;
+			}
+		}
+
+		List<PseudoRouteStop> routedPseudoPath = routedPseudoGraph.getLeastCostStopSequence();
+		List<PseudoRouteStop> pseudoPath = new ArrayList<>();
+		for(int i = 0; i < routeStops.size(); i++) {
+			Set<Id<Link>> routedLinkIds = new HashSet<>();
+			for(LinkCandidate lc : linkCandidates.getLinkCandidates(routedStops.get(i), routedLine, routedRoute)) {
+				routedLinkIds.add(lc.getLink().getId());
+			}
+			Id<Link> linkId = routedPseudoPath.get(i).getLinkId();
+			LinkCandidate linkCandidate = null;
+			for(LinkCandidate lc : linkCandidates.getLinkCandidates(routeStops.get(i), transitLine, transitRoute)) {
+				if(!routedLinkIds.remove(lc.getLink().getId())) {
+					return false;
+				}
+				if(lc.getLink().getId().equals(linkId)) {
+					linkCandidate = lc;
+				}
+			}
+			if(linkCandidate == null || !routedLinkIds.isEmpty()) {
+				return false;
+			}
+			pseudoPath.add(new PseudoRouteStopImpl(i, routeStops.get(i), linkCandidate));
+		}
+
+		threadPseudoSchedule.addPseudoRoute(transitLine, transitRoute, pseudoPath, routedPseudoGraph.getNetworkLinkIds());
+		if(checkpoint != null) {
+			checkpoint.add(transitLine, transitRoute, pseudoPath, routedPseudoGraph.getNetworkLinkIds(), routedPseudoGraph.getArtificialNetworkLinks());
+		}
+		nCopiedRoutes++;
+		progress.update();
+		return true;
+	}
+
+	/**
+	 * Calculates the pseudo route (i.e. the best link candidate sequence) for one transit route
+	 *
+	 * @return the pseudo graph containing the least cost stop sequence
+	 */
+	private PseudoGraph calcPseudoRoute(ScheduleRouters scheduleRouters, TransitLine transitLine, TransitRoute transitRoute) {
+		/* [1]
+		  Initiate pseudoGraph and Dijkstra algorithm for the current transitRoute.
+
+		  In the pseudoGraph, all link candidates are represented as nodes and the
+		  network paths between link candidates are reduced to a representation edge
+		  only storing the travel cost. With the pseudoGraph, the best linkCandidate
+		  sequence can be calculated (using Dijkstra or a forward pass over the layers
+		  of link candidates). From this sequence, the actual
+		  path on the network can be routed later on.
+		 */
+		PseudoGraph.PathRouter pathRouter = (fromLinkCandidate, toLinkCandidate) -> {
+			LeastCostPathCalculator.Path path = scheduleRouters.calcLeastCostPath(fromLinkCandidate, toLinkCandidate, transitLine, transitRoute);
+			return path != null ? path.links : null;
+		};
+		PseudoGraph pseudoGraph = pseudoGraphType == PublicTransitMappingConfigGroup.PseudoGraphType.layered ? new PseudoGraphLayered(pathRouter) : new PseudoGraphImpl(pathRouter);
+
+		/* [2]
+		  Calculate the shortest paths between each pair of routeStops/ParentStopFacility
+		 */
+		List<TransitRouteStop> routeStops = transitRoute.getStops();
+		// request the candidates of each stop only once, a lazy link candidate creator
+		// might create them again (with another stop) if they are requested later
+		List<Set<LinkCandidate>> routeStopCandidates = new ArrayList<>(routeStops.size());
+		for(TransitRouteStop routeStop : routeStops) {
+			routeStopCandidates.add(linkCandidates.getLinkCandidates(routeStop, transitLine, transitRoute));
+		}
+		for(int i = 0; i < routeStops.size() - 1; i++) {
+			Set<LinkCandidate> linkCandidatesCurrent = routeStopCandidates.get(i);
+			Set<LinkCandidate> linkCandidatesNext = routeStopCandidates.get(i + 1);
+
+			double minTravelCost = scheduleRouters.getMinimalTravelCost(routeStops.get(i), routeStops.get(i + 1), transitLine, transitRoute);
+			double maxAllowedTravelCost = minTravelCost * maxTravelCostFactor;
 
-				/* [2]
-				  Calculate the shortest paths between each pair of routeStops/ParentStopFacility
+			if(minTravelCost == 0 && warnMinTravelCost) {
+				log.warn("There are stop pairs where minTravelCost is 0.0! This might happen if two stops are on the same coordinate or if departure and arrival time of two subsequent stops are identical. Further messages are suppressed.");
+				warnMinTravelCost = false;
+			}
+			
+			/* [3]
+			  Calculate the shortest path between all link candidates. Loop links
+			  are never routed on the network.
+			 */
+			List<LinkCandidate> routableCandidatesNext = new ArrayList<>();
+			for(LinkCandidate linkCandidateNext : linkCandidatesNext) {
+				if(!linkCandidateNext.isLoopLink()) {
+					routableCandidatesNext.add(linkCandidateNext);
+				}
+			}
+
+			for(LinkCandidate linkCandidateCurrent : linkCandidatesCurrent) {
+				/* [3.1]
+				  Calculate the least cost paths to all link candidates of the next stop
+				  with one search, paths with a travel cost above maxAllowedTravelCost
+				  are not needed. If one or both link candidates are loop links we don't
+				  have to search a least cost path on the network. Candidates whose lower
+				  bound travel cost (e.g. beeline distance) already reaches maxAllowedTravelCost
+				  are not searched either, they get an artificial edge.
 				 */
-				List<TransitRouteStop> routeStops = transitRoute.getStops();
-				for(int i = 0; i < routeStops.size() - 1; i++) {
-					Set<LinkCandidate> linkCandidatesCurrent = linkCandidates.getLinkCandidates(routeStops.get(i), transitLine, transitRoute);
-					Set<LinkCandidate> linkCandidatesNext = linkCandidates.getLinkCandidates(routeStops.get(i + 1), transitLine, transitRoute);
+				Map<LinkCandidate, LeastCostPathCalculator.Path> leastCostPaths = Collections.emptyMap();
+				if(!linkCandidateCurrent.isLoopLink()) {
+					List<LinkCandidate> reachableCandidatesNext = new ArrayList<>(routableCandidatesNext.size());
+					for(LinkCandidate linkCandidateNext : routableCandidatesNext) {
+						if(scheduleRouters.getLowerBoundTravelCost(linkCandidateCurrent, linkCandidateNext, transitLine, transitRoute) < maxAllowedTravelCost) {
+							reachableCandidatesNext.add(linkCandidateNext);
+						}
+					}
+					nPrunedQueries += routableCandidatesNext.size() - reachableCandidatesNext.size();
+
+					if(reachableCandidatesNext.size() > 0) {
+						leastCostPaths = scheduleRouters.calcLeastCostPaths(linkCandidateCurrent, reachableCandidatesNext, maxAllowedTravelCost, transitLine, transitRoute);
+						nCompletedQueries += leastCostPaths.size();
+						nAbortedQueries += reachableCandidatesNext.size() - leastCostPaths.size();
+					}
+				}
+
+				for(LinkCandidate linkCandidateNext : linkCandidatesNext) {
 
-					double minTravelCost = scheduleRouters.getMinimalTravelCost(routeStops.get(i), routeStops.get(i + 1), transitLine, transitRoute);
-					double maxAllowedTravelCost = minTravelCost * maxTravelCostFactor;
+					boolean useExistingNetworkLinks = false;
+					double pathCost = 2 * maxAllowedTravelCost;
 
-					if(minTravelCost == 0 && warnMinTravelCost) {
-						log.warn("There are stop pairs where minTravelCost is 0.0! This might happen if two stops are on the same coordinate or if departure and arrival time of two subsequent stops are identical. Further messages are suppressed.");
-						warnMinTravelCost = false;
+					LeastCostPathCalculator.Path leastCostPath = leastCostPaths.get(linkCandidateNext);
+					if(leastCostPath != null) {
+						pathCost = leastCostPath.travelCost;
+						// if both link candidates are the same, cost should get higher
+						if(linkCandidateCurrent.getLink().getId().equals(linkCandidateNext.getLink().getId())) {
+							pathCost *= 4;
+						}
+						useExistingNetworkLinks = pathCost < maxAllowedTravelCost;
 					}
-					
-					/* [3]
-					  Calculate the shortest path between all link candidates.
+
+					/* [3.2]
+					  If a path on the network could be found and its travel cost are
+					  below maxAllowedTravelCost, a normal edge is added to the pseudoGraph
 					 */
-					for(LinkCandidate linkCandidateCurrent : linkCandidatesCurrent) {
-						for(LinkCandidate linkCandidateNext : linkCandidatesNext) {
-
-							boolean useExistingNetworkLinks = false;
-							double pathCost = 2 * maxAllowedTravelCost;
-							List<Link> pathLinks = null;
-
-							/* [3.1]
-							  If one or both link candidates are loop links we don't have
-							  to search a least cost path on the network.
-							 */
-							if(!linkCandidateCurrent.isLoopLink() && !linkCandidateNext.isLoopLink()) {
-								/*
-								  Calculate the least cost path on the network
-								 */
-								LeastCostPathCalculator.Path leastCostPath = scheduleRouters.calcLeastCostPath(linkCandidateCurrent, linkCandidateNext, transitLine, transitRoute);
-
-								if(leastCostPath != null) {
-									pathCost = leastCostPath.travelCost;
-									pathLinks = leastCostPath.links;
-									// if both link candidates are the same, cost should get higher
-									if(linkCandidateCurrent.getLink().getId().equals(linkCandidateNext.getLink().getId())) {
-										pathCost *= 4;
-									}
-								}
-								useExistingNetworkLinks = pathCost < maxAllowedTravelCost;
-							}
-
-							/* [3.2]
-							  If a path on the network could be found and its travel cost are
-							  below maxAllowedTravelCost, a normal edge is added to the pseudoGraph
-							 */
-							if(useExistingNetworkLinks) {
-								double currentCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateCurrent);
-								double nextCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateNext);
-								double edgeWeight = pathCost + 0.5 * currentCandidateTravelCost + 0.5 * nextCandidateTravelCost;
-
-								pseudoGraph.addEdge(i, routeStops.get(i), linkCandidateCurrent, routeStops.get(i + 1), linkCandidateNext, edgeWeight, pathLinks);
-							}
-							/* [3.2]
-							  Create artificial links between two routeStops if:
-							  	 - no path on the network could be found
-							    - the travel cost of the path are greater than maxAllowedTravelCost
-
-							  Artificial links are created between all LinkCandidates
-							  (usually this means between one dummy link for the stop
-							  facility and the other linkCandidates).
-							 */
-							else {
-								double currentCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateCurrent);
-								double nextCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateNext);
-								double artificialEdgeWeight = maxAllowedTravelCost - 0.5 * currentCandidateTravelCost - 0.5 * nextCandidateTravelCost;
-
-								pseudoGraph.addEdge(i, routeStops.get(i), linkCandidateCurrent, routeStops.get(i + 1), linkCandidateNext, artificialEdgeWeight, null);
-							}
-						}
+					if(useExistingNetworkLinks) {
+						double currentCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateCurrent);
+						double nextCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateNext);
+						double edgeWeight = pathCost + 0.5 * currentCandidateTravelCost + 0.5 * nextCandidateTravelCost;
+
+						pseudoGraph.addEdge(i, routeStops.get(i), linkCandidateCurrent, routeStops.get(i + 1), linkCandidateNext, edgeWeight, false);
 					}
-				} // - routeStop loop
+					/* [3.2]
+					  Create artificial links between two routeStops if:
+					  	 - no path on the network could be found
+					    - the travel cost of the path are greater than maxAllowedTravelCost
 
-				/* [4]
-				  Finish the pseudoGraph by adding dummy nodes.
-				 */
-				pseudoGraph.addDummyEdges(routeStops,
-						linkCandidates.getLinkCandidates(routeStops.get(0), transitLine, transitRoute),
-						linkCandidates.getLinkCandidates(routeStops.get(routeStops.size() - 1), transitLine, transitRoute));
+					  Artificial links are created between all LinkCandidates
+					  (usually this means between one dummy link for the stop
+					  facility and the other linkCandidates).
+					 */
+					else {
+						double currentCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateCurrent);
+						double nextCandidateTravelCost = scheduleRouters.getLinkCandidateTravelCost(linkCandidateNext);
+						double artificialEdgeWeight = maxAllowedTravelCost - 0.5 * currentCandidateTravelCost - 0.5 * nextCandidateTravelCost;
 
-				/* [5]
-				  Find the least cost path i.e. the PseudoRouteStop sequence
-				 */
-				List<PseudoRouteStop> pseudoPath = pseudoGraph.getLeastCostStopSequence();
-
-				if(pseudoPath == null) {
-					throw new RuntimeException("PseudoGraph has no path from SOURCE to DESTINATION for transit route " + transitRoute.getId() + " " +
-							"on line " + transitLine.getId() + " from \"" + routeStops.get(0).getStopFacility().getName() + "\" " +
-							"to \"" + routeStops.get(routeStops.size() - 1).getStopFacility().getName() + "\"");
-				} else {
-					necessaryArtificialLinks.addAll(pseudoGraph.getArtificialNetworkLinks());
-					threadPseudoSchedule.addPseudoRoute(transitLine, transitRoute, pseudoPath, pseudoGraph.getNetworkLinkIds());
+						pseudoGraph.addEdge(i, routeStops.get(i), linkCandidateCurrent, routeStops.get(i + 1), linkCandidateNext, artificialEdgeWeight, true);
+					}
 				}
-				
-				progress.update();
+			}
+		} // - routeStop loop
+
+		/* [4]
+		  Finish the pseudoGraph by adding dummy nodes.
+		 */
+		pseudoGraph.addDummyEdges(routeStops, routeStopCandidates.get(0), routeStopCandidates.get(routeStops.size() - 1));
+
+		/* [5]
+		  Find the least cost path i.e. the PseudoRouteStop sequence
+		 */
+		List<PseudoRouteStop> pseudoPath = pseudoGraph.getLeastCostStopSequence();
+
+		if(pseudoPath == null) {
+			throw new RuntimeException("PseudoGraph has no path from SOURCE to DESTINATION for transit route " + transitRoute.getId() + " " +
+					"on line " + transitLine.getId() + " from \"" + routeStops.get(0).getStopFacility().getName() + "\" " +
+					"to \"" + routeStops.get(routeStops.size() - 1).getStopFacility().getName() + "\"");
+		} else {
+			necessaryArtificialLinks.addAll(pseudoGraph.getArtificialNetworkLinks());
+			threadPseudoSchedule.addPseudoRoute(transitLine, transitRoute, pseudoPath, pseudoGraph.getNetworkLinkIds());
+			if(checkpoint != null) {
+				checkpoint.add(transitLine, transitRoute, pseudoPath, pseudoGraph.getNetworkLinkIds(), pseudoGraph.getArtificialNetworkLinks());
 			}
 		}
+		
+		progress.update();
+		return pseudoGraph;
 	}
 
 
@@ -202,6 +350,26 @@ public class PseudoRoutingImpl implements PseudoRouting {
 		return threadPseudoSchedule;
 	}
 
+	@Override
+	public int getNumberOfCopiedRoutes() {
+		return nCopiedRoutes;
+	}
+
+	@Override
+	public long getNumberOfCompletedQueries() {
+		return nCompletedQueries;
+	}
+
+	@Override
+	public long getNumberOfAbortedQueries() {
+		return nAbortedQueries;
+	}
+
+	@Override
+	public long getNumberOfPrunedQueries() {
+		return nPrunedQueries;
+	}
+
 	/**
 	 * Adds the artificial links to the network.
 	 *
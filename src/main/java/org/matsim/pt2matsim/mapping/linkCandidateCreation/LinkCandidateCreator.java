@@ -18,6 +18,7 @@
 
 package org.matsim.pt2matsim.mapping.linkCandidateCreation;
 
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
@@ -38,4 +39,11 @@ public interface LinkCandidateCreator extends MapperModule {
 	 */
 	SortedSet<LinkCandidate> getLinkCandidates(TransitRouteStop transitRouteStop, TransitLine transitLine, TransitRoute transitRoute);
 
+	/**
+	 * Called once all transit routes have been routed. Adds loop links that were created
+	 * during routing but not yet added to the network.
+	 */
+	default void addLoopLinks(Network network) {
+	}
+
 }
\ No newline at end of file
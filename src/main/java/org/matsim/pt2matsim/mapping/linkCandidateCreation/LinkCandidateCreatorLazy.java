@@ -0,0 +1,249 @@
+package org.matsim.pt2matsim.mapping.linkCandidateCreation;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.config.PublicTransitMappingStrings;
+import org.matsim.pt2matsim.tools.LinkSpatialIndex;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.PTMapperTools;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates link candidates on demand, i.e. the first time {@link #getLinkCandidates} is called
+ * for a route stop. Uses the same heuristics as {@link LinkCandidateCreatorStandard}, but links
+ * are only separated from the links of the previous and next stop. The candidates of a route
+ * stop thus only depend on its signature (schedule mode, previous, current and next stop facility)
+ * and are shared by all route stops with the same signature.
+ * <p/>
+ * At most <tt>maxCachedSignatures</tt> candidate sets are stored, the oldest sets are removed
+ * first and created again if needed. Recreated candidates have the same links as the removed
+ * ones but might reference another route stop.
+ * <p/>
+ * Since the candidates are shared between transit routes, {@link LinkCandidate#getStop()} returns
+ * the route stop that requested the signature when the candidates were created. Schedule routers
+ * that depend on the transit route of a candidate (i.e. shapes) cannot be used with this creator,
+ * use {@link LinkCandidateCreatorStandard} instead.
+ * <p/>
+ * Candidates are created by the pseudo routing threads, so the network is not modified here. Loop
+ * links for stop facilities without close links are stored separately and added to the network
+ * with {@link #addLoopLinks} after routing.
+ */
+public class LinkCandidateCreatorLazy implements LinkCandidateCreator {
+
+	protected static Logger log = Logger.getLogger(LinkCandidateCreatorLazy.class);
+
+	private static final int DEFAULT_MAX_CACHED_SIGNATURES = 100000;
+
+	private final Network network;
+	private final int nLinks;
+	private final double distanceMultiplier;
+	private final double maxDistance;
+	private final int maxCachedSignatures;
+
+	private final Map<String, LinkSpatialIndex> linkIndices = new HashMap<>();
+	private final Map<StopSignature, SortedSet<LinkCandidate>> linkCandidates = new ConcurrentHashMap<>();
+	private final Queue<StopSignature> cachedSignatures = new ConcurrentLinkedQueue<>();
+	private final Map<String, List<Link>> closeLinks = new ConcurrentHashMap<>();
+	private final Map<Id<TransitStopFacility>, Link> loopLinks = new ConcurrentHashMap<>();
+
+	private final AtomicLong nRequests = new AtomicLong();
+	private final AtomicLong nCreated = new AtomicLong();
+
+	public LinkCandidateCreatorLazy(TransitSchedule schedule, Network network, int nLinks, double distanceMultiplier, double maxDistance, Map<String, Set<String>> transportModeAssignments, int maxCachedSignatures) {
+		if(maxCachedSignatures < 1) {
+			throw new IllegalArgumentException("maxCachedSignatures must be at least 1");
+		}
+		this.network = network;
+		this.nLinks = nLinks;
+		this.distanceMultiplier = distanceMultiplier;
+		this.maxDistance = maxDistance;
+		this.maxCachedSignatures = maxCachedSignatures;
+
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				String scheduleTransportMode = transitRoute.getTransportMode();
+				if(!linkIndices.containsKey(scheduleTransportMode)) {
+					Set<String> networkModes = transportModeAssignments.get(scheduleTransportMode);
+					if(networkModes == null) {
+						log.warn("No transportModeAssignment found for schedule mode " + scheduleTransportMode);
+						networkModes = new HashSet<>();
+						transportModeAssignments.put(scheduleTransportMode, networkModes);
+					}
+					linkIndices.put(scheduleTransportMode, new LinkSpatialIndex(network, networkModes, Math.max(maxDistance, 10)));
+				}
+			}
+		}
+	}
+
+	public LinkCandidateCreatorLazy(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config) {
+		this(schedule, network, config.getNLinkThreshold(), config.getCandidateDistanceMultiplier(), config.getMaxLinkCandidateDistance(), config.getTransportModeAssignment(), DEFAULT_MAX_CACHED_SIGNATURES);
+	}
+
+	@Override
+	public SortedSet<LinkCandidate> getLinkCandidates(TransitRouteStop transitRouteStop, TransitLine transitLine, TransitRoute transitRoute) {
+		List<TransitRouteStop> routeStops = transitRoute.getStops();
+		int i = 0;
+		while(i < routeStops.size() && routeStops.get(i) != transitRouteStop) {
+			i++;
+		}
+		if(i == routeStops.size()) {
+			throw new IllegalArgumentException("Transit route " + transitRoute.getId() + " does not contain stop " + transitRouteStop.getStopFacility().getId());
+		}
+		TransitStopFacility previous = i > 0 ? routeStops.get(i - 1).getStopFacility() : null;
+		TransitStopFacility next = i < routeStops.size() - 1 ? routeStops.get(i + 1).getStopFacility() : null;
+		StopSignature signature = new StopSignature(transitRoute.getTransportMode(), previous, transitRouteStop.getStopFacility(), next);
+
+		nRequests.incrementAndGet();
+		SortedSet<LinkCandidate> candidates = linkCandidates.get(signature);
+		if(candidates == null) {
+			candidates = linkCandidates.computeIfAbsent(signature, s -> {
+				nCreated.incrementAndGet();
+				cachedSignatures.add(s);
+				return createLinkCandidates(s, new PublicTransitStopImpl(transitLine, transitRoute, transitRouteStop));
+			});
+			while(linkCandidates.size() > maxCachedSignatures) {
+				StopSignature oldest = cachedSignatures.poll();
+				if(oldest == null) break;
+				linkCandidates.remove(oldest);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * @return the number of candidate sets created so far (including sets that were
+	 * created again after being removed from the cache)
+	 */
+	public long getNumberOfCreatedCandidateSets() {
+		return nCreated.get();
+	}
+
+	/**
+	 * @return the number of calls of {@link #getLinkCandidates}
+	 */
+	public long getNumberOfRequests() {
+		return nRequests.get();
+	}
+
+	/**
+	 * Separates the links of the stop facility from the links of the previous and next
+	 * stop facility, see {@link LinkCandidateCreatorStandard}.
+	 */
+	private SortedSet<LinkCandidate> createLinkCandidates(StopSignature s, PublicTransitStop stop) {
+		Set<Link> links = getLinks(s.mode, s.facility);
+
+		if(s.previous != null && s.facility.getLinkId() == null) {
+			PTMapperTools.separateLinks(s.facility.getCoord(), links, s.previous.getCoord(), getLinks(s.mode, s.previous));
+		}
+		if(s.next != null) {
+			if(s.next.getLinkId() != null) {
+				links.remove(getLink(s.next.getLinkId()));
+			} else {
+				PTMapperTools.separateLinks(s.next.getCoord(), getLinks(s.mode, s.next), s.facility.getCoord(), links);
+			}
+		}
+
+		if(links.size() > 0) {
+			NetworkTools.reduceSequencedLinks(links, s.facility.getCoord());
+		} else {
+			// no links for this stop, create artificial loop link
+			links.add(getLoopLink(s.facility));
+		}
+		return Collections.unmodifiableSortedSet(LinkCandidateCreatorStandard.createLinkCandidates(stop, links));
+	}
+
+	/**
+	 * @return a modifiable copy of the referenced link or the closest links of the stop facility
+	 */
+	private Set<Link> getLinks(String scheduleMode, TransitStopFacility stopFacility) {
+		if(stopFacility.getLinkId() != null) {
+			return new HashSet<>(Collections.singleton(getLink(stopFacility.getLinkId())));
+		}
+		List<Link> links = closeLinks.computeIfAbsent(scheduleMode + ":" + stopFacility.getId(),
+				k -> LinkCandidateCreatorStandard.findClosestLinks(stopFacility.getCoord(), linkIndices.get(scheduleMode), nLinks, distanceMultiplier, maxDistance));
+		return new HashSet<>(links);
+	}
+
+	private Link getLink(Id<Link> linkId) {
+		return network.getLinks().get(linkId);
+	}
+
+	/**
+	 * @return the loop link of the stop facility. The link and its node are not added to the network.
+	 */
+	private Link getLoopLink(TransitStopFacility stopFacility) {
+		return loopLinks.computeIfAbsent(stopFacility.getId(), k -> {
+			Link link = network.getLinks().get(PTMapperTools.createArtificialLinkId(stopFacility));
+			if(link != null) {
+				return link;
+			}
+			Node node = NetworkUtils.createNode(Id.createNodeId(PublicTransitMappingStrings.PREFIX_ARTIFICIAL + stopFacility.getId()), stopFacility.getCoord());
+			link = NetworkUtils.createLink(PTMapperTools.createArtificialLinkId(stopFacility), node, node, network, 10, 20, 9999, 1);
+			link.setAllowedModes(LinkCandidateCreatorStandard.loopLinkModes);
+			return link;
+		});
+	}
+
+	/**
+	 * Adds the loop links (and their nodes) created for stop facilities without close links to
+	 * the network. Must not be called while link candidates are requested.
+	 */
+	@Override
+	public void addLoopLinks(Network network) {
+		for(Link loopLink : loopLinks.values()) {
+			if(!network.getLinks().containsKey(loopLink.getId())) {
+				if(!network.getNodes().containsKey(loopLink.getFromNode().getId())) {
+					network.addNode(loopLink.getFromNode());
+				}
+				network.addLink(loopLink);
+			}
+		}
+	}
+
+	/**
+	 * Schedule mode and stop facilities of a route stop and its neighbours
+	 */
+	private static final class StopSignature {
+
+		private final String mode;
+		private final TransitStopFacility previous;
+		private final TransitStopFacility facility;
+		private final TransitStopFacility next;
+		private final int hash;
+
+		private StopSignature(String mode, TransitStopFacility previous, TransitStopFacility facility, TransitStopFacility next) {
+			this.mode = mode;
+			this.previous = previous;
+			this.facility = facility;
+			this.next = next;
+			this.hash = Objects.hash(mode, previous, facility, next);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(o == null || getClass() != o.getClass()) return false;
+
+			StopSignature that = (StopSignature) o;
+			return Objects.equals(mode, that.mode) &&
+					Objects.equals(previous, that.previous) &&
+					facility.equals(that.facility) &&
+					Objects.equals(next, that.next);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -23,19 +23,24 @@ import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.utils.collections.CollectionUtils;
-import org.matsim.core.utils.collections.MapUtils;
+import org.matsim.core.utils.collections.Tuple;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.pt.transitSchedule.api.*;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.config.PublicTransitMappingStrings;
 import org.matsim.pt2matsim.mapping.Progress;
+import org.matsim.pt2matsim.tools.CacheTools;
+import org.matsim.pt2matsim.tools.LinkSpatialIndex;
 import org.matsim.pt2matsim.tools.MiscUtils;
 import org.matsim.pt2matsim.tools.NetworkTools;
 import org.matsim.pt2matsim.tools.PTMapperTools;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Creates link candidates without mode separated config. Uses more "heuristics".
@@ -44,207 +49,377 @@ import java.util.*;
  */
 public class LinkCandidateCreatorStandard implements LinkCandidateCreator {
 
-	private static final Set<String> loopLinkModes = CollectionUtils.stringToSet(PublicTransitMappingStrings.ARTIFICIAL_LINK_MODE + "," + PublicTransitMappingStrings.STOP_FACILITY_LOOP_LINK);
+	private static final int CACHE_FILE_VERSION = 1;
+	static final Set<String> loopLinkModes = CollectionUtils.stringToSet(PublicTransitMappingStrings.ARTIFICIAL_LINK_MODE + "," + PublicTransitMappingStrings.STOP_FACILITY_LOOP_LINK);
 	protected static Logger log = Logger.getLogger(LinkCandidateCreatorStandard.class);
 
 	private final TransitSchedule schedule;
 	private final Network network;
 
-	private final Map<Id<PublicTransitStop>, SortedSet<LinkCandidate>> linkCandidates = new HashMap<>();
-	private final Map<Id<PublicTransitStop>, PublicTransitStop> stops = new HashMap<>();
+	private final Map<PublicTransitStop, SortedSet<LinkCandidate>> linkCandidates = new ConcurrentHashMap<>();
 
 	private final int nLinks;
 	private final double distanceMultiplier;
 	private final double maxDistance;
 	private final Map<String, Set<String>> transportModeAssignments;
-	private double nodeSearchRadius;
+	private final int numOfThreads;
+	private final String cacheDirectory;
+	private final Map<String, LinkSpatialIndex> linkIndices = new HashMap<>();
 
 
 	public LinkCandidateCreatorStandard(TransitSchedule schedule, Network network, int nLinks, double distanceMultiplier, double maxDistance, Map<String, Set<String>> transportModeAssignments) {
+		this(schedule, network, nLinks, distanceMultiplier, maxDistance, transportModeAssignments, 1);
+	}
+
+	public LinkCandidateCreatorStandard(TransitSchedule schedule, Network network, int nLinks, double distanceMultiplier, double maxDistance, Map<String, Set<String>> transportModeAssignments, int numOfThreads) {
+		this(schedule, network, nLinks, distanceMultiplier, maxDistance, transportModeAssignments, numOfThreads, null);
+	}
+
+	/**
+	 * @param cacheDirectory link candidates are loaded from a cache file in this directory if it exists for the
+	 *                       same network, schedule and parameters. Otherwise, the link candidates are created and
+	 *                       written to the cache file. Nothing is cached if <tt>null</tt>.
+	 */
+	public LinkCandidateCreatorStandard(TransitSchedule schedule, Network network, int nLinks, double distanceMultiplier, double maxDistance, Map<String, Set<String>> transportModeAssignments, int numOfThreads, String cacheDirectory) {
 		this.schedule = schedule;
 		this.network = network;
 		this.nLinks = nLinks;
 		this.distanceMultiplier = distanceMultiplier;
 		this.maxDistance = maxDistance;
 		this.transportModeAssignments = transportModeAssignments;
+		this.numOfThreads = Math.max(1, numOfThreads);
+		this.cacheDirectory = cacheDirectory;
 
 		load();
 	}
 
 	public LinkCandidateCreatorStandard(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config) {
-		this(schedule, network, config.getNLinkThreshold(), config.getCandidateDistanceMultiplier(), config.getMaxLinkCandidateDistance(), config.getTransportModeAssignment());
+		this(schedule, network, config.getNLinkThreshold(), config.getCandidateDistanceMultiplier(), config.getMaxLinkCandidateDistance(), config.getTransportModeAssignment(), config.getNumOfThreads(), config.getCacheDirectory());
 	}
 
+	/**
+	 * Creates the link candidates for all transit route stops. Each step is run in parallel, the
+	 * results of all steps only depend on their input (closest links per mode and stop facility,
+	 * links per route, candidates per stop) and do not change with the number of threads.
+	 */
 	private void load() {
-		this.nodeSearchRadius = maxDistance*15;
-
 		log.info("===========================");
 		log.info("Creating link candidates...");
-		log.info("   search radius: " + nodeSearchRadius);
+		log.info("   search radius: " + maxDistance);
+		log.info("   threads: " + numOfThreads);
 		log.info("   Note: loop links for stop facilities are created if no link candidate can be found.");
 
-		Map<String, Set<Link>> closeLinksMap = new HashMap<>();
-
-		Map<Id<PublicTransitStop>, Set<Link>> candidates = new HashMap<>();
-		
-		long totalNumberOfRoutes = 0;
-		
-		for(TransitLine transitLine : schedule.getTransitLines().values()) {
-			totalNumberOfRoutes += transitLine.getRoutes().size();
+		File cacheFile = null;
+		if(cacheDirectory != null) {
+			cacheFile = CacheTools.getCacheFile(cacheDirectory, "linkCandidates", createCacheKey());
+			if(cacheFile.exists() && loadFromCacheFile(cacheFile)) {
+				log.info("Link candidates loaded from cache file " + cacheFile);
+				return;
+			}
 		}
-		
-		Progress progress = new Progress(totalNumberOfRoutes, "Getting closest links ...");
 
-		/*
-		  get closest links for each stop facility (separated by mode)
+		/* [1]
+		  create the link indices for each schedule mode
 		 */
+		List<Tuple<TransitLine, TransitRoute>> routes = new ArrayList<>();
 		for(TransitLine transitLine : schedule.getTransitLines().values()) {
 			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
 				String scheduleTransportMode = transitRoute.getTransportMode();
-				Set<String> networkModes = transportModeAssignments.get(scheduleTransportMode);
-
-				// If no transportModes have been defined in the config, no links should be found by findClosestLink (which requires an empty set)
-				if(networkModes == null) {
-					log.warn("No transportModeAssignment found for schedule mode " + scheduleTransportMode);
-					networkModes = new HashSet<>();
-					transportModeAssignments.put(scheduleTransportMode, networkModes);
+				if(!linkIndices.containsKey(scheduleTransportMode)) {
+					Set<String> networkModes = transportModeAssignments.get(scheduleTransportMode);
+
+					// If no transportModes have been defined in the config, no links should be found by findClosestLink (which requires an empty set)
+					if(networkModes == null) {
+						log.warn("No transportModeAssignment found for schedule mode " + scheduleTransportMode);
+						networkModes = new HashSet<>();
+						transportModeAssignments.put(scheduleTransportMode, networkModes);
+					}
+					linkIndices.put(scheduleTransportMode, new LinkSpatialIndex(network, networkModes, Math.max(maxDistance, 10)));
 				}
+				routes.add(new Tuple<>(transitLine, transitRoute));
+			}
+		}
 
-				TransitRouteStop previousRouteStop = transitRoute.getStops().get(0);
+		/* [2]
+		  get closest links for each stop facility (separated by mode)
+		 */
+		Map<String, Tuple<String, TransitStopFacility>> closeLinksQueries = new LinkedHashMap<>();
+		for(Tuple<TransitLine, TransitRoute> route : routes) {
+			TransitRoute transitRoute = route.getSecond();
+			for(int i = 0; i < transitRoute.getStops().size(); i++) {
+				TransitRouteStop routeStop = transitRoute.getStops().get(i);
+				// the first stop always uses the closest links
+				if(i == 0 || routeStop.getStopFacility().getLinkId() == null) {
+					closeLinksQueries.putIfAbsent(getCloseLinksKey(transitRoute, routeStop), new Tuple<>(transitRoute.getTransportMode(), routeStop.getStopFacility()));
+				}
+			}
+		}
 
-				stops.put(PublicTransitStop.createId(transitLine, transitRoute, previousRouteStop), new PublicTransitStopImpl(transitLine, transitRoute, previousRouteStop));
+		Map<String, Set<Link>> closeLinksMap = new ConcurrentHashMap<>();
+		Progress progress = new Progress(closeLinksQueries.size(), "Getting closest links ...");
+		MiscUtils.runInThreads(closeLinksQueries.entrySet(), numOfThreads, e -> {
+			LinkSpatialIndex linkIndex = linkIndices.get(e.getValue().getFirst());
+			closeLinksMap.put(e.getKey(), new HashSet<>(findClosestLinks(e.getValue().getSecond().getCoord(), linkIndex, nLinks, distanceMultiplier, maxDistance)));
+			progress.update();
+		});
 
-				Set<Link> tmpCloseLinks = MapUtils.getSet(getCloseLinksKey(transitRoute, previousRouteStop), closeLinksMap);
-				if(tmpCloseLinks.size() == 0) {
-					tmpCloseLinks.addAll(findClosestLinks(previousRouteStop.getStopFacility().getCoord(), networkModes));
+		/* [3]
+		  separate links of subsequent stops for each transit route
+		 */
+		Map<PublicTransitStop, Set<Link>> candidates = new ConcurrentHashMap<>();
+		Progress routeProgress = new Progress(routes.size(), "Separating links of subsequent stops ...");
+		MiscUtils.runInThreads(routes, numOfThreads, route -> {
+			TransitLine transitLine = route.getFirst();
+			TransitRoute transitRoute = route.getSecond();
+
+			TransitRouteStop previousRouteStop = transitRoute.getStops().get(0);
+			PublicTransitStop previousStop = new PublicTransitStopImpl(transitLine, transitRoute, previousRouteStop);
+
+			Set<Link> previousLinks = new HashSet<>(closeLinksMap.get(getCloseLinksKey(transitRoute, previousRouteStop)));
+
+			for(int i = 1; i < transitRoute.getStops().size(); i++) {
+				TransitStopFacility previousStopFacility = previousRouteStop.getStopFacility();
+				TransitRouteStop currentRouteStop = transitRoute.getStops().get(i);
+				TransitStopFacility currentStopFacility = currentRouteStop.getStopFacility();
+				PublicTransitStop currentStop = new PublicTransitStopImpl(transitLine, transitRoute, currentRouteStop);
+
+				Set<Link> currentLinks = new HashSet<>();
+
+				/*
+				  if stop facility already has a referenced link
+				 */
+				if(currentStopFacility.getLinkId() != null) {
+					currentLinks.add(network.getLinks().get(currentStopFacility.getLinkId()));
+					if(previousLinks.contains(network.getLinks().get(currentStopFacility.getLinkId()))) {
+						previousLinks.remove(network.getLinks().get(currentStopFacility.getLinkId()));
+					}
+				}
+				/*
+				  use links close to stop facility
+				 */
+				else {
+					currentLinks.addAll(closeLinksMap.get(getCloseLinksKey(transitRoute, currentRouteStop)));
 				}
 
-				Set<Link> previousLinks = new HashSet<>(tmpCloseLinks);
+				/*
+				  Separate links that belong to two subsequent stops
+				 */
+				PTMapperTools.separateLinks(currentStopFacility.getCoord(), currentLinks, previousStopFacility.getCoord(), previousLinks);
 
-				for(int i = 1; i < transitRoute.getStops().size(); i++) {
-					TransitStopFacility previousStopFacility = previousRouteStop.getStopFacility();
-					TransitRouteStop currentRouteStop = transitRoute.getStops().get(i);
-					TransitStopFacility currentStopFacility = currentRouteStop.getStopFacility();
-					stops.put(PublicTransitStop.createId(transitLine, transitRoute, currentRouteStop), new PublicTransitStopImpl(transitLine, transitRoute, currentRouteStop));
+				candidates.put(previousStop, previousLinks);
+				candidates.put(currentStop, currentLinks);
 
-					Set<Link> currentLinks = new HashSet<>();
+				previousLinks = currentLinks;
+				previousRouteStop = currentRouteStop;
+				previousStop = currentStop;
+			}
 
-					/*
-					  if stop facility already has a referenced link
-					 */
-					if(currentStopFacility.getLinkId() != null) {
-						currentLinks.add(network.getLinks().get(currentStopFacility.getLinkId()));
-						if(previousLinks.contains(network.getLinks().get(currentStopFacility.getLinkId()))) {
-							previousLinks.remove(network.getLinks().get(currentStopFacility.getLinkId()));
-						}
-					}
-					/*
-					  look for links close to stop facility
-					 */
-					else {
-						Set<Link> closeLinks = MapUtils.getSet(getCloseLinksKey(transitRoute, currentRouteStop), closeLinksMap);
-
-						// look for closes links in network
-						if(closeLinks.size() == 0) {
-							closeLinks.addAll(findClosestLinks(currentRouteStop.getStopFacility().getCoord(), networkModes));
-						}
+			routeProgress.update();
+		});
 
-						currentLinks.addAll(closeLinks);
-					}
+		/* [4]
+		  create and store link candidates, loop links are added to the network afterwards
+		 */
+		Set<PublicTransitStop> stopsWithoutLinks = ConcurrentHashMap.newKeySet();
+		Progress candidateProgress = new Progress(candidates.size(), "Creating link candidates ...");
+		MiscUtils.runInThreads(candidates.entrySet(), numOfThreads, c -> {
+			Set<Link> links = c.getValue();
+			if(links.size() > 0) {
+				NetworkTools.reduceSequencedLinks(links, c.getKey().getStopFacility().getCoord());
+				linkCandidates.put(c.getKey(), createLinkCandidates(c.getKey(), links));
+			} else {
+				stopsWithoutLinks.add(c.getKey());
+			}
+			candidateProgress.update();
+		});
+
+		for(PublicTransitStop stop : stopsWithoutLinks) {
+			// no links for this stop, create artificial loop link
+			linkCandidates.put(stop, createLinkCandidates(stop, Collections.singleton(createLoopLink(stop.getStopFacility(), network))));
+		}
 
-					/*
-					  Separate links that belong to two subsequent stops
-					 */
-					PTMapperTools.separateLinks(currentStopFacility.getCoord(), currentLinks, previousStopFacility.getCoord(), previousLinks);
+		int nLC = 0;
+		for(SortedSet<LinkCandidate> stopCandidates : linkCandidates.values()) {
+			nLC += stopCandidates.size();
+		}
+		if(linkCandidates.size() == 0) {
+			log.warn("No link candidates created!");
+		} else {
+			log.info("Average number of link candidates: " + nLC / linkCandidates.size());
+		}
 
-					candidates.put(PublicTransitStop.createId(transitLine, transitRoute, previousRouteStop), previousLinks);
-					candidates.put(PublicTransitStop.createId(transitLine, transitRoute, currentRouteStop), currentLinks);
+		if(cacheFile != null) {
+			writeCacheFile(cacheFile);
+		}
+	}
 
-					previousLinks = currentLinks;
-					previousRouteStop = currentRouteStop;
+	/**
+	 * The link candidates depend on the parameters, the network (before loop links are added), the
+	 * transport mode assignment and the stop sequences of all transit routes.
+	 */
+	private CacheTools.Key createCacheKey() {
+		CacheTools.Key key = new CacheTools.Key()
+				.add(LinkCandidateCreatorStandard.class.getName())
+				.add(nLinks).add(distanceMultiplier).add(maxDistance)
+				.add(transportModeAssignments)
+				.add(network);
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			key.add(transitLine.getId().toString());
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				key.add(transitRoute.getId().toString()).add(transitRoute.getTransportMode());
+				for(TransitRouteStop routeStop : transitRoute.getStops()) {
+					TransitStopFacility stopFacility = routeStop.getStopFacility();
+					key.add(stopFacility.getId().toString())
+							.add(stopFacility.getCoord().getX()).add(stopFacility.getCoord().getY())
+							.add(String.valueOf(stopFacility.getLinkId()));
 				}
-				
-				progress.update();
 			}
 		}
+		return key;
+	}
 
-		Map<Id<PublicTransitStop>, Double> maxStopDist = new HashMap<>();
-		Map<Id<PublicTransitStop>, Double> minStopDist = new HashMap<>();
-		
-		progress = new Progress(candidates.size(), "Creating link candidates ...");
+	/**
+	 * Writes the link ids of the candidates of all route stops (in schedule order), errors are logged
+	 */
+	private void writeCacheFile(File cacheFile) {
+		CacheTools.StringTable strings = new CacheTools.StringTable();
+		List<int[]> stopLinks = new ArrayList<>();
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				for(TransitRouteStop routeStop : transitRoute.getStops()) {
+					SortedSet<LinkCandidate> stopCandidates = getLinkCandidates(routeStop, transitLine, transitRoute);
+					int[] links = null;
+					if(stopCandidates != null) {
+						links = new int[stopCandidates.size()];
+						int i = 0;
+						for(LinkCandidate linkCandidate : stopCandidates) {
+							links[i++] = strings.get(linkCandidate.getLink().getId());
+						}
+					}
+					stopLinks.add(links);
+				}
+			}
+		}
+		try {
+			CacheTools.writeFile(cacheFile, CACHE_FILE_VERSION, strings.getStrings(), out -> {
+				out.writeInt(stopLinks.size());
+				for(int[] links : stopLinks) {
+					out.writeInt(links == null ? -1 : links.length);
+					if(links != null) {
+						for(int l : links) {
+							out.writeInt(l);
+						}
+					}
+				}
+			});
+			log.info("Link candidates written to cache file " + cacheFile);
+		} catch (IOException e) {
+			log.warn("Cannot write link candidate cache file " + cacheFile, e);
+		}
+	}
 
-		/*
-		  create and store link candidates
-		 */
-		for(Map.Entry<Id<PublicTransitStop>, Set<Link>> c : candidates.entrySet()) {
-			PublicTransitStop stop = stops.get(c.getKey());
-			Set<Link> links = c.getValue();
+	/**
+	 * Loads the link candidates of all route stops from a file written by {@link #writeCacheFile}.
+	 * Loop links that are not in the network are created again.
+	 *
+	 * @return <tt>false</tt> if the file cannot be used, link candidates have to be created in that case
+	 */
+	private boolean loadFromCacheFile(File cacheFile) {
+		List<String> strings = new ArrayList<>();
+		ByteBuffer buffer;
+		try {
+			buffer = CacheTools.mapFile(cacheFile, CACHE_FILE_VERSION, strings);
+		} catch (IOException e) {
+			log.warn("Cannot read link candidate cache file " + cacheFile, e);
+			return false;
+		}
+		if(buffer == null) {
+			return false;
+		}
 
-			if(links.size() > 0) {
-				NetworkTools.reduceSequencedLinks(links, stop.getStopFacility().getCoord());
-			} else {
-				// no links for this stop, create artificial loop link
-				links = new HashSet<>();
-				links.add(createLoopLink(stop.getStopFacility()));
+		int nStops = 0;
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				nStops += transitRoute.getStops().size();
 			}
+		}
+		if(buffer.getInt() != nStops) {
+			return false;
+		}
 
-			double minDist = Double.MAX_VALUE;
-			double maxDist = 0.0;
+		Map<PublicTransitStop, SortedSet<LinkCandidate>> loaded = new HashMap<>();
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				for(TransitRouteStop routeStop : transitRoute.getStops()) {
+					int nLinks = buffer.getInt();
+					if(nLinks < 0) continue;
+
+					PublicTransitStop stop = new PublicTransitStopImpl(transitLine, transitRoute, routeStop);
+					List<Link> links = new ArrayList<>();
+					for(int i = 0; i < nLinks; i++) {
+						Id<Link> linkId = Id.createLinkId(strings.get(buffer.getInt()));
+						Link link = network.getLinks().get(linkId);
+						if(link == null) {
+							if(!linkId.equals(PTMapperTools.createArtificialLinkId(stop.getStopFacility()))) {
+								return false;
+							}
+							link = createLoopLink(stop.getStopFacility(), network);
+						}
+						links.add(link);
+					}
+					loaded.put(stop, createLinkCandidates(stop, links));
+				}
+			}
+		}
+		linkCandidates.putAll(loaded);
+		return true;
+	}
 
-			for(Link link : links) {
-				LinkCandidate linkCandidate = new LinkCandidateImpl(link, stop);
-				MiscUtils.getSortedSet(stop.getId(), linkCandidates).add(linkCandidate);
+	/**
+	 * Creates the link candidates of a stop and sets their priorities based on the
+	 * distance to the stop facility (closest candidate has priority 1).
+	 */
+	static SortedSet<LinkCandidate> createLinkCandidates(PublicTransitStop stop, Collection<Link> links) {
+		SortedSet<LinkCandidate> stopCandidates = new TreeSet<>();
 
-				if(linkCandidate.getStopFacilityDistance() > maxDist) maxDist = linkCandidate.getStopFacilityDistance();
-				if(linkCandidate.getStopFacilityDistance() < minDist) minDist = linkCandidate.getStopFacilityDistance();
-			}
+		double minDist = Double.MAX_VALUE;
+		double maxDist = 0.0;
 
-			maxStopDist.put(stop.getId(), maxDist);
-			minStopDist.put(stop.getId(), minDist);
-			
-			progress.update();
+		for(Link link : links) {
+			LinkCandidate linkCandidate = new LinkCandidateImpl(link, stop);
+			stopCandidates.add(linkCandidate);
+
+			if(linkCandidate.getStopFacilityDistance() > maxDist) maxDist = linkCandidate.getStopFacilityDistance();
+			if(linkCandidate.getStopFacilityDistance() < minDist) minDist = linkCandidate.getStopFacilityDistance();
 		}
 
 		/*
 		Set priorities
 		 */
-		int nLC = 0;
-		progress = new Progress(linkCandidates.size(), "Setting candidate priorities ...");
-		
-		for(Map.Entry<Id<PublicTransitStop>, SortedSet<LinkCandidate>> entry : linkCandidates.entrySet()) {
-			double minDist = minStopDist.get(entry.getKey());
-			double maxDist = maxStopDist.get(entry.getKey());
-			double delta = maxDist - minDist;
-
-			for(LinkCandidate candidate : entry.getValue()) {
-				double d = candidate.getStopFacilityDistance();
-				if(delta > 0) {
-					candidate.setPriority(1 - ((d - minDist) / (maxDist - minDist)));
-				} else {
-					candidate.setPriority(1);
-				}
+		double delta = maxDist - minDist;
+		for(LinkCandidate candidate : stopCandidates) {
+			double d = candidate.getStopFacilityDistance();
+			if(delta > 0) {
+				candidate.setPriority(1 - ((d - minDist) / (maxDist - minDist)));
+			} else {
+				candidate.setPriority(1);
 			}
-			nLC += entry.getValue().size();
-		}
-		if(linkCandidates.size() == 0) {
-			log.warn("No link candidates created!");
-		} else {
-			log.info("Average number of link candidates: " + nLC / linkCandidates.size());
 		}
+
+		return stopCandidates;
 	}
 
 	private String getCloseLinksKey(TransitRoute transitRoute, TransitRouteStop routeStop) {
 		return transitRoute.getTransportMode() + ":" + routeStop.getStopFacility().getId();
 	}
 
-	private Link createLoopLink(TransitStopFacility stopFacility) {
+	static Link createLoopLink(TransitStopFacility stopFacility, Network network) {
 		return PTMapperTools.createArtificialStopFacilityLink(stopFacility, network, PublicTransitMappingStrings.PREFIX_ARTIFICIAL, 20, loopLinkModes);
 	}
 
 	/**
-	 * Looks for nodes within search radius of <tt>coord</tt> (using {@link NetworkUtils#getNearestNodes},
-	 * fetches all in- and outlinks and sorts them ascending by their
-	 * distance to the coordinates given.
+	 * Looks for links within <tt>maxLinkDistance</tt> of <tt>coord</tt> (using a {@link LinkSpatialIndex}
+	 * of the schedule mode) and sorts them ascending by their distance to the coordinates given.
 	 * <p/>
 	 * The method then returns all links within <tt>maxLinkDistance</tt> or <tt>maxNLinks</tt>*
 	 * whichever is reached earlier. Links with the same distance (i.e. opposite links) are always returned.
@@ -262,11 +437,11 @@ public class LinkCandidateCreatorStandard implements LinkCandidateCreator {
 	 *
 	 * @return list of the closest links from coordinate <tt>coord</tt>.
 	 */
-	private List<Link> findClosestLinks(Coord coord, Set<String> networkModes) {
+	static List<Link> findClosestLinks(Coord coord, LinkSpatialIndex linkIndex, int nLinks, double distanceMultiplier, double maxDistance) {
 		List<Link> closestLinks = new ArrayList<>();
-		Map<Double, Set<Link>> sortedLinks = NetworkTools.findClosestLinks(network, coord, nodeSearchRadius, networkModes);
+		Map<Double, Set<Link>> sortedLinks = linkIndex.findClosestLinks(coord, maxDistance);
 
-		double distanceThreshold = this.maxDistance;
+		double distanceThreshold = maxDistance;
 		int nLink = 0;
 
 		for(Map.Entry<Double, Set<Link>> entry : sortedLinks.entrySet()) {
@@ -279,12 +454,12 @@ public class LinkCandidateCreatorStandard implements LinkCandidateCreator {
 			}
 
 			// when the link count limit is reached, set the soft constraint distance
-			if(nLink < this.nLinks && nLink + currentNLinks >= this.nLinks) {
-				distanceThreshold = currentDistance * this.distanceMultiplier;
+			if(nLink < nLinks && nLink + currentNLinks >= nLinks) {
+				distanceThreshold = currentDistance * distanceMultiplier;
 			}
 
 			// check if distance is greater than soft constraint distance
-			if(nLink + currentNLinks > this.nLinks && currentDistance > distanceThreshold) {
+			if(nLink + currentNLinks > nLinks && currentDistance > distanceThreshold) {
 				break;
 			}
 
@@ -297,7 +472,7 @@ public class LinkCandidateCreatorStandard implements LinkCandidateCreator {
 
 	@Override
 	public SortedSet<LinkCandidate> getLinkCandidates(TransitRouteStop transitRouteStop, TransitLine transitLine, TransitRoute transitRoute) {
-		return linkCandidates.get(PublicTransitStop.createId(transitLine, transitRoute, transitRouteStop));
+		return linkCandidates.get(new PublicTransitStopImpl(transitLine, transitRoute, transitRouteStop));
 	}
 
 }
\ No newline at end of file
@@ -18,8 +18,6 @@
 
 package org.matsim.pt2matsim.mapping.linkCandidateCreation;
 
-import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.Identifiable;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
@@ -31,10 +29,14 @@ import org.matsim.pt.transitSchedule.api.TransitStopFacility;
  * part of. Thus, TransitRouteStops can't be used as identifier
  * for multiple "stops" occurring with different transit routes
  * on the same stop facility.
+ * <p/>
+ * Implementations are used as keys (equals and hashCode are based on
+ * line, route and route stop). No {@link org.matsim.api.core.v01.Id}
+ * is created since ids are interned and never released.
  *
  * @author polettif
  */
-public interface PublicTransitStop extends Identifiable<PublicTransitStop> {
+public interface PublicTransitStop {
 
 	TransitLine getTransitLine();
 
@@ -44,13 +46,4 @@ public interface PublicTransitStop extends Identifiable<PublicTransitStop> {
 
 	TransitStopFacility getStopFacility();
 
-	static Id<PublicTransitStop> createId(TransitLine transitLine, TransitRoute transitRoute, TransitRouteStop transitRouteStop) {
-		return Id.create("[line:" + transitLine.getId() +
-				"][route:" + transitRoute.getId() +
-				"][stop:" + transitRouteStop.getStopFacility().getId() +
-				" arr:" + transitRouteStop.getArrivalOffset() +
-				" dep:" + transitRouteStop.getDepartureOffset() + "]",
-				PublicTransitStop.class);
-	}
-
 }
@@ -18,7 +18,6 @@
 
 package org.matsim.pt2matsim.mapping.linkCandidateCreation;
 
-import org.matsim.api.core.v01.Id;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
@@ -29,13 +28,11 @@ import org.matsim.pt.transitSchedule.api.TransitStopFacility;
  */
 public class PublicTransitStopImpl implements PublicTransitStop {
 
-	private final Id<PublicTransitStop> id;
 	private final TransitLine transitLine;
 	private final TransitRoute transitRoute;
 	private final TransitRouteStop transitRouteStop;
 
 	public PublicTransitStopImpl(TransitLine transitLine, TransitRoute transitRoute, TransitRouteStop transitRouteStop) {
-		this.id = PublicTransitStop.createId(transitLine, transitRoute, transitRouteStop);
 		this.transitLine = transitLine;
 		this.transitRoute = transitRoute;
 		this.transitRouteStop = transitRouteStop;
@@ -61,14 +58,13 @@ public class PublicTransitStopImpl implements PublicTransitStop {
 		return transitRouteStop.getStopFacility();
 	}
 
-	@Override
-	public Id<PublicTransitStop> getId() {
-		return id;
-	}
-
 	@Override
 	public String toString() {
-		return id.toString();
+		return "[line:" + transitLine.getId() +
+				"][route:" + transitRoute.getId() +
+				"][stop:" + transitRouteStop.getStopFacility().getId() +
+				" arr:" + transitRouteStop.getArrivalOffset() +
+				" dep:" + transitRouteStop.getDepartureOffset() + "]";
 	}
 
 	@Override
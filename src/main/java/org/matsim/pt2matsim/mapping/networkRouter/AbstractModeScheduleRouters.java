@@ -0,0 +1,96 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
+import org.matsim.pt2matsim.tools.PTMapperTools;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.Map;
+
+/**
+ * Travel costs of schedule routers that route each schedule mode on a mode filtered
+ * network with the link travel costs of the config (see {@link ScheduleRoutersStandard}
+ * and {@link ScheduleRoutersContractionHierarchies}).
+ */
+/*package*/ abstract class AbstractModeScheduleRouters implements ScheduleRouters {
+
+	protected final PublicTransitMappingConfigGroup.TravelCostType travelCostType;
+	private final Map<String, Double> minCostPerDistanceByMode;
+	private final boolean considerCandidateDist;
+
+	AbstractModeScheduleRouters(Map<String, Double> minCostPerDistanceByMode, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance) {
+		this.minCostPerDistanceByMode = minCostPerDistanceByMode;
+		this.travelCostType = costType;
+		this.considerCandidateDist = routingWithCandidateDistance;
+	}
+
+	@Override
+	public LeastCostPathCalculator.Path calcLeastCostPath(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate, TransitLine transitLine, TransitRoute transitRoute) {
+		return this.calcLeastCostPath(fromLinkCandidate.getLink().getToNode().getId(), toLinkCandidate.getLink().getFromNode().getId(), transitLine, transitRoute);
+	}
+
+	@Override
+	public double getMinimalTravelCost(TransitRouteStop fromTransitRouteStop, TransitRouteStop toTransitRouteStop, TransitLine transitLine, TransitRoute transitRoute) {
+		double minTC = PTMapperTools.calcMinTravelCost(fromTransitRouteStop, toTransitRouteStop, travelCostType);
+		if(minTC == 0)
+			minTC = CoordUtils.calcEuclideanDistance(fromTransitRouteStop.getStopFacility().getCoord(), toTransitRouteStop.getStopFacility().getCoord()) / 10;
+		return minTC;
+	}
+
+	@Override
+	public double getLinkCandidateTravelCost(LinkCandidate linkCandidateCurrent) {
+		double dist = 0;
+		if(considerCandidateDist) {
+			dist += (travelCostType.equals(PublicTransitMappingConfigGroup.TravelCostType.travelTime) ? linkCandidateCurrent.getStopFacilityDistance() / linkCandidateCurrent.getLink().getFreespeed() : linkCandidateCurrent.getStopFacilityDistance());
+			dist *= 2;
+		}
+		return dist + PTMapperTools.calcTravelCost(linkCandidateCurrent.getLink(), travelCostType);
+	}
+
+	/**
+	 * Beeline distance between the to-node and from-node of the link candidates multiplied
+	 * with the minimal travel cost per distance of the mode network
+	 */
+	@Override
+	public double getLowerBoundTravelCost(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate, TransitLine transitLine, TransitRoute transitRoute) {
+		Double minCostPerDistance = minCostPerDistanceByMode.get(transitRoute.getTransportMode());
+		if(minCostPerDistance == null) return 0;
+		return minCostPerDistance * CoordUtils.calcEuclideanDistance(fromLinkCandidate.getLink().getToNode().getCoord(), toLinkCandidate.getLink().getFromNode().getCoord());
+	}
+
+	/**
+	 * Travel costs used to compile the routing graphs and contraction hierarchies
+	 */
+	static class LocalRouter implements TravelDisutility, TravelTime {
+
+		private final PublicTransitMappingConfigGroup.TravelCostType travelCostType;
+
+		LocalRouter(PublicTransitMappingConfigGroup.TravelCostType travelCostType) {
+			this.travelCostType = travelCostType;
+		}
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return this.getLinkMinimumTravelDisutility(link);
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return PTMapperTools.calcTravelCost(link, travelCostType);
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+}
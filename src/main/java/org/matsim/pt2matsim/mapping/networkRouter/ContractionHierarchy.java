@@ -0,0 +1,569 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.*;
+
+/**
+ * Contraction hierarchy of a static network. Nodes are contracted one after another
+ * (ordered by edge difference and number of contracted neighbours), shortcuts are
+ * added whenever the least cost path between two neighbours leads over the contracted
+ * node. Queries only follow edges towards nodes contracted later ("upward"):
+ * <ul>
+ *     <li>point-to-point: bidirectional upward search</li>
+ *     <li>one-to-many: bucket search, the backward search space of every target is
+ *     stored in buckets at the nodes, the forward search of the source scans the buckets</li>
+ * </ul>
+ * Travel costs are fixed during preprocessing (time independent). All search data is
+ * local to a query, an instance can be used by multiple threads after construction.
+ */
+public class ContractionHierarchy implements LeastCostPathCalculator, OneToManyPathCalculator {
+
+	protected static Logger log = Logger.getLogger(ContractionHierarchy.class);
+
+	private static final int WITNESS_SEARCH_SETTLED_LIMIT = 500;
+
+	private final TravelTime travelTime;
+
+	private final Node[] nodes;
+	private final Map<Id<Node>, Integer> nodeIndices;
+	private final Link[] links;
+
+	// edges, i.e. network links and shortcuts
+	private int nEdges = 0;
+	private int[] edgeFrom;
+	private int[] edgeTo;
+	private double[] edgeCost;
+	// index of the network link, -1 for shortcuts
+	private int[] edgeLink;
+	// the two edges a shortcut consists of
+	private int[] edgeFirst;
+	private int[] edgeSecond;
+
+	// search graphs: upward edges stored by from node, downward edges stored by to node
+	private int[] upStart;
+	private int[] upEdges;
+	private int[] downStart;
+	private int[] downEdges;
+
+	// used during preprocessing only
+	private IntList[] outEdges;
+	private IntList[] inEdges;
+	private boolean[] contracted;
+	private double[] witnessCost;
+
+	public ContractionHierarchy(Network network, TravelDisutility travelDisutility, TravelTime travelTime) {
+		this.travelTime = travelTime;
+
+		int n = network.getNodes().size();
+		this.nodes = new Node[n];
+		this.nodeIndices = new HashMap<>();
+		int i = 0;
+		for(Node node : network.getNodes().values()) {
+			nodes[i] = node;
+			nodeIndices.put(node.getId(), i);
+			i++;
+		}
+		this.links = network.getLinks().values().toArray(new Link[0]);
+
+		int capacity = Math.max(16, links.length * 2);
+		edgeFrom = new int[capacity];
+		edgeTo = new int[capacity];
+		edgeCost = new double[capacity];
+		edgeLink = new int[capacity];
+		edgeFirst = new int[capacity];
+		edgeSecond = new int[capacity];
+
+		long start = System.nanoTime();
+		int nShortcuts = preprocess(travelDisutility);
+		log.info("Contraction hierarchy: " + n + " nodes, " + links.length + " links, " + nShortcuts + " shortcuts, " + String.format("%.1f", (System.nanoTime() - start) / 1e9) + " s");
+	}
+
+	/**
+	 * Contracts all nodes and builds the upward and downward search graphs
+	 *
+	 * @return the number of shortcuts added
+	 */
+	private int preprocess(TravelDisutility travelDisutility) {
+		int n = nodes.length;
+		outEdges = new IntList[n];
+		inEdges = new IntList[n];
+		for(int v = 0; v < n; v++) {
+			outEdges[v] = new IntList();
+			inEdges[v] = new IntList();
+		}
+		contracted = new boolean[n];
+		witnessCost = new double[n];
+		Arrays.fill(witnessCost, Double.POSITIVE_INFINITY);
+
+		/* [1]
+		  network links, only the cheapest of parallel links is used
+		 */
+		Map<Long, Integer> edgeByNodePair = new HashMap<>();
+		for(int l = 0; l < links.length; l++) {
+			Link link = links[l];
+			int from = nodeIndices.get(link.getFromNode().getId());
+			int to = nodeIndices.get(link.getToNode().getId());
+			if(from == to) continue;
+
+			double cost = travelDisutility.getLinkTravelDisutility(link, 0, null, null);
+			long key = (long) from * n + to;
+			Integer existing = edgeByNodePair.get(key);
+			if(existing == null) {
+				edgeByNodePair.put(key, addEdge(from, to, cost, l, -1, -1));
+			} else if(cost < edgeCost[existing]) {
+				edgeCost[existing] = cost;
+				edgeLink[existing] = l;
+			}
+		}
+		int nLinkEdges = nEdges;
+
+		/* [2]
+		  contract nodes, priorities are updated lazily
+		 */
+		int[] deletedNeighbours = new int[n];
+		int[] rank = new int[n];
+		PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, n), Comparator.comparingInt((int[] a) -> a[1]));
+		for(int v = 0; v < n; v++) {
+			queue.add(new int[]{v, calcPriority(v, deletedNeighbours)});
+		}
+
+		int order = 0;
+		while(!queue.isEmpty()) {
+			int v = queue.poll()[0];
+			if(contracted[v]) continue;
+
+			int priority = calcPriority(v, deletedNeighbours);
+			if(!queue.isEmpty() && priority > queue.peek()[1]) {
+				queue.add(new int[]{v, priority});
+				continue;
+			}
+
+			contractNode(v, true);
+			contracted[v] = true;
+			rank[v] = order++;
+
+			for(int k = 0; k < outEdges[v].size; k++) {
+				int w = edgeTo[outEdges[v].values[k]];
+				if(!contracted[w]) deletedNeighbours[w]++;
+			}
+			for(int k = 0; k < inEdges[v].size; k++) {
+				int u = edgeFrom[inEdges[v].values[k]];
+				if(!contracted[u]) deletedNeighbours[u]++;
+			}
+		}
+
+		/* [3]
+		  search graphs
+		 */
+		upStart = new int[n + 1];
+		downStart = new int[n + 1];
+		for(int e = 0; e < nEdges; e++) {
+			if(rank[edgeTo[e]] > rank[edgeFrom[e]]) {
+				upStart[edgeFrom[e] + 1]++;
+			} else {
+				downStart[edgeTo[e] + 1]++;
+			}
+		}
+		for(int v = 0; v < n; v++) {
+			upStart[v + 1] += upStart[v];
+			downStart[v + 1] += downStart[v];
+		}
+		upEdges = new int[upStart[n]];
+		downEdges = new int[downStart[n]];
+		int[] upFill = Arrays.copyOf(upStart, n);
+		int[] downFill = Arrays.copyOf(downStart, n);
+		for(int e = 0; e < nEdges; e++) {
+			if(rank[edgeTo[e]] > rank[edgeFrom[e]]) {
+				upEdges[upFill[edgeFrom[e]]++] = e;
+			} else {
+				downEdges[downFill[edgeTo[e]]++] = e;
+			}
+		}
+
+		outEdges = null;
+		inEdges = null;
+		contracted = null;
+		witnessCost = null;
+
+		return nEdges - nLinkEdges;
+	}
+
+	private int calcPriority(int v, int[] deletedNeighbours) {
+		int degree = 0;
+		for(int k = 0; k < outEdges[v].size; k++) {
+			if(!contracted[edgeTo[outEdges[v].values[k]]]) degree++;
+		}
+		for(int k = 0; k < inEdges[v].size; k++) {
+			if(!contracted[edgeFrom[inEdges[v].values[k]]]) degree++;
+		}
+		return contractNode(v, false) - degree + deletedNeighbours[v];
+	}
+
+	/**
+	 * Finds the shortcuts needed if node <tt>v</tt> is contracted. A shortcut u-w is
+	 * needed if no path from u to w without v (witness) is at most as expensive as u-v-w.
+	 *
+	 * @return the number of shortcuts needed
+	 */
+	private int contractNode(int v, boolean addShortcuts) {
+		double maxOutCost = 0;
+		for(int k = 0; k < outEdges[v].size; k++) {
+			int e = outEdges[v].values[k];
+			if(!contracted[edgeTo[e]]) maxOutCost = Math.max(maxOutCost, edgeCost[e]);
+		}
+
+		int nShortcuts = 0;
+		for(int i = 0; i < inEdges[v].size; i++) {
+			int inEdge = inEdges[v].values[i];
+			int u = edgeFrom[inEdge];
+			if(contracted[u]) continue;
+
+			IntList touched = witnessSearch(u, v, edgeCost[inEdge] + maxOutCost);
+			for(int j = 0; j < outEdges[v].size; j++) {
+				int outEdge = outEdges[v].values[j];
+				int w = edgeTo[outEdge];
+				if(contracted[w] || w == u) continue;
+
+				double cost = edgeCost[inEdge] + edgeCost[outEdge];
+				if(witnessCost[w] > cost) {
+					nShortcuts++;
+					if(addShortcuts) {
+						addEdge(u, w, cost, -1, inEdge, outEdge);
+					}
+				}
+			}
+			for(int k = 0; k < touched.size; k++) {
+				witnessCost[touched.values[k]] = Double.POSITIVE_INFINITY;
+			}
+		}
+		return nShortcuts;
+	}
+
+	/**
+	 * Limited Dijkstra from <tt>source</tt> on the remaining graph without <tt>excluded</tt>.
+	 * Results are stored in {@link #witnessCost}.
+	 *
+	 * @return the nodes for which a witness cost has been set
+	 */
+	private IntList witnessSearch(int source, int excluded, double maxCost) {
+		IntList touched = new IntList();
+		PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
+		witnessCost[source] = 0;
+		touched.add(source);
+		queue.add(new QueueEntry(source, 0));
+
+		int settled = 0;
+		while(!queue.isEmpty() && settled < WITNESS_SEARCH_SETTLED_LIMIT) {
+			QueueEntry current = queue.poll();
+			if(current.cost > witnessCost[current.node]) continue;
+			if(current.cost > maxCost) break;
+			settled++;
+
+			IntList out = outEdges[current.node];
+			for(int k = 0; k < out.size; k++) {
+				int e = out.values[k];
+				int w = edgeTo[e];
+				if(w == excluded || contracted[w]) continue;
+				double cost = current.cost + edgeCost[e];
+				if(cost < witnessCost[w]) {
+					if(witnessCost[w] == Double.POSITIVE_INFINITY) touched.add(w);
+					witnessCost[w] = cost;
+					queue.add(new QueueEntry(w, cost));
+				}
+			}
+		}
+		return touched;
+	}
+
+	private int addEdge(int from, int to, double cost, int link, int first, int second) {
+		if(nEdges == edgeFrom.length) {
+			int capacity = nEdges * 2;
+			edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+			edgeTo = Arrays.copyOf(edgeTo, capacity);
+			edgeCost = Arrays.copyOf(edgeCost, capacity);
+			edgeLink = Arrays.copyOf(edgeLink, capacity);
+			edgeFirst = Arrays.copyOf(edgeFirst, capacity);
+			edgeSecond = Arrays.copyOf(edgeSecond, capacity);
+		}
+		int e = nEdges++;
+		edgeFrom[e] = from;
+		edgeTo[e] = to;
+		edgeCost[e] = cost;
+		edgeLink[e] = link;
+		edgeFirst[e] = first;
+		edgeSecond[e] = second;
+		outEdges[from].add(e);
+		inEdges[to].add(e);
+		return e;
+	}
+
+	/**
+	 * Bidirectional upward search. Returns <tt>null</tt> if there's no path.
+	 */
+	@Override
+	public Path calcLeastCostPath(Node fromNode, Node toNode, double starttime, Person person, Vehicle vehicle) {
+		Integer s = nodeIndices.get(fromNode.getId());
+		Integer t = nodeIndices.get(toNode.getId());
+		if(s == null || t == null) return null;
+
+		SearchSpace forward = new SearchSpace(s, true);
+		SearchSpace backward = new SearchSpace(t, false);
+		double best = Double.POSITIVE_INFINITY;
+		int meetingNode = -1;
+		boolean forwardActive = true;
+		boolean backwardActive = true;
+
+		while(forwardActive || backwardActive) {
+			boolean useForward = forwardActive && (!backwardActive || forward.minCost() <= backward.minCost());
+			SearchSpace space = useForward ? forward : backward;
+			SearchSpace other = useForward ? backward : forward;
+
+			Label current = space.settleNext();
+			if(current == null || current.cost >= best) {
+				if(useForward) forwardActive = false;
+				else backwardActive = false;
+				continue;
+			}
+			Label otherLabel = other.labels.get(current.node);
+			if(otherLabel != null && current.cost + otherLabel.cost < best) {
+				best = current.cost + otherLabel.cost;
+				meetingNode = current.node;
+			}
+			space.relax(current);
+		}
+
+		return meetingNode < 0 ? null : createPath(forward, backward, meetingNode);
+	}
+
+	/**
+	 * Bucket search from one node to multiple nodes
+	 */
+	@Override
+	public Map<Node, Path> calcLeastCostPaths(Node fromNode, Collection<? extends Node> toNodes, double maxTravelCost) {
+		Map<Node, Path> paths = new HashMap<>();
+		Integer s = nodeIndices.get(fromNode.getId());
+		if(s == null) return paths;
+
+		List<Node> targets = new ArrayList<>(new LinkedHashSet<>(toNodes));
+		SearchSpace[] backward = new SearchSpace[targets.size()];
+		Map<Integer, List<BucketEntry>> buckets = new HashMap<>();
+		for(int i = 0; i < targets.size(); i++) {
+			Integer t = nodeIndices.get(targets.get(i).getId());
+			if(t == null) continue;
+			backward[i] = search(t, false, maxTravelCost);
+			for(Label label : backward[i].settled) {
+				buckets.computeIfAbsent(label.node, k -> new ArrayList<>()).add(new BucketEntry(i, label.cost));
+			}
+		}
+
+		double[] best = new double[targets.size()];
+		int[] meetingNodes = new int[targets.size()];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+		Arrays.fill(meetingNodes, -1);
+
+		SearchSpace forward = search(s, true, maxTravelCost);
+		for(Label label : forward.settled) {
+			List<BucketEntry> bucket = buckets.get(label.node);
+			if(bucket == null) continue;
+			for(BucketEntry entry : bucket) {
+				double cost = label.cost + entry.cost;
+				if(cost <= maxTravelCost && cost < best[entry.target]) {
+					best[entry.target] = cost;
+					meetingNodes[entry.target] = label.node;
+				}
+			}
+		}
+
+		for(int i = 0; i < targets.size(); i++) {
+			if(meetingNodes[i] >= 0) {
+				paths.put(targets.get(i), createPath(forward, backward[i], meetingNodes[i]));
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Complete upward search (forward) or downward search (backward) within <tt>maxTravelCost</tt>
+	 */
+	private SearchSpace search(int start, boolean forward, double maxTravelCost) {
+		SearchSpace space = new SearchSpace(start, forward);
+		Label current;
+		while((current = space.settleNext()) != null && current.cost <= maxTravelCost) {
+			space.settled.add(current);
+			space.relax(current);
+		}
+		return space;
+	}
+
+	/**
+	 * Combines the forward and backward search trees at the meeting node and
+	 * unpacks all shortcuts to network links.
+	 */
+	private Path createPath(SearchSpace forward, SearchSpace backward, int meetingNode) {
+		LinkedList<Integer> edges = new LinkedList<>();
+
+		int start = meetingNode;
+		Label label = forward.labels.get(start);
+		while(label.parentEdge >= 0) {
+			edges.addFirst(label.parentEdge);
+			start = edgeFrom[label.parentEdge];
+			label = forward.labels.get(start);
+		}
+		label = backward.labels.get(meetingNode);
+		while(label.parentEdge >= 0) {
+			edges.addLast(label.parentEdge);
+			label = backward.labels.get(edgeTo[label.parentEdge]);
+		}
+
+		List<Node> pathNodes = new ArrayList<>();
+		List<Link> pathLinks = new ArrayList<>();
+		double cost = 0;
+		double time = 0;
+		pathNodes.add(nodes[start]);
+
+		Deque<Integer> stack = new ArrayDeque<>();
+		for(int edge : edges) {
+			stack.push(edge);
+			while(!stack.isEmpty()) {
+				int e = stack.pop();
+				if(edgeLink[e] >= 0) {
+					Link link = links[edgeLink[e]];
+					pathLinks.add(link);
+					pathNodes.add(link.getToNode());
+					cost += edgeCost[e];
+					time += travelTime.getLinkTravelTime(link, 0, null, null);
+				} else {
+					stack.push(edgeSecond[e]);
+					stack.push(edgeFirst[e]);
+				}
+			}
+		}
+		return new Path(pathNodes, pathLinks, time, cost);
+	}
+
+	/**
+	 * Search data of one upward or downward search
+	 */
+	private class SearchSpace {
+
+		private final boolean forward;
+		private final Map<Integer, Label> labels = new HashMap<>();
+		private final PriorityQueue<Label> queue = new PriorityQueue<>();
+		private final List<Label> settled = new ArrayList<>();
+
+		SearchSpace(int start, boolean forward) {
+			this.forward = forward;
+			Label label = new Label(start, 0, -1);
+			labels.put(start, label);
+			queue.add(label);
+		}
+
+		Label settleNext() {
+			while(!queue.isEmpty()) {
+				Label label = queue.poll();
+				if(!label.outdated) {
+					return label;
+				}
+			}
+			return null;
+		}
+
+		double minCost() {
+			while(!queue.isEmpty() && queue.peek().outdated) {
+				queue.poll();
+			}
+			return queue.isEmpty() ? Double.POSITIVE_INFINITY : queue.peek().cost;
+		}
+
+		void relax(Label current) {
+			current.done = true;
+			int[] start = forward ? upStart : downStart;
+			int[] edges = forward ? upEdges : downEdges;
+			for(int k = start[current.node]; k < start[current.node + 1]; k++) {
+				int e = edges[k];
+				int w = forward ? edgeTo[e] : edgeFrom[e];
+				double cost = current.cost + edgeCost[e];
+				Label label = labels.get(w);
+				if(label == null || (!label.done && cost < label.cost)) {
+					if(label != null) {
+						// lazy deletion, the outdated entry is skipped when polled
+						label.outdated = true;
+					}
+					Label newLabel = new Label(w, cost, e);
+					labels.put(w, newLabel);
+					queue.add(newLabel);
+				}
+			}
+		}
+	}
+
+	private static class Label implements Comparable<Label> {
+
+		private final int node;
+		private final double cost;
+		private final int parentEdge;
+		private boolean outdated = false;
+		private boolean done = false;
+
+		Label(int node, double cost, int parentEdge) {
+			this.node = node;
+			this.cost = cost;
+			this.parentEdge = parentEdge;
+		}
+
+		@Override
+		public int compareTo(Label other) {
+			return Double.compare(this.cost, other.cost);
+		}
+	}
+
+	private static class BucketEntry {
+
+		private final int target;
+		private final double cost;
+
+		BucketEntry(int target, double cost) {
+			this.target = target;
+			this.cost = cost;
+		}
+	}
+
+	private static class QueueEntry implements Comparable<QueueEntry> {
+
+		private final int node;
+		private final double cost;
+
+		QueueEntry(int node, double cost) {
+			this.node = node;
+			this.cost = cost;
+		}
+
+		@Override
+		public int compareTo(QueueEntry other) {
+			return Double.compare(this.cost, other.cost);
+		}
+	}
+
+	private static class IntList {
+
+		private int[] values = new int[4];
+		private int size = 0;
+
+		void add(int value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+}
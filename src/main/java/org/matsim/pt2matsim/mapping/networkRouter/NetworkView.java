@@ -0,0 +1,229 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.*;
+
+/**
+ * A subnetwork of a shared {@link BaseGraph}, given by a set of allowed nodes. A link is part of
+ * the view if both its nodes are (same as the links left after {@link org.matsim.pt2matsim.tools.NetworkTools#cutNetwork}).
+ * Nodes and links are stored as bitsets over the indices of the base graph, no network is copied.
+ * <p/>
+ * Views are read-only and can be queried by multiple threads.
+ */
+public class NetworkView {
+
+	private final BaseGraph base;
+	private final int nodeOffset;
+	private final BitSet nodes = new BitSet();
+	private final int linkOffset;
+	private final BitSet links = new BitSet();
+
+	/**
+	 * @param nodes the nodes of the view, nodes that are not in the base graph are ignored
+	 */
+	public NetworkView(BaseGraph base, Collection<Node> nodes) {
+		this.base = base;
+
+		int minNode = Integer.MAX_VALUE;
+		List<Integer> nodeIndices = new ArrayList<>();
+		for(Node node : nodes) {
+			Integer i = base.nodeIndex.get(node.getId());
+			if(i != null && base.nodes[i] == node) {
+				nodeIndices.add(i);
+				minNode = Math.min(minNode, i);
+			}
+		}
+		this.nodeOffset = nodeIndices.isEmpty() ? 0 : minNode;
+		for(int i : nodeIndices) {
+			this.nodes.set(i - nodeOffset);
+		}
+
+		int minLink = Integer.MAX_VALUE;
+		List<Integer> linkIndices = new ArrayList<>();
+		for(int i : nodeIndices) {
+			for(Link link : base.nodes[i].getOutLinks().values()) {
+				if(containsNode(link.getToNode())) {
+					int l = base.linkIndex.get(link.getId());
+					linkIndices.add(l);
+					minLink = Math.min(minLink, l);
+				}
+			}
+		}
+		this.linkOffset = linkIndices.isEmpty() ? 0 : minLink;
+		for(int l : linkIndices) {
+			this.links.set(l - linkOffset);
+		}
+	}
+
+	public BaseGraph getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the node of the base graph with the given id, <tt>null</tt> if the node is not part of the view
+	 */
+	public Node getNode(Id<Node> nodeId) {
+		Integer i = base.nodeIndex.get(nodeId);
+		return i != null && i >= nodeOffset && nodes.get(i - nodeOffset) ? base.nodes[i] : null;
+	}
+
+	public boolean containsNode(Node node) {
+		return getNode(node.getId()) == node;
+	}
+
+	public boolean containsLink(Link link) {
+		Integer l = base.linkIndex.get(link.getId());
+		return l != null && l >= linkOffset && links.get(l - linkOffset) && base.links[l] == link;
+	}
+
+	/**
+	 * @return the nodes of the view in the order of the base graph
+	 */
+	public List<Node> getNodes() {
+		List<Node> viewNodes = new ArrayList<>(nodes.cardinality());
+		for(int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1)) {
+			viewNodes.add(base.nodes[i + nodeOffset]);
+		}
+		return viewNodes;
+	}
+
+	public int getNumberOfNodes() {
+		return nodes.cardinality();
+	}
+
+	public int getNumberOfLinks() {
+		return links.cardinality();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the link with the given index of the base graph is part of the view
+	 */
+	/*package*/ boolean containsLinkIndex(int l) {
+		return l >= linkOffset && links.get(l - linkOffset);
+	}
+
+	/**
+	 * @return the index of the next link of the view in the base graph starting from l, -1 if there is none
+	 */
+	/*package*/ int nextLinkIndex(int l) {
+		int i = links.nextSetBit(Math.max(0, l - linkOffset));
+		return i < 0 ? -1 : i + linkOffset;
+	}
+
+	/**
+	 * @return the smallest link index of the view in the base graph
+	 */
+	/*package*/ int getLinkOffset() {
+		return linkOffset;
+	}
+
+	/**
+	 * @return the size of the link index range of the view, all links of the view have an index
+	 * between {@link #getLinkOffset()} and getLinkOffset() + getLinkIndexRange() - 1.
+	 */
+	/*package*/ int getLinkIndexRange() {
+		return links.length();
+	}
+
+	/**
+	 * Indices of the nodes and links of a network. Nodes are numbered in z-order of their coordinates
+	 * and links in the order of their from nodes, i.e. the nodes and links of a spatially bounded
+	 * view occupy a small index range. Its bitsets are small even on large networks.
+	 * <p/>
+	 * The base graph is not updated if the network changes.
+	 */
+	public static class BaseGraph {
+
+		private final Network network;
+		private final Node[] nodes;
+		private final Link[] links;
+		// the out links of node n are outStart[n] to outStart[n+1]-1
+		private final int[] outStart;
+		private final Map<Id<Node>, Integer> nodeIndex = new HashMap<>();
+		private final Map<Id<Link>, Integer> linkIndex = new HashMap<>();
+
+		public BaseGraph(Network network) {
+			this.network = network;
+
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for(Node node : network.getNodes().values()) {
+				Coord c = node.getCoord();
+				minX = Math.min(minX, c.getX());
+				minY = Math.min(minY, c.getY());
+				maxX = Math.max(maxX, c.getX());
+				maxY = Math.max(maxY, c.getY());
+			}
+			double scaleX = maxX > minX ? 65535 / (maxX - minX) : 0;
+			double scaleY = maxY > minY ? 65535 / (maxY - minY) : 0;
+
+			List<Node> sortedNodes = new ArrayList<>(network.getNodes().values());
+			Map<Node, Long> zOrder = new HashMap<>();
+			for(Node node : sortedNodes) {
+				int x = (int) ((node.getCoord().getX() - minX) * scaleX);
+				int y = (int) ((node.getCoord().getY() - minY) * scaleY);
+				zOrder.put(node, interleave(x, y));
+			}
+			sortedNodes.sort(Comparator.comparing((Node n) -> zOrder.get(n)).thenComparing(Node::getId));
+
+			this.nodes = sortedNodes.toArray(new Node[0]);
+			this.outStart = new int[nodes.length + 1];
+			List<Link> sortedLinks = new ArrayList<>();
+			for(int i = 0; i < nodes.length; i++) {
+				nodeIndex.put(nodes[i].getId(), i);
+				outStart[i] = sortedLinks.size();
+				List<Link> outLinks = new ArrayList<>(nodes[i].getOutLinks().values());
+				outLinks.sort(Comparator.comparing(Link::getId));
+				sortedLinks.addAll(outLinks);
+			}
+			outStart[nodes.length] = sortedLinks.size();
+			this.links = sortedLinks.toArray(new Link[0]);
+			for(int l = 0; l < links.length; l++) {
+				linkIndex.put(links[l].getId(), l);
+			}
+		}
+
+		public Network getNetwork() {
+			return network;
+		}
+
+		public int getNumberOfNodes() {
+			return nodes.length;
+		}
+
+		public int getNumberOfLinks() {
+			return links.length;
+		}
+
+		/**
+		 * @return the nodes in the order of their indices
+		 */
+		/*package*/ List<Node> getNodes() {
+			return Arrays.asList(nodes);
+		}
+
+		/**
+		 * @return the out links of the node with index n in the order of their indices
+		 */
+		/*package*/ List<Link> getOutLinks(int n) {
+			return Arrays.asList(links).subList(outStart[n], outStart[n + 1]);
+		}
+
+		/**
+		 * Interleaves the bits of two 16 bit values (Morton code)
+		 */
+		private static long interleave(int x, int y) {
+			long z = 0;
+			for(int b = 0; b < 16; b++) {
+				z |= (long) ((x >> b) & 1) << (2 * b);
+				z |= (long) ((y >> b) & 1) << (2 * b + 1);
+			}
+			return z;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Calculates the least cost paths from one node to multiple nodes with one
+ * search, used to route from one link candidate to all candidates of the next stop.
+ */
+public interface OneToManyPathCalculator {
+
+	/**
+	 * @return the least cost paths to all target nodes that can be reached with a travel
+	 * cost of at most <tt>maxTravelCost</tt>. Targets that cannot be reached are not
+	 * contained in the map.
+	 */
+	Map<Node, LeastCostPathCalculator.Path> calcLeastCostPaths(Node fromNode, Collection<? extends Node> toNodes, double maxTravelCost);
+
+}
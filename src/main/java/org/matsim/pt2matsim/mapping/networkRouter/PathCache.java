@@ -0,0 +1,337 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.pt2matsim.tools.CacheTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for least cost paths between two nodes, shared by all threads. Paths
+ * are stored per router key (usually the schedule mode, i.e. the network and travel
+ * disutility used), from node and to node.
+ * <p/>
+ * Searches are bounded by a max travel cost, a node that has not been reached is stored
+ * as unreachable together with the bound of the search. Such an entry is only valid for
+ * queries with the same or a lower bound.
+ * <p/>
+ * The cache is split in segments, each segment is a synchronized LRU map. The least
+ * recently used entries of a segment are evicted once the maximal size is reached.
+ * <p/>
+ * The entries can be written to a binary file and loaded in a later run. The file
+ * does not identify the networks, use a file name that depends on the networks and
+ * travel disutilities (see {@link CacheTools#getCacheFile}).
+ */
+public class PathCache {
+
+	protected static Logger log = Logger.getLogger(PathCache.class);
+
+	public static final int DEFAULT_MAX_SIZE = 200000;
+	private static final int N_SEGMENTS = 16;
+	private static final int FILE_VERSION = 1;
+
+	private final Segment[] segments = new Segment[N_SEGMENTS];
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public PathCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public PathCache(int maxSize) {
+		if(maxSize < 1) {
+			throw new IllegalArgumentException("maxSize of path cache must be at least 1");
+		}
+		int segmentSize = Math.max(1, maxSize / N_SEGMENTS);
+		for(int i = 0; i < N_SEGMENTS; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * @return the cache entry if the path from <tt>fromNode</tt> to <tt>toNode</tt> is known
+	 * for the given bound, <tt>null</tt> otherwise. The path of the entry is <tt>null</tt> if
+	 * the to node cannot be reached within <tt>maxTravelCost</tt>.
+	 */
+	public Entry get(String routerKey, Id<Node> fromNode, Id<Node> toNode, double maxTravelCost) {
+		Key key = new Key(routerKey, fromNode, toNode);
+		Entry entry = segment(key).get(key);
+		if(entry != null && (entry.path != null || maxTravelCost <= entry.maxSearchedCost)) {
+			hits.incrementAndGet();
+			return entry.path == null || entry.path.travelCost <= maxTravelCost ? entry : new Entry(null, maxTravelCost);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores the result of a search bounded by <tt>maxSearchedCost</tt>. <tt>path</tt> is
+	 * <tt>null</tt> if the to node could not be reached.
+	 */
+	public void put(String routerKey, Id<Node> fromNode, Id<Node> toNode, LeastCostPathCalculator.Path path, double maxSearchedCost) {
+		Key key = new Key(routerKey, fromNode, toNode);
+		segment(key).put(key, new Entry(path, maxSearchedCost));
+	}
+
+	/**
+	 * Loads the cache file of the given inputs from the cache directory if it exists. The
+	 * file name depends on <tt>key</tt> (router type, travel disutility etc.) and the content
+	 * of the networks.
+	 *
+	 * @return the cache file for the inputs, see {@link #writeToCacheFile}
+	 */
+	public File loadFromCacheDirectory(String cacheDirectory, CacheTools.Key key, Map<String, Network> networksByRouterKey) {
+		for(String routerKey : new TreeSet<>(networksByRouterKey.keySet())) {
+			key.add(routerKey).add(networksByRouterKey.get(routerKey));
+		}
+		File file = CacheTools.getCacheFile(cacheDirectory, "paths", key);
+		if(file.exists()) {
+			try {
+				log.info(loadFromFile(file, networksByRouterKey) + " paths loaded from cache file " + file);
+			} catch (IOException e) {
+				log.warn("Cannot read path cache file " + file + ", paths are calculated again", e);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Writes all entries to the cache file, errors are logged
+	 */
+	public void writeToCacheFile(File file) {
+		try {
+			writeToFile(file);
+			log.info(size() + " paths written to cache file " + file);
+		} catch (IOException e) {
+			log.warn("Cannot write path cache file " + file, e);
+		}
+	}
+
+	/**
+	 * Writes all entries to a binary file. Paths are stored as link ids.
+	 */
+	public void writeToFile(File file) throws IOException {
+		List<Map.Entry<Key, Entry>> entries = new ArrayList<>();
+		for(Segment segment : segments) {
+			entries.addAll(segment.entries());
+		}
+
+		CacheTools.StringTable strings = new CacheTools.StringTable();
+		int[][] linkIndices = new int[entries.size()][];
+		int[][] keyIndices = new int[entries.size()][];
+		for(int i = 0; i < entries.size(); i++) {
+			Key key = entries.get(i).getKey();
+			keyIndices[i] = new int[]{strings.get(key.routerKey), strings.get(key.fromNode), strings.get(key.toNode)};
+			LeastCostPathCalculator.Path path = entries.get(i).getValue().path;
+			if(path != null) {
+				linkIndices[i] = new int[path.links.size()];
+				for(int l = 0; l < path.links.size(); l++) {
+					linkIndices[i][l] = strings.get(path.links.get(l).getId());
+				}
+			}
+		}
+
+		CacheTools.writeFile(file, FILE_VERSION, strings.getStrings(), out -> {
+			out.writeInt(entries.size());
+			for(int i = 0; i < entries.size(); i++) {
+				Entry entry = entries.get(i).getValue();
+				for(int k : keyIndices[i]) {
+					out.writeInt(k);
+				}
+				out.writeDouble(entry.maxSearchedCost);
+				if(entry.path == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(linkIndices[i].length);
+					out.writeDouble(entry.path.travelTime);
+					out.writeDouble(entry.path.travelCost);
+					for(int l : linkIndices[i]) {
+						out.writeInt(l);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Loads the entries of a file written by {@link #writeToFile}. The file is memory mapped.
+	 * Entries are only loaded if their router key is in <tt>networksByRouterKey</tt> and all
+	 * nodes and links of the path are in that network.
+	 *
+	 * @return the number of entries loaded
+	 */
+	public int loadFromFile(File file, Map<String, Network> networksByRouterKey) throws IOException {
+		List<String> strings = new ArrayList<>();
+		ByteBuffer buffer = CacheTools.mapFile(file, FILE_VERSION, strings);
+		if(buffer == null) {
+			log.warn("Path cache file " + file + " has been written by another version and is ignored");
+			return 0;
+		}
+
+		int nLoaded = 0;
+		int nEntries = buffer.getInt();
+		for(int i = 0; i < nEntries; i++) {
+			String routerKey = strings.get(buffer.getInt());
+			String fromNodeId = strings.get(buffer.getInt());
+			String toNodeId = strings.get(buffer.getInt());
+			double maxSearchedCost = buffer.getDouble();
+			int nLinks = buffer.getInt();
+			double travelTime = 0;
+			double travelCost = 0;
+			List<String> linkIds = new ArrayList<>();
+			if(nLinks >= 0) {
+				travelTime = buffer.getDouble();
+				travelCost = buffer.getDouble();
+				for(int l = 0; l < nLinks; l++) {
+					linkIds.add(strings.get(buffer.getInt()));
+				}
+			}
+
+			Network network = networksByRouterKey.get(routerKey);
+			if(network == null) continue;
+			Node fromNode = network.getNodes().get(Id.createNodeId(fromNodeId));
+			Node toNode = network.getNodes().get(Id.createNodeId(toNodeId));
+			if(fromNode == null || toNode == null) continue;
+
+			LeastCostPathCalculator.Path path = null;
+			if(nLinks >= 0) {
+				List<Node> nodes = new ArrayList<>();
+				List<Link> links = new ArrayList<>();
+				nodes.add(fromNode);
+				for(String linkId : linkIds) {
+					Link link = network.getLinks().get(Id.createLinkId(linkId));
+					if(link == null) break;
+					links.add(link);
+					nodes.add(link.getToNode());
+				}
+				if(links.size() < nLinks) continue;
+				path = new LeastCostPathCalculator.Path(nodes, links, travelTime, travelCost);
+			}
+			put(routerKey, fromNode.getId(), toNode.getId(), path, maxSearchedCost);
+			nLoaded++;
+		}
+		return nLoaded;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		int size = 0;
+		for(Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public void printStatistics() {
+		long h = hits.get();
+		long m = misses.get();
+		log.info("    Path cache:");
+		log.info("       hits      " + h);
+		log.info("       misses    " + m);
+		log.info("       hit rate  " + String.format("%.1f%%", (h + m) > 0 ? 100.0 * h / (h + m) : 0));
+		log.info("       entries   " + size());
+	}
+
+	private Segment segment(Key key) {
+		return segments[(key.hashCode() & 0x7fffffff) % N_SEGMENTS];
+	}
+
+	/**
+	 * A cached path (or <tt>null</tt> if not reachable) and the bound of the search
+	 */
+	public static class Entry {
+
+		private final LeastCostPathCalculator.Path path;
+		private final double maxSearchedCost;
+
+		Entry(LeastCostPathCalculator.Path path, double maxSearchedCost) {
+			this.path = path;
+			this.maxSearchedCost = maxSearchedCost;
+		}
+
+		public LeastCostPathCalculator.Path getPath() {
+			return path;
+		}
+	}
+
+	private static class Key {
+
+		private final String routerKey;
+		private final Id<Node> fromNode;
+		private final Id<Node> toNode;
+		private final int hash;
+
+		Key(String routerKey, Id<Node> fromNode, Id<Node> toNode) {
+			this.routerKey = routerKey;
+			this.fromNode = fromNode;
+			this.toNode = toNode;
+			this.hash = Objects.hash(routerKey, fromNode, toNode);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(o == null || getClass() != o.getClass()) return false;
+			Key other = (Key) o;
+			return fromNode.equals(other.fromNode) && toNode.equals(other.toNode) && routerKey.equals(other.routerKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * LRU map, access is synchronized
+	 */
+	private static class Segment {
+
+		private final Map<Key, Entry> map;
+
+		Segment(int maxSize) {
+			this.map = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		synchronized Entry get(Key key) {
+			return map.get(key);
+		}
+
+		synchronized void put(Key key, Entry entry) {
+			Entry existing = map.get(key);
+			// don't replace a path or a larger search bound with a weaker entry
+			if(existing != null && (existing.path != null || (entry.path == null && entry.maxSearchedCost <= existing.maxSearchedCost))) {
+				return;
+			}
+			map.put(key, entry);
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+
+		synchronized List<Map.Entry<Key, Entry>> entries() {
+			return new ArrayList<>(map.entrySet());
+		}
+	}
+}
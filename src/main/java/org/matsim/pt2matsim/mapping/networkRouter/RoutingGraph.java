@@ -0,0 +1,700 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.pt2matsim.tools.CacheTools;
+import org.matsim.pt2matsim.tools.MiscUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.*;
+
+/**
+ * Compiled routing graph of a network or a {@link NetworkView}. Nodes and links are numbered
+ * with a dense index, the out links of each node are stored in compressed adjacency arrays and
+ * the travel cost and travel time of all links are calculated once when the graph is created.
+ * Queries do not call the travel disutility or any network interfaces.
+ * <p/>
+ * Point-to-point queries use A* with the beeline distance multiplied with the minimal travel
+ * cost per beeline distance of all links as heuristic, one-to-many queries use Dijkstra. If
+ * landmarks are created (see {@link #createLandmarks}), the heuristic uses the travel costs
+ * from and to the landmarks as well (ALT). Search data is stored per thread, a graph can be
+ * queried by multiple threads. The graph is not updated if the network changes.
+ * <p/>
+ * A graph compiled from a {@link NetworkView.BaseGraph} can be queried on the links of a view
+ * with other travel costs, see {@link #restrict}.
+ */
+public class RoutingGraph implements OneToManyPathCalculator {
+
+	protected static Logger log = Logger.getLogger(RoutingGraph.class);
+
+	private static final int LANDMARKS_FILE_VERSION = 1;
+
+	private final NetworkView.BaseGraph base;
+	private final Node[] nodes;
+	private final Map<Id<Node>, Integer> nodeIndex = new HashMap<>();
+	private final double[] nodeX;
+	private final double[] nodeY;
+
+	// the out links of node n are outStart[n] to outStart[n+1]-1
+	private final int[] outStart;
+	private final Link[] links;
+	private final int[] linkFromNode;
+	private final int[] linkToNode;
+	private final double[] linkCost;
+	private final double[] linkTime;
+
+	private final double minCostPerDistance;
+	private final ThreadLocal<Search> search;
+
+	// travel costs of node n from landmark l at [n * 2 * nLandmarks + l], to landmark l at [n * 2 * nLandmarks + nLandmarks + l]
+	private int nLandmarks = 0;
+	private DoubleBuffer landmarkCosts = null;
+
+	/**
+	 * Creates a graph with all nodes and links of the network
+	 */
+	public RoutingGraph(Network network, TravelDisutility travelDisutility, TravelTime travelTime) {
+		this(network.getNodes().values(), null, travelDisutility, travelTime);
+	}
+
+	/**
+	 * Creates a graph with all nodes and links of the base graph. Nodes and links have the same
+	 * indices as in the base graph.
+	 */
+	public RoutingGraph(NetworkView.BaseGraph base, TravelDisutility travelDisutility, TravelTime travelTime) {
+		this(base.getNodes(), base, travelDisutility, travelTime);
+	}
+
+	private RoutingGraph(Collection<? extends Node> networkNodes, NetworkView.BaseGraph base, TravelDisutility travelDisutility, TravelTime travelTime) {
+		this.base = base;
+		this.nodes = networkNodes.toArray(new Node[0]);
+		int nNodes = nodes.length;
+		this.nodeX = new double[nNodes];
+		this.nodeY = new double[nNodes];
+		for(int n = 0; n < nNodes; n++) {
+			nodeIndex.put(nodes[n].getId(), n);
+			nodeX[n] = nodes[n].getCoord().getX();
+			nodeY[n] = nodes[n].getCoord().getY();
+		}
+
+		this.outStart = new int[nNodes + 1];
+		List<Link> outLinks = new ArrayList<>();
+		List<Integer> fromNodes = new ArrayList<>();
+		List<Integer> toNodes = new ArrayList<>();
+		for(int n = 0; n < nNodes; n++) {
+			outStart[n] = outLinks.size();
+			Collection<? extends Link> nodeOutLinks = base != null ? base.getOutLinks(n) : nodes[n].getOutLinks().values();
+			for(Link link : nodeOutLinks) {
+				Integer to = nodeIndex.get(link.getToNode().getId());
+				if(to != null) {
+					outLinks.add(link);
+					fromNodes.add(n);
+					toNodes.add(to);
+				}
+			}
+		}
+		outStart[nNodes] = outLinks.size();
+		if(base != null && outLinks.size() != base.getNumberOfLinks()) {
+			throw new RuntimeException("Links of the base graph lead to nodes that are not part of the base graph");
+		}
+
+		int nLinks = outLinks.size();
+		this.links = outLinks.toArray(new Link[0]);
+		this.linkFromNode = new int[nLinks];
+		this.linkToNode = new int[nLinks];
+		this.linkCost = new double[nLinks];
+		this.linkTime = new double[nLinks];
+		double minCostPerDist = Double.POSITIVE_INFINITY;
+		for(int l = 0; l < nLinks; l++) {
+			linkFromNode[l] = fromNodes.get(l);
+			linkToNode[l] = toNodes.get(l);
+			linkCost[l] = travelDisutility.getLinkTravelDisutility(links[l], 0, null, null);
+			linkTime[l] = travelTime.getLinkTravelTime(links[l], 0, null, null);
+			double beelineDistance = beelineDistance(nodeX[linkFromNode[l]], nodeY[linkFromNode[l]], nodeX[linkToNode[l]], nodeY[linkToNode[l]]);
+			if(beelineDistance > 0) {
+				minCostPerDist = Math.min(minCostPerDist, linkCost[l] / beelineDistance);
+			}
+		}
+		this.minCostPerDistance = toLowerBound(minCostPerDist);
+
+		this.search = ThreadLocal.withInitial(() -> new Search(nNodes));
+	}
+
+	/**
+	 * @return the node of the graph with the given id, <tt>null</tt> if the node is not part of the graph
+	 */
+	public Node getNode(Id<Node> nodeId) {
+		Integer n = nodeIndex.get(nodeId);
+		return n != null ? nodes[n] : null;
+	}
+
+	/**
+	 * @return the travel cost of the link calculated when the graph was created, <tt>NaN</tt> if
+	 * the link is not part of the graph
+	 */
+	public double getLinkTravelCost(Link link) {
+		Integer n = nodeIndex.get(link.getFromNode().getId());
+		if(n != null) {
+			for(int l = outStart[n]; l < outStart[n + 1]; l++) {
+				if(links[l].getId().equals(link.getId())) {
+					return linkCost[l];
+				}
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * @return the base graph the graph has been compiled from, <tt>null</tt> if it has been compiled from a network
+	 */
+	public NetworkView.BaseGraph getBase() {
+		return base;
+	}
+
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+
+	public int getNumberOfLinks() {
+		return links.length;
+	}
+
+	/**
+	 * @return a path calculator for point-to-point queries on this graph, departure time, person
+	 * and vehicle are ignored.
+	 */
+	public LeastCostPathCalculator createPathCalculator() {
+		return (fromNode, toNode, starttime, person, vehicle) -> calcLeastCostPath(fromNode, toNode);
+	}
+
+	/**
+	 * @return the least cost path between the two nodes, <tt>null</tt> if there is no path or the
+	 * nodes are not part of the graph.
+	 */
+	public LeastCostPathCalculator.Path calcLeastCostPath(Node fromNode, Node toNode) {
+		return calcLeastCostPath(fromNode, toNode, null);
+	}
+
+	/**
+	 * @param r only the links of the restricted graph with its travel costs are used if not <tt>null</tt>
+	 */
+	private LeastCostPathCalculator.Path calcLeastCostPath(Node fromNode, Node toNode, RestrictedGraph r) {
+		Integer from = nodeIndex.get(fromNode.getId());
+		Integer to = nodeIndex.get(toNode.getId());
+		if(from == null || to == null || (r != null && (!r.view.containsNode(fromNode) || !r.view.containsNode(toNode)))) {
+			return null;
+		}
+
+		Search s = search.get();
+		s.start(from, estimateCost(from, to, r));
+		while(!s.heap.isEmpty()) {
+			int n = s.heap.poll();
+			if(s.isSettled(n)) {
+				continue;
+			}
+			s.settle(n);
+			if(n == to) {
+				return constructPath(s, to);
+			}
+			relax(s, n, to, r);
+		}
+		return null;
+	}
+
+	@Override
+	public Map<Node, LeastCostPathCalculator.Path> calcLeastCostPaths(Node fromNode, Collection<? extends Node> toNodes, double maxTravelCost) {
+		return calcLeastCostPaths(fromNode, toNodes, maxTravelCost, null);
+	}
+
+	/**
+	 * @param r only the links of the restricted graph with its travel costs are used if not <tt>null</tt>
+	 */
+	private Map<Node, LeastCostPathCalculator.Path> calcLeastCostPaths(Node fromNode, Collection<? extends Node> toNodes, double maxTravelCost, RestrictedGraph r) {
+		Map<Node, LeastCostPathCalculator.Path> paths = new HashMap<>();
+		Integer from = nodeIndex.get(fromNode.getId());
+		Map<Integer, Node> targets = new HashMap<>();
+		for(Node toNode : toNodes) {
+			Integer to = nodeIndex.get(toNode.getId());
+			if(to != null && (r == null || r.view.containsNode(toNode))) {
+				targets.put(to, toNode);
+			}
+		}
+		if(from == null || targets.isEmpty() || (r != null && !r.view.containsNode(fromNode))) {
+			return paths;
+		}
+
+		Search s = search.get();
+		s.start(from, 0);
+		while(!s.heap.isEmpty() && paths.size() < targets.size()) {
+			int n = s.heap.poll();
+			if(s.isSettled(n)) {
+				continue;
+			}
+			if(s.cost[n] > maxTravelCost) {
+				break;
+			}
+			s.settle(n);
+
+			Node target = targets.get(n);
+			if(target != null) {
+				paths.put(target, constructPath(s, n));
+			}
+			relax(s, n, -1, r);
+		}
+		return paths;
+	}
+
+	/**
+	 * Updates the nodes reached by the out links of n
+	 *
+	 * @param target the target node of an A* search, -1 for Dijkstra
+	 * @param r      links that are not part of the restricted graph are skipped if not <tt>null</tt>
+	 */
+	private void relax(Search s, int n, int target, RestrictedGraph r) {
+		for(int l = outStart[n]; l < outStart[n + 1]; l++) {
+			if(r != null && !r.view.containsLinkIndex(l)) {
+				continue;
+			}
+			int m = linkToNode[l];
+			double cost = s.cost[n] + (r == null ? linkCost[l] : r.linkCost[l - r.linkOffset]);
+			if(!s.isReached(m) || (!s.isSettled(m) && cost < s.cost[m])) {
+				s.reach(m, cost, s.time[n] + linkTime[l], l);
+				s.heap.add(m, target < 0 ? cost : cost + estimateCost(m, target, r));
+			}
+		}
+	}
+
+	/**
+	 * @return a lower bound of the travel cost from node n to the target node. Landmarks are not
+	 * used for restricted graphs, they have been calculated with the travel costs of this graph.
+	 */
+	private double estimateCost(int n, int target, RestrictedGraph r) {
+		if(r != null) {
+			return r.minCostPerDistance * beelineDistance(nodeX[n], nodeY[n], nodeX[target], nodeY[target]);
+		}
+		double estimate = minCostPerDistance * beelineDistance(nodeX[n], nodeY[n], nodeX[target], nodeY[target]);
+		if(landmarkCosts != null) {
+			int nOffset = n * 2 * nLandmarks;
+			int targetOffset = target * 2 * nLandmarks;
+			double landmarkEstimate = 0;
+			for(int l = 0; l < nLandmarks; l++) {
+				// cost(landmark, target) <= cost(landmark, n) + cost(n, target)
+				double fromLandmarkToN = landmarkCosts.get(nOffset + l);
+				double fromLandmarkToTarget = landmarkCosts.get(targetOffset + l);
+				if(fromLandmarkToN < Double.POSITIVE_INFINITY && fromLandmarkToTarget < Double.POSITIVE_INFINITY) {
+					landmarkEstimate = Math.max(landmarkEstimate, fromLandmarkToTarget - fromLandmarkToN);
+				}
+				// cost(n, landmark) <= cost(n, target) + cost(target, landmark)
+				double fromNToLandmark = landmarkCosts.get(nOffset + nLandmarks + l);
+				double fromTargetToLandmark = landmarkCosts.get(targetOffset + nLandmarks + l);
+				if(fromNToLandmark < Double.POSITIVE_INFINITY && fromTargetToLandmark < Double.POSITIVE_INFINITY) {
+					landmarkEstimate = Math.max(landmarkEstimate, fromNToLandmark - fromTargetToLandmark);
+				}
+			}
+			// slightly reduced to stay a lower bound despite rounding errors
+			estimate = Math.max(estimate, landmarkEstimate * (1 - 1E-9));
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return the links of the view with the given travel costs. The view has to be a view of the
+	 * base graph this graph has been compiled from.
+	 */
+	public RestrictedGraph restrict(NetworkView view, TravelDisutility travelDisutility) {
+		if(base == null || view.getBase() != base) {
+			throw new RuntimeException("The view is not a view of the base graph of this routing graph");
+		}
+		return new RestrictedGraph(view, travelDisutility);
+	}
+
+	public int getNumberOfLandmarks() {
+		return nLandmarks;
+	}
+
+	/**
+	 * Loads the landmark travel costs from the cache file if it exists and has been written for
+	 * the nodes of this graph. Otherwise the landmarks are created and written to the cache file.
+	 * The cache file is memory mapped, the landmark travel costs are not copied to the heap.
+	 * <p/>
+	 * The name of the cache file has to contain a hash of the network and the travel costs, see
+	 * {@link CacheTools#getCacheFile}.
+	 */
+	public void loadOrCreateLandmarks(int nLandmarks, int nThreads, File cacheFile) {
+		if(cacheFile.exists()) {
+			try {
+				if(loadLandmarks(cacheFile, nLandmarks)) {
+					log.info(this.nLandmarks + " landmarks loaded from cache file " + cacheFile);
+					return;
+				}
+				log.warn("Landmark cache file " + cacheFile + " does not match the routing graph, landmarks are created again");
+			} catch (IOException e) {
+				log.warn("Cannot read landmark cache file " + cacheFile + ", landmarks are created again", e);
+			}
+		}
+
+		createLandmarks(nLandmarks, nThreads);
+
+		try {
+			writeLandmarks(cacheFile);
+			log.info(this.nLandmarks + " landmarks written to cache file " + cacheFile);
+		} catch (IOException e) {
+			log.warn("Cannot write landmark cache file " + cacheFile, e);
+		}
+	}
+
+	/**
+	 * Selects the landmarks and calculates the travel costs from and to all nodes. Landmarks are
+	 * selected at the border of the network: the first landmark is the node farthest from the
+	 * center, each further landmark is the node with the largest beeline distance to the closest
+	 * landmark selected so far.
+	 *
+	 * @param nThreads the landmarks are distributed on this number of threads
+	 */
+	public void createLandmarks(int nLandmarks, int nThreads) {
+		int nNodes = nodes.length;
+		int k = Math.min(nLandmarks, nNodes);
+
+		// select landmarks
+		double centerX = 0, centerY = 0;
+		for(int n = 0; n < nNodes; n++) {
+			centerX += nodeX[n] / nNodes;
+			centerY += nodeY[n] / nNodes;
+		}
+		double[] minDistance = new double[nNodes];
+		for(int n = 0; n < nNodes; n++) {
+			minDistance[n] = beelineDistance(nodeX[n], nodeY[n], centerX, centerY);
+		}
+		List<Integer> landmarks = new ArrayList<>();
+		for(int l = 0; l < k; l++) {
+			int landmark = 0;
+			for(int n = 1; n < nNodes; n++) {
+				if(minDistance[n] > minDistance[landmark]) {
+					landmark = n;
+				}
+			}
+			int lm = landmark;
+			landmarks.add(lm);
+			for(int n = 0; n < nNodes; n++) {
+				minDistance[n] = l == 0 ? beelineDistance(nodeX[n], nodeY[n], nodeX[lm], nodeY[lm]) : Math.min(minDistance[n], beelineDistance(nodeX[n], nodeY[n], nodeX[lm], nodeY[lm]));
+			}
+			minDistance[lm] = -1;
+		}
+
+		// in links for the searches to the landmarks
+		int[] inStart = new int[nNodes + 1];
+		for(int l = 0; l < links.length; l++) {
+			inStart[linkToNode[l] + 1]++;
+		}
+		for(int n = 0; n < nNodes; n++) {
+			inStart[n + 1] += inStart[n];
+		}
+		int[] inLinks = new int[links.length];
+		int[] inPos = Arrays.copyOf(inStart, nNodes);
+		for(int l = 0; l < links.length; l++) {
+			inLinks[inPos[linkToNode[l]]++] = l;
+		}
+
+		double[] costs = new double[nNodes * 2 * k];
+		List<Integer> searches = new ArrayList<>();
+		for(int i = 0; i < 2 * k; i++) {
+			searches.add(i);
+		}
+		MiscUtils.runInThreads(searches, Math.max(1, nThreads), i -> {
+			boolean toLandmark = i >= k;
+			int l = toLandmark ? i - k : i;
+			double[] landmarkCosts = calcLandmarkCosts(landmarks.get(l), toLandmark, inStart, inLinks);
+			for(int n = 0; n < nNodes; n++) {
+				costs[n * 2 * k + i] = landmarkCosts[n];
+			}
+		});
+
+		this.nLandmarks = k;
+		this.landmarkCosts = DoubleBuffer.wrap(costs);
+	}
+
+	/**
+	 * Dijkstra search over all nodes
+	 *
+	 * @param toLandmark if <tt>true</tt>, the costs from all nodes to the landmark are calculated
+	 *                   (the in links of the nodes are followed). Otherwise the costs from the landmark.
+	 * @return the travel costs by node, infinite for nodes that cannot be reached
+	 */
+	private double[] calcLandmarkCosts(int landmark, boolean toLandmark, int[] inStart, int[] inLinks) {
+		double[] cost = new double[nodes.length];
+		Arrays.fill(cost, Double.POSITIVE_INFINITY);
+		boolean[] settled = new boolean[nodes.length];
+		Heap heap = new Heap();
+		cost[landmark] = 0;
+		heap.add(landmark, 0);
+		while(!heap.isEmpty()) {
+			int n = heap.poll();
+			if(settled[n]) {
+				continue;
+			}
+			settled[n] = true;
+			int start = toLandmark ? inStart[n] : outStart[n];
+			int end = toLandmark ? inStart[n + 1] : outStart[n + 1];
+			for(int i = start; i < end; i++) {
+				int l = toLandmark ? inLinks[i] : i;
+				int m = toLandmark ? linkFromNode[l] : linkToNode[l];
+				double c = cost[n] + linkCost[l];
+				if(!settled[m] && c < cost[m]) {
+					cost[m] = c;
+					heap.add(m, c);
+				}
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * The string table of the file contains the node ids in the order of the graph
+	 */
+	private void writeLandmarks(File file) throws IOException {
+		CacheTools.StringTable strings = new CacheTools.StringTable();
+		for(Node node : nodes) {
+			strings.get(node.getId());
+		}
+		CacheTools.writeFile(file, LANDMARKS_FILE_VERSION, strings.getStrings(), out -> {
+			out.writeInt(nLandmarks);
+			for(int i = 0; i < landmarkCosts.capacity(); i++) {
+				out.writeDouble(landmarkCosts.get(i));
+			}
+		});
+	}
+
+	/**
+	 * @return <tt>false</tt> if the file has not been written for the nodes of this graph
+	 */
+	private boolean loadLandmarks(File file, int nLandmarks) throws IOException {
+		List<String> nodeIds = new ArrayList<>();
+		MappedByteBuffer buffer = CacheTools.mapFile(file, LANDMARKS_FILE_VERSION, nodeIds);
+		if(buffer == null || nodeIds.size() != nodes.length) {
+			return false;
+		}
+		for(int n = 0; n < nodes.length; n++) {
+			if(!nodeIds.get(n).equals(nodes[n].getId().toString())) {
+				return false;
+			}
+		}
+		int k = buffer.getInt();
+		if(k != Math.min(nLandmarks, nodes.length) || buffer.remaining() != (long) nodes.length * 2 * k * 8) {
+			return false;
+		}
+		this.nLandmarks = k;
+		this.landmarkCosts = buffer.slice().asDoubleBuffer();
+		return true;
+	}
+
+	private LeastCostPathCalculator.Path constructPath(Search s, int target) {
+		LinkedList<Node> pathNodes = new LinkedList<>();
+		LinkedList<Link> pathLinks = new LinkedList<>();
+
+		int n = target;
+		pathNodes.addFirst(nodes[n]);
+		while(s.previousLink[n] >= 0) {
+			int l = s.previousLink[n];
+			pathLinks.addFirst(links[l]);
+			n = linkFromNode[l];
+			pathNodes.addFirst(nodes[n]);
+		}
+		return new LeastCostPathCalculator.Path(new ArrayList<>(pathNodes), new ArrayList<>(pathLinks), s.time[target], s.cost[target]);
+	}
+
+	/**
+	 * @return the minimal travel cost per beeline distance, slightly reduced to stay a lower
+	 * bound despite rounding errors
+	 */
+	private static double toLowerBound(double minCostPerDistance) {
+		return minCostPerDistance == Double.POSITIVE_INFINITY || Double.isNaN(minCostPerDistance) || minCostPerDistance < 0 ? 0 : minCostPerDistance * (1 - 1E-9);
+	}
+
+	private static double beelineDistance(double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * The nodes and links of a {@link NetworkView} on this graph with their own link travel costs.
+	 * The links of the view are given by its bitset, the travel costs are stored for the link index
+	 * range of the view only. Queries use the search data and link travel times of this graph.
+	 */
+	public class RestrictedGraph implements OneToManyPathCalculator {
+
+		private final NetworkView view;
+		private final int linkOffset;
+		private final double[] linkCost;
+		private final double minCostPerDistance;
+
+		private RestrictedGraph(NetworkView view, TravelDisutility travelDisutility) {
+			this.view = view;
+			this.linkOffset = view.getLinkOffset();
+			this.linkCost = new double[view.getLinkIndexRange()];
+			double minCostPerDist = Double.POSITIVE_INFINITY;
+			for(int l = view.nextLinkIndex(0); l >= 0; l = view.nextLinkIndex(l + 1)) {
+				double cost = travelDisutility.getLinkTravelDisutility(links[l], 0, null, null);
+				linkCost[l - linkOffset] = cost;
+				double beelineDistance = beelineDistance(nodeX[linkFromNode[l]], nodeY[linkFromNode[l]], nodeX[linkToNode[l]], nodeY[linkToNode[l]]);
+				if(beelineDistance > 0) {
+					minCostPerDist = Math.min(minCostPerDist, cost / beelineDistance);
+				}
+			}
+			this.minCostPerDistance = toLowerBound(minCostPerDist);
+		}
+
+		/**
+		 * @return the node with the given id, <tt>null</tt> if the node is not part of the view
+		 */
+		public Node getNode(Id<Node> nodeId) {
+			return view.getNode(nodeId);
+		}
+
+		/**
+		 * @see RoutingGraph#createPathCalculator()
+		 */
+		public LeastCostPathCalculator createPathCalculator() {
+			return (fromNode, toNode, starttime, person, vehicle) -> calcLeastCostPath(fromNode, toNode);
+		}
+
+		public LeastCostPathCalculator.Path calcLeastCostPath(Node fromNode, Node toNode) {
+			return RoutingGraph.this.calcLeastCostPath(fromNode, toNode, this);
+		}
+
+		@Override
+		public Map<Node, LeastCostPathCalculator.Path> calcLeastCostPaths(Node fromNode, Collection<? extends Node> toNodes, double maxTravelCost) {
+			return RoutingGraph.this.calcLeastCostPaths(fromNode, toNodes, maxTravelCost, this);
+		}
+	}
+
+	/**
+	 * Search data of one thread. The arrays are reused between queries, a node has only been
+	 * reached (or settled) in the current query if its stamp equals the current query number.
+	 */
+	private static class Search {
+
+		private final double[] cost;
+		private final double[] time;
+		private final int[] previousLink;
+		private final int[] reachedStamp;
+		private final int[] settledStamp;
+		private final Heap heap = new Heap();
+		private int query = 0;
+
+		Search(int nNodes) {
+			this.cost = new double[nNodes];
+			this.time = new double[nNodes];
+			this.previousLink = new int[nNodes];
+			this.reachedStamp = new int[nNodes];
+			this.settledStamp = new int[nNodes];
+		}
+
+		void start(int fromNode, double key) {
+			if(query == Integer.MAX_VALUE) {
+				Arrays.fill(reachedStamp, 0);
+				Arrays.fill(settledStamp, 0);
+				query = 0;
+			}
+			query++;
+			heap.clear();
+			reach(fromNode, 0, 0, -1);
+			heap.add(fromNode, key);
+		}
+
+		void reach(int n, double cost, double time, int previousLink) {
+			this.cost[n] = cost;
+			this.time[n] = time;
+			this.previousLink[n] = previousLink;
+			this.reachedStamp[n] = query;
+		}
+
+		boolean isReached(int n) {
+			return reachedStamp[n] == query;
+		}
+
+		void settle(int n) {
+			settledStamp[n] = query;
+		}
+
+		boolean isSettled(int n) {
+			return settledStamp[n] == query;
+		}
+	}
+
+	/**
+	 * Binary min heap of node indices. Nodes are added again if their key decreases,
+	 * outdated entries are skipped by the search.
+	 */
+	private static class Heap {
+
+		private double[] keys = new double[64];
+		private int[] values = new int[64];
+		private int size = 0;
+
+		void clear() {
+			size = 0;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add(int value, double key) {
+			if(size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			int i = size++;
+			while(i > 0) {
+				int parent = (i - 1) / 2;
+				if(keys[parent] <= key) {
+					break;
+				}
+				keys[i] = keys[parent];
+				values[i] = values[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+
+		/**
+		 * @return the value with the smallest key
+		 */
+		int poll() {
+			int first = values[0];
+			size--;
+			double key = keys[size];
+			int value = values[size];
+			int i = 0;
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= size) {
+					break;
+				}
+				if(child + 1 < size && keys[child + 1] < keys[child]) {
+					child++;
+				}
+				if(key <= keys[child]) {
+					break;
+				}
+				keys[i] = keys[child];
+				values[i] = values[child];
+				i = child;
+			}
+			keys[i] = key;
+			values[i] = value;
+			return first;
+		}
+	}
+}
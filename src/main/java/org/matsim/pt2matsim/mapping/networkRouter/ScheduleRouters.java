@@ -20,6 +20,7 @@
 package org.matsim.pt2matsim.mapping.networkRouter;
 
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.pt.transitSchedule.api.TransitLine;
@@ -28,6 +29,10 @@ import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt2matsim.mapping.MapperModule;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
 
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 /**
  * All Routers (i.e. LeastCostPathCalculators) for the transit routes are stored within
  * an implementation of this interface. That way, the implementation can use different
@@ -44,23 +49,152 @@ public interface ScheduleRouters extends MapperModule {
 
 	LeastCostPathCalculator.Path calcLeastCostPath(Id<Node> fromNode, Id<Node> toNode, TransitLine transitLine, TransitRoute transitRoute);
 
+	/**
+	 * Calculate the least cost paths from one link candidate to multiple link candidates (usually
+	 * all candidates of the next stop) with one search. The search is aborted once <tt>maxTravelCost</tt>
+	 * is exceeded, link candidates that cannot be reached within this bound are not contained in the
+	 * returned map.
+	 */
+	Map<LinkCandidate, LeastCostPathCalculator.Path> calcLeastCostPaths(LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost, TransitLine transitLine, TransitRoute transitRoute);
+
+	/**
+	 * Calculate the least cost path between two link candidates, the search is aborted once
+	 * <tt>maxTravelCost</tt> is exceeded.
+	 *
+	 * @return <tt>null</tt> if there's no path with a travel cost of at most <tt>maxTravelCost</tt>
+	 */
+	default LeastCostPathCalculator.Path calcLeastCostPath(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate, double maxTravelCost, TransitLine transitLine, TransitRoute transitRoute) {
+		return calcLeastCostPaths(fromLinkCandidate, Collections.singleton(toLinkCandidate), maxTravelCost, transitLine, transitRoute).get(toLinkCandidate);
+	}
+
 	double getMinimalTravelCost(TransitRouteStop fromTransitRouteStop, TransitRouteStop toTransitRouteStop, TransitLine transitLine, TransitRoute transitRoute);
 
 	double getLinkCandidateTravelCost(LinkCandidate linkCandidateCurrent);
 
 	/**
-	 * Wrapper class to enable synchronized access to least cost path calculators
+	 * @return a lower bound of the travel cost of the least cost path between two link candidates
+	 * (see {@link #calcLeastCostPaths}). Link candidate pairs whose lower bound reaches the max travel
+	 * cost are not routed. The default of 0 routes all pairs.
+	 */
+	default double getLowerBoundTravelCost(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate, TransitLine transitLine, TransitRoute transitRoute) {
+		return 0;
+	}
+
+	/**
+	 * @return a key identifying the network and travel costs used to route the given transit route.
+	 * Transit routes with the same routing key, stop facilities and link candidates get the same paths.
+	 */
+	default String getRoutingKey(TransitLine transitLine, TransitRoute transitRoute) {
+		return transitRoute.getTransportMode();
+	}
+
+	/**
+	 * Wrapper class to enable concurrent access to least cost path calculators. The
+	 * point-to-point calculators (e.g. FastAStarLandmarks) hold scratch data per query,
+	 * each thread therefore gets its own calculator from the supplier. The calculators
+	 * should share the preprocessed network data, i.e. be created by the same factory
+	 * on the same network. The one-to-many calculator has to keep its scratch data per
+	 * query, it is shared by all threads.
+	 * <p/>
+	 * If a {@link PathCache} is given, paths are looked up there first. <tt>cacheKey</tt>
+	 * has to identify the network and travel disutility (e.g. the schedule mode).
 	 */
 	class PathCalculator {
 
-		private final LeastCostPathCalculator leastCostPathCalculator;
+		private final ThreadLocal<LeastCostPathCalculator> leastCostPathCalculator;
+		private final OneToManyPathCalculator oneToManyPathCalculator;
+		private final PathCache pathCache;
+		private final String cacheKey;
 
-		PathCalculator(LeastCostPathCalculator leastCostPathCalculator) {
-			this.leastCostPathCalculator = leastCostPathCalculator;
+		PathCalculator(Supplier<LeastCostPathCalculator> leastCostPathCalculatorSupplier, OneToManyPathCalculator oneToManyPathCalculator, PathCache pathCache, String cacheKey) {
+			this.leastCostPathCalculator = ThreadLocal.withInitial(leastCostPathCalculatorSupplier);
+			this.oneToManyPathCalculator = oneToManyPathCalculator;
+			this.pathCache = pathCache;
+			this.cacheKey = cacheKey;
 		}
 
-		synchronized LeastCostPathCalculator.Path calcPath(Node fromNode, Node toNode) {
-			return leastCostPathCalculator.calcLeastCostPath(fromNode, toNode, 0, null, null);
+		LeastCostPathCalculator.Path calcPath(Node fromNode, Node toNode) {
+			if(pathCache != null) {
+				PathCache.Entry cached = pathCache.get(cacheKey, fromNode.getId(), toNode.getId(), Double.POSITIVE_INFINITY);
+				if(cached != null) {
+					return cached.getPath();
+				}
+			}
+
+			LeastCostPathCalculator.Path path = leastCostPathCalculator.get().calcLeastCostPath(fromNode, toNode, 0, null, null);
+
+			if(pathCache != null) {
+				pathCache.put(cacheKey, fromNode.getId(), toNode.getId(), path, Double.POSITIVE_INFINITY);
+			}
+			return path;
+		}
+
+		/**
+		 * Routes from the to-node of <tt>fromLinkCandidate</tt> to the from-nodes of all
+		 * <tt>toLinkCandidates</tt> on the given network.
+		 */
+		Map<LinkCandidate, LeastCostPathCalculator.Path> calcPaths(Network network, LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost) {
+			return calcPaths(nodeId -> network.getNodes().get(nodeId), fromLinkCandidate, toLinkCandidates, maxTravelCost);
+		}
+
+		/**
+		 * Routes from the to-node of <tt>fromLinkCandidate</tt> to the from-nodes of all
+		 * <tt>toLinkCandidates</tt> on the given routing graph.
+		 */
+		Map<LinkCandidate, LeastCostPathCalculator.Path> calcPaths(RoutingGraph graph, LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost) {
+			return calcPaths(graph::getNode, fromLinkCandidate, toLinkCandidates, maxTravelCost);
+		}
+
+		/**
+		 * Routes from the to-node of <tt>fromLinkCandidate</tt> to the from-nodes of all
+		 * <tt>toLinkCandidates</tt> on the given restricted routing graph.
+		 */
+		Map<LinkCandidate, LeastCostPathCalculator.Path> calcPaths(RoutingGraph.RestrictedGraph graph, LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost) {
+			return calcPaths(graph::getNode, fromLinkCandidate, toLinkCandidates, maxTravelCost);
+		}
+
+		private Map<LinkCandidate, LeastCostPathCalculator.Path> calcPaths(Function<Id<Node>, Node> nodes, LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost) {
+			Map<LinkCandidate, LeastCostPathCalculator.Path> paths = new HashMap<>();
+
+			Node fromNode = nodes.apply(fromLinkCandidate.getLink().getToNode().getId());
+			if(fromNode == null) return paths;
+
+			Map<Node, List<LinkCandidate>> toNodes = new HashMap<>();
+			for(LinkCandidate toLinkCandidate : toLinkCandidates) {
+				Node toNode = nodes.apply(toLinkCandidate.getLink().getFromNode().getId());
+				if(toNode != null) {
+					toNodes.computeIfAbsent(toNode, k -> new ArrayList<>()).add(toLinkCandidate);
+				}
+			}
+
+			// look up cached paths, only search the remaining nodes
+			Map<Node, LeastCostPathCalculator.Path> nodePaths = new HashMap<>();
+			Set<Node> nodesToSearch = new HashSet<>();
+			for(Node toNode : toNodes.keySet()) {
+				PathCache.Entry cached = pathCache == null ? null : pathCache.get(cacheKey, fromNode.getId(), toNode.getId(), maxTravelCost);
+				if(cached == null) {
+					nodesToSearch.add(toNode);
+				} else if(cached.getPath() != null) {
+					nodePaths.put(toNode, cached.getPath());
+				}
+			}
+
+			if(nodesToSearch.size() > 0) {
+				Map<Node, LeastCostPathCalculator.Path> searchedPaths = oneToManyPathCalculator.calcLeastCostPaths(fromNode, nodesToSearch, maxTravelCost);
+				nodePaths.putAll(searchedPaths);
+				if(pathCache != null) {
+					for(Node toNode : nodesToSearch) {
+						pathCache.put(cacheKey, fromNode.getId(), toNode.getId(), searchedPaths.get(toNode), maxTravelCost);
+					}
+				}
+			}
+
+			for(Map.Entry<Node, LeastCostPathCalculator.Path> e : nodePaths.entrySet()) {
+				for(LinkCandidate toLinkCandidate : toNodes.get(e.getKey())) {
+					paths.put(toLinkCandidate, e.getValue());
+				}
+			}
+			return paths;
 		}
 
 	}
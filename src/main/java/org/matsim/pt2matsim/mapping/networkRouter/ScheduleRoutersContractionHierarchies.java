@@ -0,0 +1,170 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
+import org.matsim.pt2matsim.tools.CacheTools;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.PTMapperTools;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates a {@link ContractionHierarchy} for each transportMode of a schedule. Uses the same
+ * mode filtered networks and travel costs as {@link ScheduleRoutersStandard}, point-to-point
+ * queries and the candidate queries are answered by the contraction hierarchy.
+ * <p>
+ * Preprocessing takes longer than the landmarks of the standard routers but pays off
+ * for large networks with many transit routes (e.g. rail and bus on country-scale networks).
+ */
+public class ScheduleRoutersContractionHierarchies extends AbstractModeScheduleRouters {
+
+	protected static Logger log = Logger.getLogger(ScheduleRoutersContractionHierarchies.class);
+
+	// path calculators
+	private final Map<String, PathCalculator> pathCalculatorsByMode = new HashMap<>();
+	private final Map<String, Network> networksByMode;
+
+	/**
+	 * The mode networks and contraction hierarchies are shared between all instances
+	 * created by the same {@link Factory}.
+	 */
+	private ScheduleRoutersContractionHierarchies(Map<String, Network> networksByMode, Map<String, Double> minCostPerDistanceByMode, Map<String, ContractionHierarchy> hierarchiesByMode, PathCache pathCache, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance) {
+		super(minCostPerDistanceByMode, costType, routingWithCandidateDistance);
+		this.networksByMode = networksByMode;
+
+		for(Map.Entry<String, ContractionHierarchy> e : hierarchiesByMode.entrySet()) {
+			ContractionHierarchy ch = e.getValue();
+			pathCalculatorsByMode.put(e.getKey(), new PathCalculator(() -> ch, ch, pathCache, e.getKey()));
+		}
+	}
+
+	@Override
+	public LeastCostPathCalculator.Path calcLeastCostPath(Id<Node> fromNodeId, Id<Node> toNodeId, TransitLine transitLine, TransitRoute transitRoute) {
+		Network n = networksByMode.get(transitRoute.getTransportMode());
+		if(n == null) return null;
+
+		Node fromNode = n.getNodes().get(fromNodeId);
+		Node toNode = n.getNodes().get(toNodeId);
+		if(fromNode == null || toNode == null) return null;
+
+		return pathCalculatorsByMode.get(transitRoute.getTransportMode()).calcPath(fromNode, toNode);
+	}
+
+	@Override
+	public Map<LinkCandidate, LeastCostPathCalculator.Path> calcLeastCostPaths(LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost, TransitLine transitLine, TransitRoute transitRoute) {
+		Network n = networksByMode.get(transitRoute.getTransportMode());
+		if(n == null) return Collections.emptyMap();
+
+		return pathCalculatorsByMode.get(transitRoute.getTransportMode()).calcPaths(n, fromLinkCandidate, toLinkCandidates, maxTravelCost);
+	}
+
+	/**
+	 * Factory for a ScheduleRoutersContractionHierarchies instance. The mode filtered
+	 * networks and their contraction hierarchies are created once and shared by all
+	 * instances (i.e. all mapping threads).
+	 */
+	public static class Factory implements ScheduleRoutersFactory {
+		private final TransitSchedule schedule;
+		private final Network network;
+		private final Map<String, Set<String>> transportModeAssignment;
+		private final PublicTransitMappingConfigGroup.TravelCostType costType;
+		private final boolean routingWithCandidateDistance;
+		private final String cacheDirectory;
+
+		// shared, read-only after load()
+		private Map<String, Network> networksByMode = null;
+		private Map<String, Double> minCostPerDistanceByMode = null;
+		private Map<String, ContractionHierarchy> hierarchiesByMode = null;
+		private final PathCache pathCache = new PathCache();
+		private File pathCacheFile = null;
+
+		public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance) {
+			this(schedule, network, transportModeAssignment, costType, routingWithCandidateDistance, null);
+		}
+
+		/**
+		 * @param cacheDirectory paths are loaded from and written to a cache file in this directory,
+		 *                       no paths are cached on disk if <tt>null</tt>
+		 */
+		public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance, String cacheDirectory) {
+			this.schedule = schedule;
+			this.network = network;
+			this.transportModeAssignment = transportModeAssignment;
+			this.costType = costType;
+			this.routingWithCandidateDistance = routingWithCandidateDistance;
+			this.cacheDirectory = cacheDirectory;
+		}
+
+		public Factory(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config) {
+			this(schedule, network, config.getTransportModeAssignment(), config.getTravelCostType(), config.getRoutingWithCandidateDistance(), config.getCacheDirectory());
+		}
+
+		/**
+		 * Creates the mode filtered networks and contraction hierarchies for all schedule modes.
+		 * Networks are only loaded when the first instance is created, i.e. after the link
+		 * candidates (and possibly loop links) have been added to the network.
+		 */
+		private synchronized void load() {
+			if(networksByMode != null) {
+				return;
+			}
+			log.info("==============================================");
+			log.info("Creating contraction hierarchies for transit routes...");
+			LocalRouter r = new LocalRouter(costType);
+			Map<String, Network> networks = new HashMap<>();
+			Map<String, ContractionHierarchy> hierarchies = new HashMap<>();
+			Map<String, Double> minCostPerDistance = new HashMap<>();
+			for(TransitLine transitLine : schedule.getTransitLines().values()) {
+				for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+					String scheduleMode = transitRoute.getTransportMode();
+					if(!networks.containsKey(scheduleMode)) {
+						log.info("New contraction hierarchy for schedule mode " + scheduleMode);
+						Set<String> networkTransportModes = transportModeAssignment.get(scheduleMode);
+						Network modeNetwork = NetworkTools.createFilteredNetworkByLinkMode(this.network, networkTransportModes);
+						networks.put(scheduleMode, modeNetwork);
+						minCostPerDistance.put(scheduleMode, PTMapperTools.calcMinTravelCostPerDistance(modeNetwork, costType));
+						hierarchies.put(scheduleMode, new ContractionHierarchy(modeNetwork, r, r));
+					}
+				}
+			}
+			if(cacheDirectory != null) {
+				pathCacheFile = pathCache.loadFromCacheDirectory(cacheDirectory, new CacheTools.Key().add(ScheduleRoutersContractionHierarchies.class.getName()).add(costType.name()).add(transportModeAssignment), networks);
+			}
+			this.hierarchiesByMode = Collections.unmodifiableMap(hierarchies);
+			this.minCostPerDistanceByMode = Collections.unmodifiableMap(minCostPerDistance);
+			this.networksByMode = Collections.unmodifiableMap(networks);
+		}
+
+		@Override
+		public ScheduleRouters createInstance() {
+			load();
+			return new ScheduleRoutersContractionHierarchies(networksByMode, minCostPerDistanceByMode, hierarchiesByMode, pathCache, costType, routingWithCandidateDistance);
+		}
+
+		@Override
+		public void printStatistics() {
+			pathCache.printStatistics();
+		}
+
+		@Override
+		public void routingFinished() {
+			if(pathCacheFile != null) {
+				pathCache.writeToCacheFile(pathCacheFile);
+			}
+		}
+
+	}
+}
@@ -2,4 +2,16 @@ package org.matsim.pt2matsim.mapping.networkRouter;
 
 public interface ScheduleRoutersFactory {
 	ScheduleRouters createInstance();
+
+	/**
+	 * Logs statistics of the created routers (e.g. path cache usage), called after mapping.
+	 */
+	default void printStatistics() {
+	}
+
+	/**
+	 * Called once all transit routes have been routed (e.g. to write cached paths to a file).
+	 */
+	default void routingFinished() {
+	}
 }
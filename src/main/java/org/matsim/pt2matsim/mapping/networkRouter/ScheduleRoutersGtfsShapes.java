@@ -6,10 +6,10 @@ import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.router.FastAStarEuclideanFactory;
 import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.utils.collections.MapUtils;
 import org.matsim.core.utils.misc.Counter;
 import org.matsim.pt.transitSchedule.api.TransitLine;
@@ -22,17 +22,26 @@ import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
 import org.matsim.pt2matsim.tools.NetworkTools;
 import org.matsim.pt2matsim.tools.PTMapperTools;
 import org.matsim.pt2matsim.tools.ScheduleTools;
+import org.matsim.pt2matsim.tools.ShapeDistanceIndex;
 import org.matsim.pt2matsim.tools.ShapeTools;
 import org.matsim.vehicles.Vehicle;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Creates a Router for each shape (given by gtfs). Multiple transit routes
  * might use the same shape.
+ * <p/>
+ * The routers search a {@link NetworkView} of the shape: all nodes of the mode filtered
+ * network within a buffer distance from the shape. The mode filtered network is compiled to
+ * one {@link RoutingGraph} per mode, each shape restricts this graph to the links of its view
+ * with the travel costs of the shape (see {@link RoutingGraph#restrict}). The routing graphs and
+ * the restricted graphs are created once by the {@link Factory} and shared by all instances.
  *
  * @author polettif
  */
@@ -50,25 +59,38 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 	// path calculators
 	private final Map<Id<RouteShape>, PathCalculator> pathCalculatorsByShape = new HashMap<>();
 	private final Map<Id<RouteShape>, ShapeRouter> shapeRoutersByShape = new HashMap<>();
-	private final Map<Id<RouteShape>, Network> networksByShape = new HashMap<>();
+	private final Map<Id<RouteShape>, RoutingGraph.RestrictedGraph> graphsByShape;
+	private final Map<String, RoutingGraph> graphsByMode;
 	// shape fields
 	private final Map<Id<RouteShape>, RouteShape> shapes;
+	private final Map<Id<RouteShape>, ShapeDistanceIndex> shapeIndices;
 	private final double maxWeightDistance;
 	private final double cutBuffer;
 	private final Map<TransitLine, Map<TransitRoute, PathCalculator>> pathCalculators = new HashMap<>();
 	private final Map<TransitLine, Map<TransitRoute, Boolean>> mapArtificial = new HashMap<>();
-	private final Map<TransitLine, Map<TransitRoute, Network>> networks = new HashMap<>();
+	private final Map<TransitLine, Map<TransitRoute, RoutingGraph.RestrictedGraph>> graphs = new HashMap<>();
 	private final Map<TransitLine, Map<TransitRoute, ShapeRouter>> shapeRouters = new HashMap<>();
+	private final PathCache pathCache;
 
 
-	private ScheduleRoutersGtfsShapes(TransitSchedule schedule, Network network, Map<Id<RouteShape>, RouteShape> shapes, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double maxWeightDistance, double cutBuffer) {
+	/**
+	 * @param shapeIndices     distance indices by shape, shared between instances. Missing indices are created.
+	 * @param graphsByShape    restricted graphs by shape, shared between instances. Missing graphs are created.
+	 * @param graphsByMode     routing graphs of the mode filtered networks by schedule mode, shared
+	 *                         between instances. Missing graphs are created.
+	 */
+	private ScheduleRoutersGtfsShapes(TransitSchedule schedule, Network network, Map<Id<RouteShape>, RouteShape> shapes, Map<Id<RouteShape>, ShapeDistanceIndex> shapeIndices, Map<Id<RouteShape>, RoutingGraph.RestrictedGraph> graphsByShape, Map<String, RoutingGraph> graphsByMode, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double maxWeightDistance, double cutBuffer, PathCache pathCache) {
 		this.schedule = schedule;
 		this.network = network;
 		this.transportModeAssignment = transportModeAssignment;
 		this.travelCostType = travelCostType;
 		this.shapes = shapes;
+		this.shapeIndices = shapeIndices;
+		this.graphsByShape = graphsByShape;
+		this.graphsByMode = graphsByMode;
 		this.maxWeightDistance = maxWeightDistance;
 		this.cutBuffer = cutBuffer;
+		this.pathCache = pathCache;
 
 		load();
 	}
@@ -87,7 +109,6 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 				RouteShape shape = shapes.get(shapeId);
 
 				PathCalculator pathCalculator;
-				Network cutNetwork;
 
 				if(shape == null) {
 					MapUtils.getMap(transitLine, mapArtificial).put(transitRoute, true);
@@ -97,28 +118,41 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 					MapUtils.getMap(transitLine, mapArtificial).put(transitRoute, false);
 					pathCalculator = pathCalculatorsByShape.get(shapeId);
 					if(pathCalculator == null) {
-						Set<String> networkTransportModes = transportModeAssignment.get(transitRoute.getTransportMode());
-
-						// todo this setup could be improved (i.e. don't recreate/filter networks all over again)
-						cutNetwork = NetworkTools.createFilteredNetworkByLinkMode(network, networkTransportModes);
-						Collection<Node> nodesWithinBuffer = ShapeTools.getNodesWithinBuffer(cutNetwork, shape, cutBuffer);
-						NetworkTools.cutNetwork(cutNetwork, nodesWithinBuffer);
-
-						ShapeRouter r = new ShapeRouter(shape);
-						pathCalculator = new PathCalculator(new FastAStarEuclideanFactory().createPathCalculator(cutNetwork, r, r));
+						String scheduleMode = transitRoute.getTransportMode();
+						ShapeRouter r = new ShapeRouter(shapeIndices.computeIfAbsent(shapeId, k -> new ShapeDistanceIndex(shape)));
+						RoutingGraph.RestrictedGraph graph = graphsByShape.computeIfAbsent(shapeId, k -> createShapeGraph(scheduleMode, shape, r));
+						pathCalculator = new PathCalculator(graph::createPathCalculator, graph, pathCache, shapeId.toString());
 
 						pathCalculatorsByShape.put(shapeId, pathCalculator);
-						networksByShape.put(shapeId, cutNetwork);
 						shapeRoutersByShape.put(shapeId, r);
 					}
 				}
-				MapUtils.getMap(transitLine, networks).put(transitRoute, networksByShape.get(shapeId));
+				MapUtils.getMap(transitLine, graphs).put(transitRoute, graphsByShape.get(shapeId));
 				MapUtils.getMap(transitLine, pathCalculators).put(transitRoute, pathCalculatorsByShape.get(shapeId));
 				MapUtils.getMap(transitLine, shapeRouters).put(transitRoute, shapeRoutersByShape.get(shapeId));
 			}
 		}
 	}
 
+	/**
+	 * @return the routing graph of the mode filtered network, restricted to all nodes within
+	 * cutBuffer of the shape and with the travel costs of the shape router
+	 */
+	private RoutingGraph.RestrictedGraph createShapeGraph(String scheduleMode, RouteShape shape, ShapeRouter shapeRouter) {
+		RoutingGraph modeGraph = graphsByMode.computeIfAbsent(scheduleMode, m -> {
+			Network modeNetwork = NetworkTools.createFilteredNetworkByLinkMode(network, transportModeAssignment.get(m));
+			if(modeNetwork.getNodes().size() > 0) {
+				// build the spatial index of the network before it is queried by multiple threads
+				NetworkUtils.getNearestNode(modeNetwork, modeNetwork.getNodes().values().iterator().next().getCoord());
+			}
+			// travel costs without shape, only the travel times are used by the restricted graphs
+			ShapeRouter r = new ShapeRouter(null);
+			return new RoutingGraph(new NetworkView.BaseGraph(modeNetwork), r, r);
+		});
+		NetworkView.BaseGraph base = modeGraph.getBase();
+		return modeGraph.restrict(new NetworkView(base, ShapeTools.getNodesWithinBuffer(base.getNetwork(), shape, cutBuffer)), shapeRouter);
+	}
+
 	@Override
 	public LeastCostPathCalculator.Path calcLeastCostPath(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate, TransitLine transitLine, TransitRoute transitRoute) {
 		return this.calcLeastCostPath(fromLinkCandidate.getLink().getToNode().getId(), toLinkCandidate.getLink().getFromNode().getId(), transitLine, transitRoute);
@@ -126,16 +160,24 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 
 	@Override
 	public LeastCostPathCalculator.Path calcLeastCostPath(Id<Node> fromNodeId, Id<Node> toNodeId, TransitLine transitLine, TransitRoute transitRoute) {
-		Network n = networks.get(transitLine).get(transitRoute);
-		if(n == null) return null;
+		RoutingGraph.RestrictedGraph graph = graphs.get(transitLine).get(transitRoute);
+		if(graph == null) return null;
 
-		Node fromNode = n.getNodes().get(fromNodeId);
-		Node toNode = n.getNodes().get(toNodeId);
+		Node fromNode = graph.getNode(fromNodeId);
+		Node toNode = graph.getNode(toNodeId);
 		if(fromNode == null || toNode == null) return null;
 
 		return pathCalculators.get(transitLine).get(transitRoute).calcPath(fromNode, toNode);
 	}
 
+	@Override
+	public Map<LinkCandidate, LeastCostPathCalculator.Path> calcLeastCostPaths(LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost, TransitLine transitLine, TransitRoute transitRoute) {
+		RoutingGraph.RestrictedGraph graph = graphs.get(transitLine).get(transitRoute);
+		if(graph == null) return Collections.emptyMap();
+
+		return pathCalculators.get(transitLine).get(transitRoute).calcPaths(graph, fromLinkCandidate, toLinkCandidates, maxTravelCost);
+	}
+
 	@Override
 	public double getMinimalTravelCost(TransitRouteStop fromTransitRouteStop, TransitRouteStop toTransitRouteStop, TransitLine transitLine, TransitRoute transitRoute) {
 		return PTMapperTools.calcMinTravelCost(fromTransitRouteStop, toTransitRouteStop, travelCostType);
@@ -146,15 +188,21 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 		return shapeRouters.get(candidate.getStop().getTransitLine()).get(candidate.getStop().getTransitRoute()).calcLinkTravelCost(candidate.getLink());
 	}
 
+	@Override
+	public String getRoutingKey(TransitLine transitLine, TransitRoute transitRoute) {
+		return String.valueOf(ScheduleTools.getShapeId(transitRoute));
+	}
+
 	/**
-	 * Class is sent to path calculator factory
+	 * Travel costs used to restrict the routing graphs to a shape, without shape index
+	 * the travel costs of the mode routing graphs
 	 */
 	private class ShapeRouter implements TravelDisutility, TravelTime {
 
-		private final RouteShape shape;
+		private final ShapeDistanceIndex shapeIndex;
 
-		ShapeRouter(RouteShape shape) {
-			this.shape = shape;
+		ShapeRouter(ShapeDistanceIndex shapeIndex) {
+			this.shapeIndex = shapeIndex;
 		}
 
 		/**
@@ -163,8 +211,8 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 		private double calcLinkTravelCost(Link link) {
 			double travelCost = PTMapperTools.calcTravelCost(link, travelCostType);
 
-			if(shape != null) {
-				double dist = ShapeTools.calcMinDistanceToShape(link, shape);
+			if(shapeIndex != null) {
+				double dist = shapeIndex.calcMinDistance(link);
 				double factor = dist / maxWeightDistance + 0.1;
 				if(factor > 1) factor = 3;
 				travelCost *= factor;
@@ -196,6 +244,10 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 		final private PublicTransitMappingConfigGroup.TravelCostType travelCostType;
 		final private double maxWeightDistance;
 		final private double cutBuffer;
+		final private PathCache pathCache = new PathCache();
+		final private Map<Id<RouteShape>, ShapeDistanceIndex> shapeIndices = new ConcurrentHashMap<>();
+		final private Map<Id<RouteShape>, RoutingGraph.RestrictedGraph> graphsByShape = new ConcurrentHashMap<>();
+		final private Map<String, RoutingGraph> graphsByMode = new ConcurrentHashMap<>();
 		
 		public Factory(TransitSchedule schedule, Network network, Map<Id<RouteShape>, RouteShape> shapes, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double maxWeightDistance, double cutBuffer) {
 			this.schedule = schedule;
@@ -209,7 +261,12 @@ public class ScheduleRoutersGtfsShapes implements ScheduleRouters {
 
 		@Override
 		public ScheduleRouters createInstance() {
-			return new ScheduleRoutersGtfsShapes(schedule, network, shapes, transportModeAssignment, travelCostType, maxWeightDistance, cutBuffer);
+			return new ScheduleRoutersGtfsShapes(schedule, network, shapes, shapeIndices, graphsByShape, graphsByMode, transportModeAssignment, travelCostType, maxWeightDistance, cutBuffer, pathCache);
+		}
+
+		@Override
+		public void printStatistics() {
+			pathCache.printStatistics();
 		}
 		
 	}
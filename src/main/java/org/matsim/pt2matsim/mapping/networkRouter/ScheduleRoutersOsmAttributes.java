@@ -24,9 +24,7 @@ import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.router.FastAStarLandmarksFactory;
 import org.matsim.core.router.util.LeastCostPathCalculator;
-import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.utils.collections.CollectionUtils;
@@ -37,14 +35,20 @@ import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt2matsim.config.OsmConverterConfigGroup;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
+import org.matsim.pt2matsim.tools.CacheTools;
 import org.matsim.pt2matsim.tools.NetworkTools;
 import org.matsim.pt2matsim.tools.PTMapperTools;
 import org.matsim.utils.objectattributes.attributable.Attributes;
 import org.matsim.vehicles.Vehicle;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author polettif
@@ -53,6 +57,8 @@ public class ScheduleRoutersOsmAttributes implements ScheduleRouters {
 
 
     protected static Logger log = Logger.getLogger(ScheduleRoutersGtfsShapes.class);
+
+    private static final int N_LANDMARKS = 16;
     /**
      * If a link has a route with the same transport mode as the transit route,
      * the link's travel cost is multiplied by this factor.
@@ -67,29 +73,43 @@ public class ScheduleRoutersOsmAttributes implements ScheduleRouters {
 
     // path calculators
     private final Map<String, PathCalculator> pathCalculatorsByMode = new HashMap<>();
-    private final Map<String, Network> networksByMode = new HashMap<>();
-    private final Map<String, OsmRouter> osmRouters = new HashMap<>();
+    private final Map<String, RoutingGraph> graphsByMode;
     private final int nThreads;
+    private final PathCache pathCache;
+    private final String cacheDirectory;
 
     public ScheduleRoutersOsmAttributes(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor) {
-        this.transportModeAssignment = transportModeAssignment;
-        this.travelCostType = travelCostType;
-        this.schedule = schedule;
-        this.network = network;
-        this.osmPtLinkTravelCostFactor = osmPtLinkTravelCostFactor;
-        this.nThreads = 8;
-
-        load();
+        this(schedule, network, transportModeAssignment, travelCostType, osmPtLinkTravelCostFactor, Runtime.getRuntime().availableProcessors(), null);
     }
 
 
     public ScheduleRoutersOsmAttributes(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor, int nThreads) {
+        this(schedule, network, transportModeAssignment, travelCostType, osmPtLinkTravelCostFactor, nThreads, null);
+    }
+
+    /**
+     * @param pathCache shared cache for paths between nodes, can be <tt>null</tt>
+     */
+    public ScheduleRoutersOsmAttributes(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor, int nThreads, PathCache pathCache) {
+        this(schedule, network, transportModeAssignment, travelCostType, osmPtLinkTravelCostFactor, nThreads, pathCache, null, new HashMap<>());
+    }
+
+    /**
+     * @param nThreads       number of threads used to create the landmarks
+     * @param cacheDirectory landmarks are loaded from and written to cache files in this directory,
+     *                       nothing is cached on disk if <tt>null</tt>
+     * @param graphsByMode   routing graphs by schedule mode, shared between instances. Missing graphs are created.
+     */
+    private ScheduleRoutersOsmAttributes(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor, int nThreads, PathCache pathCache, String cacheDirectory, Map<String, RoutingGraph> graphsByMode) {
         this.transportModeAssignment = transportModeAssignment;
         this.travelCostType = travelCostType;
         this.schedule = schedule;
         this.network = network;
         this.osmPtLinkTravelCostFactor = osmPtLinkTravelCostFactor;
         this.nThreads = nThreads;
+        this.pathCache = pathCache;
+        this.cacheDirectory = cacheDirectory;
+        this.graphsByMode = graphsByMode;
 
         load();
     }
@@ -99,24 +119,28 @@ public class ScheduleRoutersOsmAttributes implements ScheduleRouters {
      */
     private void load() {
         log.info("Initiating network and router for transit routes...");
-        LeastCostPathCalculatorFactory factory = new FastAStarLandmarksFactory(nThreads);
         for (TransitLine transitLine : schedule.getTransitLines().values()) {
             for (TransitRoute transitRoute : transitLine.getRoutes().values()) {
                 String scheduleMode = transitRoute.getTransportMode();
                 PathCalculator tmpRouter = pathCalculatorsByMode.get(scheduleMode);
                 if (tmpRouter == null) {
-                    log.info("New router for schedule mode " + scheduleMode);
-                    Set<String> networkTransportModes = transportModeAssignment.get(scheduleMode);
-
-                    Network filteredNetwork = NetworkTools.createFilteredNetworkByLinkMode(this.network, networkTransportModes);
-
-                    OsmRouter r = new OsmRouter(scheduleMode);
-
-                    tmpRouter = new PathCalculator(factory.createPathCalculator(filteredNetwork, r, r));
+                    RoutingGraph graph = graphsByMode.computeIfAbsent(scheduleMode, m -> {
+                        log.info("New router for schedule mode " + m);
+                        Network modeNetwork = NetworkTools.createFilteredNetworkByLinkMode(network, transportModeAssignment.get(m));
+                        RoutingGraph modeGraph = createRoutingGraph(network, modeNetwork, m, travelCostType, osmPtLinkTravelCostFactor);
+                        if (cacheDirectory != null) {
+                            CacheTools.Key landmarksKey = new CacheTools.Key().add(ScheduleRoutersOsmAttributes.class.getName()).add(travelCostType.name()).add(N_LANDMARKS)
+                                    .add(m).add(osmPtLinkTravelCostFactor).add(getLinkIdsWithRoute(modeNetwork, m)).add(modeNetwork);
+                            modeGraph.loadOrCreateLandmarks(N_LANDMARKS, nThreads, CacheTools.getCacheFile(cacheDirectory, "landmarks", landmarksKey));
+                        } else {
+                            modeGraph.createLandmarks(N_LANDMARKS, nThreads);
+                        }
+                        return modeGraph;
+                    });
+
+                    tmpRouter = new PathCalculator(graph::createPathCalculator, graph, pathCache, scheduleMode);
 
                     pathCalculatorsByMode.put(scheduleMode, tmpRouter);
-                    networksByMode.put(scheduleMode, filteredNetwork);
-                    osmRouters.put(scheduleMode, r);
                 }
             }
         }
@@ -130,9 +154,11 @@ public class ScheduleRoutersOsmAttributes implements ScheduleRouters {
 
     @Override
     public LeastCostPathCalculator.Path calcLeastCostPath(Id<Node> fromNodeId, Id<Node> toNodeId, TransitLine transitLine, TransitRoute transitRoute) {
-        Network n = networksByMode.get(transitRoute.getTransportMode());
-        Node fromNode = n.getNodes().get(fromNodeId);
-        Node toNode = n.getNodes().get(toNodeId);
+        RoutingGraph graph = graphsByMode.get(transitRoute.getTransportMode());
+        if (graph == null) return null;
+
+        Node fromNode = graph.getNode(fromNodeId);
+        Node toNode = graph.getNode(toNodeId);
 
         if (fromNode != null && toNode != null) {
             return pathCalculatorsByMode.get(transitRoute.getTransportMode()).calcPath(fromNode, toNode);
@@ -141,38 +167,86 @@ public class ScheduleRoutersOsmAttributes implements ScheduleRouters {
         }
     }
 
+    @Override
+    public Map<LinkCandidate, LeastCostPathCalculator.Path> calcLeastCostPaths(LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost, TransitLine transitLine, TransitRoute transitRoute) {
+        RoutingGraph graph = graphsByMode.get(transitRoute.getTransportMode());
+        if (graph == null) return Collections.emptyMap();
+
+        return pathCalculatorsByMode.get(transitRoute.getTransportMode()).calcPaths(graph, fromLinkCandidate, toLinkCandidates, maxTravelCost);
+    }
+
     @Override
     public double getMinimalTravelCost(TransitRouteStop fromTransitRouteStop, TransitRouteStop toTransitRouteStop, TransitLine transitLine, TransitRoute transitRoute) {
         return PTMapperTools.calcMinTravelCost(fromTransitRouteStop, toTransitRouteStop, travelCostType);
     }
 
+    /**
+     * The travel cost of a candidate link is read from the compiled routing graph. Links that are
+     * not part of the graph (e.g. loop links) have no osm route attributes.
+     */
     @Override
     public double getLinkCandidateTravelCost(LinkCandidate candidate) {
-        return osmRouters.get(candidate.getStop().getTransitRoute().getTransportMode()).calcLinkTravelCost(candidate.getLink());
+        RoutingGraph graph = graphsByMode.get(candidate.getStop().getTransitRoute().getTransportMode());
+        double travelCost = graph != null ? graph.getLinkTravelCost(candidate.getLink()) : Double.NaN;
+        return Double.isNaN(travelCost) ? PTMapperTools.calcTravelCost(candidate.getLink(), travelCostType) : travelCost;
     }
 
     /**
-     * Class is sent to path calculator factory
+     * Compiles the routing graph of a schedule mode. The osm route attributes of each link (taken
+     * from <tt>network</tt>, filtered links have no attributes) are decoded once while the graph is created, the travel cost of links with a route of the schedule
+     * mode is multiplied by <tt>osmPtLinkTravelCostFactor</tt>.
      */
-    private class OsmRouter implements TravelDisutility, TravelTime {
+    static RoutingGraph createRoutingGraph(Network network, String scheduleMode, Set<String> networkModes, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor) {
+        return createRoutingGraph(network, NetworkTools.createFilteredNetworkByLinkMode(network, networkModes), scheduleMode, travelCostType, osmPtLinkTravelCostFactor);
+    }
+
+    private static RoutingGraph createRoutingGraph(Network network, Network filteredNetwork, String scheduleMode, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor) {
+        OsmRouter r = new OsmRouter(network, scheduleMode, travelCostType, osmPtLinkTravelCostFactor);
+        return new RoutingGraph(filteredNetwork, r, r);
+    }
 
+    /**
+     * @return the ids of the links of the filtered network that have a route of the schedule mode in
+     * <tt>network</tt>, used to identify cached landmarks (link attributes are not part of the network key)
+     */
+    private List<String> getLinkIdsWithRoute(Network filteredNetwork, String scheduleMode) {
+        List<String> linkIds = new ArrayList<>();
+        for (Link link : filteredNetwork.getLinks().values()) {
+            if (hasRoute(network.getLinks().get(link.getId()).getAttributes(), scheduleMode)) {
+                linkIds.add(link.getId().toString());
+            }
+        }
+        return linkIds;
+    }
+
+    static boolean hasRoute(Attributes attributes, String scheduleMode) {
+        Set<String> routeMaster = CollectionUtils.stringToSet((String) attributes.getAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE_MASTER));
+        Set<String> route = CollectionUtils.stringToSet((String) attributes.getAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE));
+        return route.contains(scheduleMode) || routeMaster.contains(scheduleMode);
+    }
+
+    /**
+     * Travel costs used to compile the routing graphs
+     */
+    private static class OsmRouter implements TravelDisutility, TravelTime {
+
+        private final Network network;
         private final String scheduleMode;
+        private final PublicTransitMappingConfigGroup.TravelCostType travelCostType;
+        private final double osmPtLinkTravelCostFactor;
 
-        public OsmRouter(String scheduleMode) {
+        public OsmRouter(Network network, String scheduleMode, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor) {
+            this.network = network;
             this.scheduleMode = scheduleMode;
+            this.travelCostType = travelCostType;
+            this.osmPtLinkTravelCostFactor = osmPtLinkTravelCostFactor;
         }
 
         private double calcLinkTravelCost(Link link) {
             double travelCost = PTMapperTools.calcTravelCost(link, travelCostType);
-
-            Attributes attributes = network.getLinks().get(link.getId()).getAttributes();
-            Set<String> routeMaster = CollectionUtils.stringToSet((String) attributes.getAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE_MASTER));
-            Set<String> route = CollectionUtils.stringToSet((String) attributes.getAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE));
-
-            if (route.contains(scheduleMode) || routeMaster.contains(scheduleMode)) {
+            if (hasRoute(network.getLinks().get(link.getId()).getAttributes(), scheduleMode)) {
                 travelCost *= osmPtLinkTravelCostFactor;
             }
-
             return travelCost;
         }
 
@@ -198,18 +272,42 @@ public class ScheduleRoutersOsmAttributes implements ScheduleRouters {
     	final private Map<String, Set<String>> transportModeAssignment;
     	final private PublicTransitMappingConfigGroup.TravelCostType travelCostType;
     	final private double osmPtLinkTravelCostFactor;
+    	final private int nThreads;
+    	final private String cacheDirectory;
+    	final private PathCache pathCache = new PathCache();
+    	final private Map<String, RoutingGraph> graphsByMode = new ConcurrentHashMap<>();
     	
     	public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor) {
-    		this.schedule = schedule;
-    		this.network = network;
-    		this.transportModeAssignment = transportModeAssignment;
-    		this.travelCostType = travelCostType;
-    		this.osmPtLinkTravelCostFactor = osmPtLinkTravelCostFactor;
+    		this(schedule, network, transportModeAssignment, travelCostType, osmPtLinkTravelCostFactor, Runtime.getRuntime().availableProcessors(), null);
     	}
 
+		/**
+		 * @param nThreads       number of threads used to create the landmarks
+		 * @param cacheDirectory landmarks are loaded from and written to cache files in this directory,
+		 *                       nothing is cached on disk if <tt>null</tt>
+		 */
+		public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType travelCostType, double osmPtLinkTravelCostFactor, int nThreads, String cacheDirectory) {
+			this.schedule = schedule;
+			this.network = network;
+			this.transportModeAssignment = transportModeAssignment;
+			this.travelCostType = travelCostType;
+			this.osmPtLinkTravelCostFactor = osmPtLinkTravelCostFactor;
+			this.nThreads = nThreads;
+			this.cacheDirectory = cacheDirectory;
+		}
+
+		public Factory(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config, double osmPtLinkTravelCostFactor) {
+			this(schedule, network, config.getTransportModeAssignment(), config.getTravelCostType(), osmPtLinkTravelCostFactor, config.getNumOfThreads(), config.getCacheDirectory());
+		}
+
 		@Override
 		public ScheduleRouters createInstance() {
-			return new ScheduleRoutersOsmAttributes(schedule, network, transportModeAssignment, travelCostType, osmPtLinkTravelCostFactor);
+			return new ScheduleRoutersOsmAttributes(schedule, network, transportModeAssignment, travelCostType, osmPtLinkTravelCostFactor, nThreads, pathCache, cacheDirectory, graphsByMode);
+		}
+
+		@Override
+		public void printStatistics() {
+			pathCache.printStatistics();
 		}
     }
 }
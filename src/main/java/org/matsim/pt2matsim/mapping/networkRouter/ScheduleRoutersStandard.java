@@ -2,163 +2,92 @@ package org.matsim.pt2matsim.mapping.networkRouter;
 
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
-import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.router.FastAStarLandmarksFactory;
 import org.matsim.core.router.util.LeastCostPathCalculator;
-import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
-import org.matsim.core.router.util.TravelDisutility;
-import org.matsim.core.router.util.TravelTime;
-import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
-import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
+import org.matsim.pt2matsim.tools.CacheTools;
 import org.matsim.pt2matsim.tools.NetworkTools;
 import org.matsim.pt2matsim.tools.PTMapperTools;
-import org.matsim.vehicles.Vehicle;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * Creates a Router for each transportMode of a schedule.
+ * Creates a Router for each transportMode of a schedule. The mode filtered networks are
+ * compiled to {@link RoutingGraph}s with precalculated link travel costs and landmarks.
  * <p>
  * Default ScheduleRouters
  *
  * @author polettif
  */
-public class ScheduleRoutersStandard implements ScheduleRouters {
+public class ScheduleRoutersStandard extends AbstractModeScheduleRouters {
 
 	protected static Logger log = Logger.getLogger(ScheduleRoutersStandard.class);
 
-	// standard fields
-	private final TransitSchedule schedule;
-	private final Network network;
-	private final Map<String, Set<String>> transportModeAssignment;
-	private final PublicTransitMappingConfigGroup.TravelCostType travelCostType;
+	private static final int N_LANDMARKS = 16;
 
 	// path calculators
 	private final Map<String, PathCalculator> pathCalculatorsByMode = new HashMap<>();
-	private final Map<String, Network> networksByMode = new HashMap<>();
-	private final boolean considerCandidateDist;
-	private final int nThreads;
-
-	private ScheduleRoutersStandard(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance) {
-		this.schedule = schedule;
-		this.network = network;
-		this.transportModeAssignment = transportModeAssignment;
-		this.travelCostType = costType;
-		this.considerCandidateDist = routingWithCandidateDistance;
-		this.nThreads = 8;
+	private final Map<String, RoutingGraph> graphsByMode;
+	private final PathCache pathCache;
 
-		load();
-	}
-
-	private ScheduleRoutersStandard(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance, int nThreads) {
-		this.schedule = schedule;
-		this.network = network;
-		this.transportModeAssignment = transportModeAssignment;
-		this.travelCostType = costType;
-		this.considerCandidateDist = routingWithCandidateDistance;
-		this.nThreads = nThreads;
+	/**
+	 * The routing graphs are shared between all instances created by the same {@link Factory},
+	 * only the path calculators are created per instance.
+	 */
+	private ScheduleRoutersStandard(Map<String, RoutingGraph> graphsByMode, Map<String, Double> minCostPerDistanceByMode, PathCache pathCache, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance) {
+		super(minCostPerDistanceByMode, costType, routingWithCandidateDistance);
+		this.graphsByMode = graphsByMode;
+		this.pathCache = pathCache;
 
 		load();
 	}
 
 	/**
-	 * Load path calculators for all transit routes
+	 * Load path calculators for all schedule modes
 	 */
 	private void load() {
-		log.info("==============================================");
-		log.info("Creating network routers for transit routes...");
-		log.info("Initiating network and router for transit routes...");
-		LeastCostPathCalculatorFactory factory = new FastAStarLandmarksFactory(nThreads);
-		for(TransitLine transitLine : schedule.getTransitLines().values()) {
-			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
-				String scheduleMode = transitRoute.getTransportMode();
-				PathCalculator tmpRouter = pathCalculatorsByMode.get(scheduleMode);
-				if(tmpRouter == null) {
-					log.info("New router for schedule mode " + scheduleMode);
-					Set<String> networkTransportModes = transportModeAssignment.get(scheduleMode);
-
-					Network filteredNetwork = NetworkTools.createFilteredNetworkByLinkMode(this.network, networkTransportModes);
-
-					LocalRouter r = new LocalRouter();
-
-					tmpRouter = new PathCalculator(factory.createPathCalculator(filteredNetwork, r, r));
-
-					pathCalculatorsByMode.put(scheduleMode, tmpRouter);
-					networksByMode.put(scheduleMode, filteredNetwork);
-				}
-			}
+		for(Map.Entry<String, RoutingGraph> e : graphsByMode.entrySet()) {
+			RoutingGraph graph = e.getValue();
+			pathCalculatorsByMode.put(e.getKey(), new PathCalculator(graph::createPathCalculator, graph, pathCache, e.getKey()));
 		}
 	}
 
 
-	@Override
-	public LeastCostPathCalculator.Path calcLeastCostPath(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate, TransitLine transitLine, TransitRoute transitRoute) {
-		return this.calcLeastCostPath(fromLinkCandidate.getLink().getToNode().getId(), toLinkCandidate.getLink().getFromNode().getId(), transitLine, transitRoute);
-	}
-
 	@Override
 	public LeastCostPathCalculator.Path calcLeastCostPath(Id<Node> fromNodeId, Id<Node> toNodeId, TransitLine transitLine, TransitRoute transitRoute) {
-		Network n = networksByMode.get(transitRoute.getTransportMode());
-		if(n == null) return null;
+		RoutingGraph graph = graphsByMode.get(transitRoute.getTransportMode());
+		if(graph == null) return null;
 
-		Node fromNode = n.getNodes().get(fromNodeId);
-		Node toNode = n.getNodes().get(toNodeId);
+		Node fromNode = graph.getNode(fromNodeId);
+		Node toNode = graph.getNode(toNodeId);
 		if(fromNode == null || toNode == null) return null;
 
 		return pathCalculatorsByMode.get(transitRoute.getTransportMode()).calcPath(fromNode, toNode);
 	}
 
 	@Override
-	public double getMinimalTravelCost(TransitRouteStop fromTransitRouteStop, TransitRouteStop toTransitRouteStop, TransitLine transitLine, TransitRoute transitRoute) {
-		double minTC = PTMapperTools.calcMinTravelCost(fromTransitRouteStop, toTransitRouteStop, travelCostType);
-		if(minTC == 0)
-			minTC = CoordUtils.calcEuclideanDistance(fromTransitRouteStop.getStopFacility().getCoord(), toTransitRouteStop.getStopFacility().getCoord()) / 10;
-		return minTC;
-	}
-
-	@Override
-	public double getLinkCandidateTravelCost(LinkCandidate linkCandidateCurrent) {
-		double dist = 0;
-		if(considerCandidateDist) {
-			dist += (travelCostType.equals(PublicTransitMappingConfigGroup.TravelCostType.travelTime) ? linkCandidateCurrent.getStopFacilityDistance() / linkCandidateCurrent.getLink().getFreespeed() : linkCandidateCurrent.getStopFacilityDistance());
-			dist *= 2;
-		}
-		return dist + PTMapperTools.calcTravelCost(linkCandidateCurrent.getLink(), travelCostType);
-	}
-
-	/**
-	 * Class is sent to path calculator factory
-	 */
-	private class LocalRouter implements TravelDisutility, TravelTime {
-
-		@Override
-		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
-			return this.getLinkMinimumTravelDisutility(link);
-		}
-
-		@Override
-		public double getLinkMinimumTravelDisutility(Link link) {
-			return PTMapperTools.calcTravelCost(link, travelCostType);
-		}
+	public Map<LinkCandidate, LeastCostPathCalculator.Path> calcLeastCostPaths(LinkCandidate fromLinkCandidate, Collection<LinkCandidate> toLinkCandidates, double maxTravelCost, TransitLine transitLine, TransitRoute transitRoute) {
+		RoutingGraph graph = graphsByMode.get(transitRoute.getTransportMode());
+		if(graph == null) return Collections.emptyMap();
 
-		@Override
-		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
-			return link.getLength() / link.getFreespeed();
-		}
+		return pathCalculatorsByMode.get(transitRoute.getTransportMode()).calcPaths(graph, fromLinkCandidate, toLinkCandidates, maxTravelCost);
 	}
 
 	/**
-	 * Factory for a ScheduleRoutersStandard instance
+	 * Factory for a ScheduleRoutersStandard instance. The mode filtered networks and
+	 * their routing graphs are created once and shared by all instances (i.e. all
+	 * mapping threads). If a cache directory is set, the landmarks of the routing
+	 * graphs are stored in a cache file per mode network and reused by later runs.
 	 */
 	public static class Factory implements ScheduleRoutersFactory {
 		private final TransitSchedule schedule;
@@ -166,22 +95,102 @@ public class ScheduleRoutersStandard implements ScheduleRouters {
 		private final Map<String, Set<String>> transportModeAssignment;
 		private final PublicTransitMappingConfigGroup.TravelCostType costType;
 		private boolean routingWithCandidateDistance;
-		
+		private final int nThreads;
+		private final String cacheDirectory;
+
+		// shared, read-only after loadNetworks()
+		private Map<String, RoutingGraph> graphsByMode = null;
+		private Map<String, Double> minCostPerDistanceByMode = null;
+		private final PathCache pathCache = new PathCache();
+		private File pathCacheFile = null;
+
 		public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance) {
+			this(schedule, network, transportModeAssignment, costType, routingWithCandidateDistance, 8);
+		}
+
+		public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance, int nThreads) {
+			this(schedule, network, transportModeAssignment, costType, routingWithCandidateDistance, nThreads, null);
+		}
+
+		/**
+		 * @param nThreads       number of threads used to create the landmarks
+		 * @param cacheDirectory paths and landmarks are loaded from and written to cache files in
+		 *                       this directory, nothing is cached on disk if <tt>null</tt>
+		 */
+		public Factory(TransitSchedule schedule, Network network, Map<String, Set<String>> transportModeAssignment, PublicTransitMappingConfigGroup.TravelCostType costType, boolean routingWithCandidateDistance, int nThreads, String cacheDirectory) {
 			this.schedule = schedule;
 			this.network = network;
 			this.transportModeAssignment = transportModeAssignment;
 			this.costType = costType;
 			this.routingWithCandidateDistance = routingWithCandidateDistance;
+			this.nThreads = nThreads;
+			this.cacheDirectory = cacheDirectory;
 		}
-		
+
 		public Factory(TransitSchedule schedule, Network network, PublicTransitMappingConfigGroup config) {
-			this(schedule, network, config.getTransportModeAssignment(), config.getTravelCostType(), config.getRoutingWithCandidateDistance());
+			this(schedule, network, config.getTransportModeAssignment(), config.getTravelCostType(), config.getRoutingWithCandidateDistance(), config.getNumOfThreads(), config.getCacheDirectory());
+		}
+
+		/**
+		 * Creates the mode filtered networks and routing graphs for all schedule modes. Networks
+		 * are only loaded when the first instance is created, i.e. after the link candidates
+		 * (and possibly loop links) have been added to the network.
+		 */
+		private synchronized void loadNetworks() {
+			if(graphsByMode != null) {
+				return;
+			}
+			log.info("==============================================");
+			log.info("Creating network routers for transit routes...");
+			log.info("Initiating network and router for transit routes...");
+			LocalRouter r = new LocalRouter(costType);
+			Map<String, Network> networks = new HashMap<>();
+			Map<String, RoutingGraph> graphs = new HashMap<>();
+			Map<String, Double> minCostPerDistance = new HashMap<>();
+			for(TransitLine transitLine : schedule.getTransitLines().values()) {
+				for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+					String scheduleMode = transitRoute.getTransportMode();
+					if(!networks.containsKey(scheduleMode)) {
+						log.info("New router for schedule mode " + scheduleMode);
+						Set<String> networkTransportModes = transportModeAssignment.get(scheduleMode);
+						Network modeNetwork = NetworkTools.createFilteredNetworkByLinkMode(this.network, networkTransportModes);
+						networks.put(scheduleMode, modeNetwork);
+						RoutingGraph graph = new RoutingGraph(modeNetwork, r, r);
+						if(cacheDirectory != null) {
+							CacheTools.Key landmarksKey = new CacheTools.Key().add(ScheduleRoutersStandard.class.getName()).add(costType.name()).add(N_LANDMARKS).add(modeNetwork);
+							graph.loadOrCreateLandmarks(N_LANDMARKS, nThreads, CacheTools.getCacheFile(cacheDirectory, "landmarks", landmarksKey));
+						} else {
+							graph.createLandmarks(N_LANDMARKS, nThreads);
+						}
+						graphs.put(scheduleMode, graph);
+						minCostPerDistance.put(scheduleMode, PTMapperTools.calcMinTravelCostPerDistance(modeNetwork, costType));
+						log.info("   max freespeed " + NetworkTools.getMaxFreespeed(modeNetwork) + ", min travel cost per beeline distance " + minCostPerDistance.get(scheduleMode));
+					}
+				}
+			}
+			if(cacheDirectory != null) {
+				pathCacheFile = pathCache.loadFromCacheDirectory(cacheDirectory, new CacheTools.Key().add(ScheduleRoutersStandard.class.getName()).add(costType.name()).add(transportModeAssignment), networks);
+			}
+			this.minCostPerDistanceByMode = Collections.unmodifiableMap(minCostPerDistance);
+			this.graphsByMode = Collections.unmodifiableMap(graphs);
 		}
 
 		@Override
 		public ScheduleRouters createInstance() {
-			return new ScheduleRoutersStandard(schedule, network, transportModeAssignment, costType, routingWithCandidateDistance);
+			loadNetworks();
+			return new ScheduleRoutersStandard(graphsByMode, minCostPerDistanceByMode, pathCache, costType, routingWithCandidateDistance);
+		}
+
+		@Override
+		public void printStatistics() {
+			pathCache.printStatistics();
+		}
+
+		@Override
+		public void routingFinished() {
+			if(pathCacheFile != null) {
+				pathCache.writeToCacheFile(pathCacheFile);
+			}
 		}
 
 	}
@@ -36,7 +36,13 @@ import java.util.List;
  */
 public interface PseudoGraph {
 
-	void addEdge(int orderOfFirstStop, TransitRouteStop fromTransitRouteStop, LinkCandidate fromLinkCandidate, TransitRouteStop toTransitRouteStop, LinkCandidate toLinkCandidate, double pathTravelCost, List<Link> links);
+	/**
+	 * Adds an edge between two link candidates of subsequent stops. Only the travel cost is stored,
+	 * network paths and artificial links are only created for the least cost path.
+	 *
+	 * @param artificial <tt>true</tt> if there is no usable network path between the link candidates
+	 */
+	void addEdge(int orderOfFirstStop, TransitRouteStop fromTransitRouteStop, LinkCandidate fromLinkCandidate, TransitRouteStop toTransitRouteStop, LinkCandidate toLinkCandidate, double pathTravelCost, boolean artificial);
 
 	void addDummyEdges(List<TransitRouteStop> transitRouteStops, Collection<LinkCandidate> firstStopLinkCandidates, Collection<LinkCandidate> lastStopLinkCandidates);
 
@@ -45,4 +51,17 @@ public interface PseudoGraph {
 	List<Id<Link>> getNetworkLinkIds();
 
 	Collection<ArtificialLink> getArtificialNetworkLinks();
+
+	/**
+	 * Calculates the network path between the link candidates of two subsequent stops of the
+	 * least cost path (i.e. the path whose travel cost has been used for the edge).
+	 */
+	@FunctionalInterface
+	interface PathRouter {
+
+		/**
+		 * @return the links of the path, <tt>null</tt> if there is no path
+		 */
+		List<Link> calcPath(LinkCandidate fromLinkCandidate, LinkCandidate toLinkCandidate);
+	}
 }
@@ -36,38 +36,53 @@ public class PseudoGraphImpl implements PseudoGraph {
 	/*package*/ static final String SOURCE = "SOURCE";
 	/*package*/ static final String DESTINATION = "DESTINATION";
 	protected static Logger log = Logger.getLogger(PseudoGraphImpl.class);
-	private final Id<PseudoRouteStop> SOURCE_ID = Id.create(SOURCE, PseudoRouteStop.class);
 	private final PseudoRouteStop SOURCE_PSEUDO_STOP = new PseudoRouteStopImpl(SOURCE);
-	private final Id<PseudoRouteStop> DESTINATION_ID = Id.create(DESTINATION, PseudoRouteStop.class);
 	private final PseudoRouteStop DESTINATION_PSEUDO_STOP = new PseudoRouteStopImpl(DESTINATION);
 
-	private final Map<Id<PseudoRouteStop>, PseudoRouteStop> graph;
+	// PseudoRouteStops are equal if order and link candidate are equal, the graph stores one instance per stop
+	private final Map<PseudoRouteStop, PseudoRouteStop> graph;
+	// order in which the stops have been added to the graph, used to break ties
+	private final Map<PseudoRouteStop, Integer> insertionIndex = new HashMap<>();
 	private boolean dijkstraComplete = false;
 	private LinkedList<PseudoRouteStop> leastCostPath = null;
 	private List<Id<Link>> networkLinkIds = new ArrayList<>();
-	private Map<String, List<Link>> stopPairLinks = new HashMap<>();
+	// edges without a usable network path, the network paths of the other edges are routed again for the least cost path
+	private Map<PseudoRouteStop, Set<PseudoRouteStop>> artificialEdges = new HashMap<>();
 	private Collection<ArtificialLink> artificialNetworkLinks = new HashSet<>();
+	private final PathRouter pathRouter;
 
-	public PseudoGraphImpl() {
+	/**
+	 * @param pathRouter calculates the network paths of the least cost path
+	 */
+	public PseudoGraphImpl(PathRouter pathRouter) {
 		this.graph = new HashMap<>();
+		this.pathRouter = pathRouter;
 	}
 
 	/**
-	 * Runs dijkstra using a specified source vertex
+	 * Runs dijkstra using a specified source vertex. Artificial edges can have negative
+	 * weights, a stop is therefore queued again every time its travel cost decreases.
+	 * If two preceding stops lead to the same travel cost, the stop that was added to
+	 * the graph first is used (same as {@link PseudoGraphLayered}).
 	 */
 	private void runDijkstra() {
-		if(!graph.containsKey(SOURCE_ID)) {
-			System.err.printf("Graph doesn't contain dummy PseudoRouteStop \"%s\"\n", SOURCE_ID);
+		if(!graph.containsKey(SOURCE_PSEUDO_STOP)) {
+			System.err.printf("Graph doesn't contain dummy PseudoRouteStop \"%s\"\n", SOURCE_PSEUDO_STOP);
 			return;
 		}
 
-		NavigableSet<PseudoRouteStop> queue = new TreeSet<>();
+		PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
 
-		queue.add(graph.get(SOURCE_ID));
+		PseudoRouteStop source = graph.get(SOURCE_PSEUDO_STOP);
+		queue.add(new QueueEntry(source, source.getTravelCostToSource()));
 
 		PseudoRouteStop currentStop, neighbour;
 		while(!queue.isEmpty()) {
-			currentStop = queue.pollFirst(); // vertex with shortest distance (first iteration will return source)
+			QueueEntry entry = queue.poll(); // vertex with shortest distance (first iteration will return source)
+			currentStop = entry.stop;
+			if(entry.travelCost > currentStop.getTravelCostToSource()) {
+				continue; // a shorter path to this stop has been found since it was queued
+			}
 
 			//look at distances to each neighbour
 			for(Map.Entry<PseudoRouteStop, Double> n : currentStop.getNeighbours().entrySet()) {
@@ -75,10 +90,11 @@ public class PseudoGraphImpl implements PseudoGraph {
 
 				final double alternateDist = currentStop.getTravelCostToSource() + n.getValue();
 				if(alternateDist < neighbour.getTravelCostToSource()) { // shorter leastCostPath to neighbour found
-					queue.remove(neighbour);
 					neighbour.setTravelCostToSource(alternateDist);
 					neighbour.setClosestPrecedingRouteStop(currentStop);
-					queue.add(neighbour);
+					queue.add(new QueueEntry(neighbour, alternateDist));
+				} else if(alternateDist == neighbour.getTravelCostToSource() && neighbour.getClosestPrecedingRouteStop() != null && insertionIndex.get(currentStop) < insertionIndex.get(neighbour.getClosestPrecedingRouteStop())) {
+					neighbour.setClosestPrecedingRouteStop(currentStop);
 				}
 			}
 		}
@@ -87,11 +103,11 @@ public class PseudoGraphImpl implements PseudoGraph {
 		/*
 		  returns a leastCostPath from the source to the destination
 		 */
-		if(!graph.containsKey(DESTINATION_ID)) {
-			System.err.printf("Graph doesn't contain end PseudoRouteStop \"%s\"\n", DESTINATION_ID);
+		if(!graph.containsKey(DESTINATION_PSEUDO_STOP)) {
+			System.err.printf("Graph doesn't contain end PseudoRouteStop \"%s\"\n", DESTINATION_PSEUDO_STOP);
 		}
 
-		PseudoRouteStop step = graph.get(DESTINATION_ID);
+		PseudoRouteStop step = graph.get(DESTINATION_PSEUDO_STOP);
 		leastCostPath = new LinkedList<>();
 
 		// check if a leastCostPath exists
@@ -99,7 +115,7 @@ public class PseudoGraphImpl implements PseudoGraph {
 			leastCostPath = null;
 		}
 		leastCostPath.add(step);
-		while(!step.getId().equals(SOURCE_ID)) {
+		while(!step.equals(SOURCE_PSEUDO_STOP)) {
 			step = step.getClosestPrecedingRouteStop();
 			leastCostPath.add(step);
 		}
@@ -111,17 +127,22 @@ public class PseudoGraphImpl implements PseudoGraph {
 		leastCostPath.removeLast();
 
 		/*
-		  Fetch network links for least cost path
+		  Fetch network links for least cost path, artificial links are
+		  only created for the least cost path
 		 */
 		networkLinkIds.add(leastCostPath.get(0).getLinkId());
 		for(int i = 0; i < leastCostPath.size() - 1; i++) {
 			PseudoRouteStop stopA = leastCostPath.get(i);
 			PseudoRouteStop stopB = leastCostPath.get(i + 1);
 
-			for(Link l : stopPairLinks.get(getKey(stopA, stopB))) {
-				networkLinkIds.add(l.getId());
-				if(l instanceof ArtificialLink) {
-					artificialNetworkLinks.add((ArtificialLink) l);
+			List<Link> links = artificialEdges.getOrDefault(stopA, Collections.emptySet()).contains(stopB) ? null : pathRouter.calcPath(stopA.getLinkCandidate(), stopB.getLinkCandidate());
+			if(links == null) {
+				ArtificialLink artificialLink = new ArtificialLinkImpl(stopA.getLinkCandidate(), stopB.getLinkCandidate(), 1, CoordUtils.calcEuclideanDistance(stopA.getLinkCandidate().getFromCoord(), stopB.getLinkCandidate().getToCoord()));
+				networkLinkIds.add(artificialLink.getId());
+				artificialNetworkLinks.add(artificialLink);
+			} else {
+				for(Link l : links) {
+					networkLinkIds.add(l.getId());
 				}
 			}
 			networkLinkIds.add(stopB.getLinkId());
@@ -131,11 +152,11 @@ public class PseudoGraphImpl implements PseudoGraph {
 	@Override
 	public void addDummyEdges(List<TransitRouteStop> transitRouteStops, Collection<LinkCandidate> firstStopLinkCandidates, Collection<LinkCandidate> lastStopLinkCandidates) {
 		for(LinkCandidate lc : firstStopLinkCandidates) {
-			addEdge(SOURCE_PSEUDO_STOP, new PseudoRouteStopImpl(0, transitRouteStops.get(0), lc), 1.0, null, true);
+			addEdge(SOURCE_PSEUDO_STOP, new PseudoRouteStopImpl(0, transitRouteStops.get(0), lc), 1.0, false);
 		}
 		int last = transitRouteStops.size() - 1;
 		for(LinkCandidate lc : lastStopLinkCandidates) {
-			addEdge(new PseudoRouteStopImpl(last, transitRouteStops.get(last), lc), DESTINATION_PSEUDO_STOP, 1.0, null, true);
+			addEdge(new PseudoRouteStopImpl(last, transitRouteStops.get(last), lc), DESTINATION_PSEUDO_STOP, 1.0, false);
 		}
 	}
 
@@ -158,40 +179,39 @@ public class PseudoGraphImpl implements PseudoGraph {
 	}
 
 	@Override
-	public void addEdge(int orderOfFromStop, TransitRouteStop fromTransitRouteStop, LinkCandidate fromLinkCandidate, TransitRouteStop toTransitRouteStop, LinkCandidate toLinkCandidate, double pathTravelCost, List<Link> links) {
+	public void addEdge(int orderOfFromStop, TransitRouteStop fromTransitRouteStop, LinkCandidate fromLinkCandidate, TransitRouteStop toTransitRouteStop, LinkCandidate toLinkCandidate, double pathTravelCost, boolean artificial) {
 		PseudoRouteStop fromPseudoStop = new PseudoRouteStopImpl(orderOfFromStop, fromTransitRouteStop, fromLinkCandidate);
 		PseudoRouteStop toPseudoStop = new PseudoRouteStopImpl(orderOfFromStop+1, toTransitRouteStop, toLinkCandidate);
-		addEdge(fromPseudoStop, toPseudoStop, pathTravelCost, links, false);
+		addEdge(fromPseudoStop, toPseudoStop, pathTravelCost, artificial);
 	}
 
-	private void addEdge(PseudoRouteStop from, PseudoRouteStop to, double edgeWeight, List<Link> networkLinks, boolean dummy) {
-		if(!graph.containsKey(from.getId())) {
-			graph.put(from.getId(), from);
-		}
-		if(!graph.containsKey(to.getId())) {
-			graph.put(to.getId(), to);
-		}
-		graph.get(from.getId()).getNeighbours().put(graph.get(to.getId()), edgeWeight);
-
-		// store links
-		if(!dummy) {
-			List<Link> links = new ArrayList<>();
-			if(networkLinks == null) {
-				ArtificialLink artificialLink = new ArtificialLinkImpl(from.getLinkCandidate(), to.getLinkCandidate(), 1, CoordUtils.calcEuclideanDistance(from.getLinkCandidate().getFromCoord(), to.getLinkCandidate().getToCoord()));
-				links.add(artificialLink);
-			} else {
-				links.addAll(networkLinks);
-			}
-			stopPairLinks.put(getKey(from, to), links);
+	private void addEdge(PseudoRouteStop from, PseudoRouteStop to, double edgeWeight, boolean artificial) {
+		PseudoRouteStop graphFrom = graph.computeIfAbsent(from, k -> from);
+		PseudoRouteStop graphTo = graph.computeIfAbsent(to, k -> to);
+		insertionIndex.putIfAbsent(graphFrom, insertionIndex.size());
+		insertionIndex.putIfAbsent(graphTo, insertionIndex.size());
+		graphFrom.getNeighbours().put(graphTo, edgeWeight);
+
+		if(artificial) {
+			artificialEdges.computeIfAbsent(graphFrom, k -> new HashSet<>()).add(graphTo);
+		} else if(artificialEdges.containsKey(graphFrom)) {
+			artificialEdges.get(graphFrom).remove(graphTo);
 		}
 	}
 
-	/**
-	 * @return String key to store links between stops
-	 */
-	private String getKey(PseudoRouteStop stopA, PseudoRouteStop stopB) {
-		return stopA.getId() + "->" + stopB.getId();
-	}
-}
+	private static class QueueEntry implements Comparable<QueueEntry> {
 
+		private final PseudoRouteStop stop;
+		private final double travelCost;
 
+		QueueEntry(PseudoRouteStop stop, double travelCost) {
+			this.stop = stop;
+			this.travelCost = travelCost;
+		}
+
+		@Override
+		public int compareTo(QueueEntry other) {
+			return Double.compare(travelCost, other.travelCost);
+		}
+	}
+}
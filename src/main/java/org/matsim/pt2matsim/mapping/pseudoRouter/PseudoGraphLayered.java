@@ -0,0 +1,243 @@
+package org.matsim.pt2matsim.mapping.pseudoRouter;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
+
+import java.util.*;
+
+/**
+ * A pseudo graph that makes use of its layered structure: the link candidates of
+ * route stop i are only connected to the link candidates of route stop i+1. Each
+ * layer stores its link candidates in a list, edges between two layers are stored
+ * in primitive arrays (indices of the link candidates and edge weights).
+ * <p/>
+ * The least cost path is calculated with one forward pass over all layers (like
+ * the Viterbi algorithm), no priority queue is needed. PseudoRouteStops are only
+ * created for the least cost path. Gives the same result as {@link PseudoGraphImpl}.
+ */
+public class PseudoGraphLayered implements PseudoGraph {
+
+	private static final double DUMMY_EDGE_WEIGHT = 1.0;
+
+	private final List<Layer> layers = new ArrayList<>();
+
+	private boolean solved = false;
+	private List<PseudoRouteStop> leastCostPath = null;
+	private final List<Id<Link>> networkLinkIds = new ArrayList<>();
+	private final Collection<ArtificialLink> artificialNetworkLinks = new HashSet<>();
+	private final PathRouter pathRouter;
+
+	/**
+	 * @param pathRouter calculates the network paths of the least cost path
+	 */
+	public PseudoGraphLayered(PathRouter pathRouter) {
+		this.pathRouter = pathRouter;
+	}
+
+	@Override
+	public void addEdge(int orderOfFromStop, TransitRouteStop fromTransitRouteStop, LinkCandidate fromLinkCandidate, TransitRouteStop toTransitRouteStop, LinkCandidate toLinkCandidate, double pathTravelCost, boolean artificial) {
+		Layer fromLayer = getLayer(orderOfFromStop, fromTransitRouteStop);
+		Layer toLayer = getLayer(orderOfFromStop + 1, toTransitRouteStop);
+		fromLayer.addEdge(fromLayer.getIndex(fromLinkCandidate), toLayer.getIndex(toLinkCandidate), pathTravelCost, artificial);
+	}
+
+	@Override
+	public void addDummyEdges(List<TransitRouteStop> transitRouteStops, Collection<LinkCandidate> firstStopLinkCandidates, Collection<LinkCandidate> lastStopLinkCandidates) {
+		int last = transitRouteStops.size() - 1;
+		Layer firstLayer = getLayer(0, transitRouteStops.get(0));
+		Layer lastLayer = getLayer(last, transitRouteStops.get(last));
+		for(LinkCandidate lc : firstStopLinkCandidates) {
+			firstLayer.setSourceCandidate(firstLayer.getIndex(lc));
+		}
+		for(LinkCandidate lc : lastStopLinkCandidates) {
+			lastLayer.setDestinationCandidate(lastLayer.getIndex(lc));
+		}
+	}
+
+	@Override
+	public List<PseudoRouteStop> getLeastCostStopSequence() {
+		if(!solved) solve();
+		return leastCostPath;
+	}
+
+	@Override
+	public List<Id<Link>> getNetworkLinkIds() {
+		if(!solved) solve();
+		return networkLinkIds;
+	}
+
+	@Override
+	public Collection<ArtificialLink> getArtificialNetworkLinks() {
+		if(!solved) solve();
+		return artificialNetworkLinks;
+	}
+
+	private Layer getLayer(int order, TransitRouteStop routeStop) {
+		while(layers.size() <= order) {
+			layers.add(null);
+		}
+		Layer layer = layers.get(order);
+		if(layer == null) {
+			layer = new Layer(routeStop);
+			layers.set(order, layer);
+		}
+		return layer;
+	}
+
+	/**
+	 * Forward pass: the travel cost of each link candidate is the minimal cost over all
+	 * incoming edges from the previous layer. The path is then traced back from the
+	 * cheapest link candidate of the last layer. Ties are broken by the order in which
+	 * the link candidates have been added, like {@link PseudoGraphImpl} does.
+	 */
+	private void solve() {
+		solved = true;
+		int nLayers = layers.size();
+		if(nLayers == 0) return;
+
+		double[][] cost = new double[nLayers][];
+		int[][] previousEdge = new int[nLayers][];
+		for(int i = 0; i < nLayers; i++) {
+			Layer layer = layers.get(i);
+			if(layer == null) return;
+			int n = layer.candidates.size();
+			cost[i] = new double[n];
+			previousEdge[i] = new int[n];
+			Arrays.fill(cost[i], Double.POSITIVE_INFINITY);
+			Arrays.fill(previousEdge[i], -1);
+		}
+
+		// source
+		Layer first = layers.get(0);
+		for(int c = 0; c < first.candidates.size(); c++) {
+			if(first.isSource[c]) {
+				cost[0][c] = DUMMY_EDGE_WEIGHT;
+			}
+		}
+
+		// forward pass
+		for(int i = 0; i < nLayers - 1; i++) {
+			Layer layer = layers.get(i);
+			double[] fromCost = cost[i];
+			double[] toCost = cost[i + 1];
+			int[] toPrevious = previousEdge[i + 1];
+			for(int e = 0; e < layer.nEdges; e++) {
+				int from = layer.edgeFrom[e];
+				if(fromCost[from] == Double.POSITIVE_INFINITY) continue;
+				double c = fromCost[from] + layer.edgeWeight[e];
+				int to = layer.edgeTo[e];
+				// on equal costs the link candidate that was added first is used as predecessor
+				if(c < toCost[to] || (c == toCost[to] && toPrevious[to] >= 0 && from < layer.edgeFrom[toPrevious[to]])) {
+					toCost[to] = c;
+					toPrevious[to] = e;
+				}
+			}
+		}
+
+		// destination
+		Layer last = layers.get(nLayers - 1);
+		int bestLast = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for(int c = 0; c < last.candidates.size(); c++) {
+			if(last.isDestination[c] && cost[nLayers - 1][c] + DUMMY_EDGE_WEIGHT < bestCost) {
+				bestCost = cost[nLayers - 1][c] + DUMMY_EDGE_WEIGHT;
+				bestLast = c;
+			}
+		}
+		if(bestLast < 0) return;
+
+		// trace back
+		int[] candidateIndices = new int[nLayers];
+		int[] edges = new int[nLayers];
+		candidateIndices[nLayers - 1] = bestLast;
+		for(int i = nLayers - 1; i > 0; i--) {
+			int e = previousEdge[i][candidateIndices[i]];
+			edges[i - 1] = e;
+			candidateIndices[i - 1] = layers.get(i - 1).edgeFrom[e];
+		}
+
+		leastCostPath = new ArrayList<>(nLayers);
+		for(int i = 0; i < nLayers; i++) {
+			Layer layer = layers.get(i);
+			leastCostPath.add(new PseudoRouteStopImpl(i, layer.routeStop, layer.candidates.get(candidateIndices[i])));
+		}
+
+		// fetch network links for least cost path
+		networkLinkIds.add(leastCostPath.get(0).getLinkId());
+		for(int i = 0; i < nLayers - 1; i++) {
+			LinkCandidate from = leastCostPath.get(i).getLinkCandidate();
+			LinkCandidate to = leastCostPath.get(i + 1).getLinkCandidate();
+			List<Link> links = layers.get(i).edgeArtificial.get(edges[i]) ? null : pathRouter.calcPath(from, to);
+			if(links == null) {
+				ArtificialLink artificialLink = new ArtificialLinkImpl(from, to, 1, CoordUtils.calcEuclideanDistance(from.getFromCoord(), to.getToCoord()));
+				networkLinkIds.add(artificialLink.getId());
+				artificialNetworkLinks.add(artificialLink);
+			} else {
+				for(Link l : links) {
+					networkLinkIds.add(l.getId());
+				}
+			}
+			networkLinkIds.add(leastCostPath.get(i + 1).getLinkId());
+		}
+	}
+
+	/**
+	 * Link candidates of one route stop and the edges to the next layer
+	 */
+	private static class Layer {
+
+		private final TransitRouteStop routeStop;
+		private final List<LinkCandidate> candidates = new ArrayList<>();
+		private final Map<LinkCandidate, Integer> candidateIndices = new HashMap<>();
+		private boolean[] isSource = new boolean[4];
+		private boolean[] isDestination = new boolean[4];
+
+		private int nEdges = 0;
+		private int[] edgeFrom = new int[16];
+		private int[] edgeTo = new int[16];
+		private double[] edgeWeight = new double[16];
+		private final BitSet edgeArtificial = new BitSet();
+
+		Layer(TransitRouteStop routeStop) {
+			this.routeStop = routeStop;
+		}
+
+		int getIndex(LinkCandidate linkCandidate) {
+			Integer index = candidateIndices.get(linkCandidate);
+			if(index == null) {
+				index = candidates.size();
+				candidates.add(linkCandidate);
+				candidateIndices.put(linkCandidate, index);
+				if(index >= isSource.length) {
+					isSource = Arrays.copyOf(isSource, isSource.length * 2);
+					isDestination = Arrays.copyOf(isDestination, isDestination.length * 2);
+				}
+			}
+			return index;
+		}
+
+		void setSourceCandidate(int index) {
+			isSource[index] = true;
+		}
+
+		void setDestinationCandidate(int index) {
+			isDestination[index] = true;
+		}
+
+		void addEdge(int from, int to, double weight, boolean artificial) {
+			if(nEdges == edgeFrom.length) {
+				edgeFrom = Arrays.copyOf(edgeFrom, nEdges * 2);
+				edgeTo = Arrays.copyOf(edgeTo, nEdges * 2);
+				edgeWeight = Arrays.copyOf(edgeWeight, nEdges * 2);
+			}
+			edgeFrom[nEdges] = from;
+			edgeTo[nEdges] = to;
+			edgeWeight[nEdges] = weight;
+			edgeArtificial.set(nEdges, artificial);
+			nEdges++;
+		}
+	}
+}
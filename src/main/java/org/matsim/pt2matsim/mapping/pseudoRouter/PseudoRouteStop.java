@@ -20,7 +20,6 @@ package org.matsim.pt2matsim.mapping.pseudoRouter;
 
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.Identifiable;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.core.utils.misc.OptionalTime;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
@@ -38,10 +37,15 @@ import java.util.Map;
  * StopFacility might be accessed twice in the same TransitRoute,
  * unique LinkCandidates for each TransitRouteStop are needed. This
  * is achieved via this class.
+ * <p/>
+ * PseudoRouteStops are identified by the order of the route stop
+ * and their link candidate (see equals and hashCode of the
+ * implementation). No {@link Id} is created for them since ids
+ * are interned and never released.
  *
  * @author polettif
  */
-public interface PseudoRouteStop extends Identifiable<PseudoRouteStop>, Comparable<PseudoRouteStop> {
+public interface PseudoRouteStop extends Comparable<PseudoRouteStop> {
 
 	Id<TransitStopFacility> getParentStopFacilityId();
 
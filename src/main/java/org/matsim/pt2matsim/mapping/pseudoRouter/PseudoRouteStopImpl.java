@@ -37,9 +37,14 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 
 	// dijkstra
 	public final Map<PseudoRouteStop, Double> neighbours = new HashMap<>();
-	// schedule values
-	public final Id<PseudoRouteStop> id;
+	// identification
+	private static final int SOURCE_ORDER = -1;
+	private static final int DESTINATION_ORDER = Integer.MAX_VALUE;
+	private final int order;
 	private final LinkCandidate linkCandidate;
+	private final int hash;
+
+	// schedule values
 
 	private final Id<Link> linkId;
 	private final OptionalTime departureOffset;
@@ -57,8 +62,8 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 	 * Constructor. All primitive attribute values of the transitRouteStop are stored
 	 * to make access easier during stop facility replacement.
 	 */
-	/*package*/ PseudoRouteStopImpl(int order, TransitRouteStop routeStop, LinkCandidate linkCandidate) {
-		this.id = Id.create("[" + order + "]" + linkCandidate.toString(), PseudoRouteStop.class);
+	public PseudoRouteStopImpl(int order, TransitRouteStop routeStop, LinkCandidate linkCandidate) {
+		this.order = order;
 		this.linkId = linkCandidate.getLink().getId();
 
 		// stop facility values
@@ -75,6 +80,7 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 
 		// link value
 		this.linkCandidate = linkCandidate;
+		this.hash = 31 * order + linkCandidate.hashCode();
 	}
 
 	/**
@@ -82,10 +88,10 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 	 */
 	public PseudoRouteStopImpl(String id) {
 		if(id.equals(PseudoGraphImpl.SOURCE)) {
-			this.id = Id.create(PseudoGraphImpl.SOURCE, PseudoRouteStop.class);
+			this.order = SOURCE_ORDER;
 			this.travelCostToSource = 0;
 		} else {
-			this.id = Id.create(PseudoGraphImpl.DESTINATION, PseudoRouteStop.class);
+			this.order = DESTINATION_ORDER;
 		}
 
 		previous = null;
@@ -106,6 +112,7 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 
 		// link value
 		this.linkCandidate = null;
+		this.hash = order;
 	}
 
 
@@ -132,11 +139,6 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 	}
 
 
-	@Override
-	public Id<PseudoRouteStop> getId() {
-		return id;
-	}
-
 	@Override
 	public int compareTo(PseudoRouteStop other) {
 		if(this.equals(other)) {
@@ -198,7 +200,10 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 
 	@Override
 	public String toString() {
-		return facilityName + " " + id;
+		if(linkCandidate == null) {
+			return order == SOURCE_ORDER ? PseudoGraphImpl.SOURCE : PseudoGraphImpl.DESTINATION;
+		}
+		return facilityName + " [" + order + "]" + linkCandidate;
 	}
 
 	@Override
@@ -207,11 +212,12 @@ public class PseudoRouteStopImpl implements PseudoRouteStop {
 		if(o == null || getClass() != o.getClass()) return false;
 
 		PseudoRouteStopImpl that = (PseudoRouteStopImpl) o;
-		return getId().equals(that.getId());
+		if(order != that.order) return false;
+		return linkCandidate != null ? linkCandidate.equals(that.linkCandidate) : that.linkCandidate == null;
 	}
 
 	@Override
 	public int hashCode() {
-		return getId().hashCode();
+		return hash;
 	}
 }
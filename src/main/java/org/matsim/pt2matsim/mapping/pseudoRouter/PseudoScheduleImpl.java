@@ -28,6 +28,7 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
+import org.matsim.pt.transitSchedule.api.MinimalTransferTimes;
 import org.matsim.pt.transitSchedule.api.MinimalTransferTimes.MinimalTransferTimesIterator;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
@@ -125,25 +126,6 @@ public class PseudoScheduleImpl implements PseudoSchedule {
 			schedule.getTransitLines().get(pseudoTransitRoute.getTransitLineId()).addRoute(newTransitRoute);
 			// newRoutes.add(new Tuple<>(pseudoTransitRoute.getTransitLineId(), newRoute));
 
-			// Recover minimal transfer times between child stop facilities from parent stop
-			// facilities
-			MinimalTransferTimesIterator iterator = schedule.getMinimalTransferTimes().iterator();
-
-			while (iterator.hasNext()) {
-				iterator.next();
-
-				Id<TransitStopFacility> fromId = iterator.getFromStopId();
-				Id<TransitStopFacility> toId = iterator.getToStopId();
-
-				if (parentsToChildren.containsKey(fromId) && parentsToChildren.containsKey(toId)) {
-					for (Id<TransitStopFacility> childFromId : parentsToChildren.get(fromId)) {
-						for (Id<TransitStopFacility> childToId : parentsToChildren.get(toId)) {
-							schedule.getMinimalTransferTimes().set(childFromId, childToId, iterator.getSeconds());
-						}
-					}
-				}
-			}
-
 			currentNumber++;
 			if (System.currentTimeMillis() >= lastUpdate + 1000.0 || currentNumber == totalNumber) {
 				lastUpdate = System.currentTimeMillis();
@@ -151,5 +133,50 @@ public class PseudoScheduleImpl implements PseudoSchedule {
 						currentNumber, totalNumber, 100.0 * currentNumber / totalNumber));
 			}
 		}
+
+		setChildMinimalTransferTimes(schedule.getMinimalTransferTimes(), parentsToChildren);
+	}
+
+	/**
+	 * Recovers minimal transfer times between child stop facilities from their parent stop
+	 * facilities. Runs once after all child stop facilities have been created. The parent
+	 * transfers are collected first since {@link MinimalTransferTimes} cannot be modified
+	 * while it is iterated.
+	 */
+	/*package*/ static void setChildMinimalTransferTimes(MinimalTransferTimes minimalTransferTimes, Map<Id<TransitStopFacility>, Set<Id<TransitStopFacility>>> parentsToChildren) {
+		List<ParentTransfer> parentTransfers = new ArrayList<>();
+		MinimalTransferTimesIterator iterator = minimalTransferTimes.iterator();
+		while (iterator.hasNext()) {
+			iterator.next();
+			Set<Id<TransitStopFacility>> fromChildren = parentsToChildren.get(iterator.getFromStopId());
+			Set<Id<TransitStopFacility>> toChildren = parentsToChildren.get(iterator.getToStopId());
+			if (fromChildren != null && toChildren != null) {
+				parentTransfers.add(new ParentTransfer(fromChildren, toChildren, iterator.getSeconds()));
+			}
+		}
+
+		for (ParentTransfer t : parentTransfers) {
+			for (Id<TransitStopFacility> childFromId : t.fromChildren) {
+				for (Id<TransitStopFacility> childToId : t.toChildren) {
+					minimalTransferTimes.set(childFromId, childToId, t.seconds);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Minimal transfer time between two parent stop facilities and their children
+	 */
+	private static class ParentTransfer {
+
+		private final Set<Id<TransitStopFacility>> fromChildren;
+		private final Set<Id<TransitStopFacility>> toChildren;
+		private final double seconds;
+
+		ParentTransfer(Set<Id<TransitStopFacility>> fromChildren, Set<Id<TransitStopFacility>> toChildren, double seconds) {
+			this.fromChildren = fromChildren;
+			this.toChildren = toChildren;
+			this.seconds = seconds;
+		}
 	}
 }
@@ -57,6 +57,7 @@ public class MappingAnalysis {
 	private final Map<Tuple<Id<TransitLine>, Id<TransitRoute>>, List<Double>> routeDistances = new HashMap<>();
 	private final Map<Id<TransitLine>, Map<Id<TransitRoute>, Double>> lengthRatios = new HashMap<>();
 	private final Map<Tuple<Id<TransitLine>, Id<TransitRoute>>, Id<RouteShape>> shapeAssignment = new HashMap<>();
+	private final Map<Id<RouteShape>, ShapeDistanceIndex> shapeIndices = new HashMap<>();
 
 	private final Set<Tuple<Id<TransitLine>, Id<TransitRoute>>> noAnalysis = new HashSet<>();
 
@@ -84,7 +85,8 @@ public class MappingAnalysis {
 
 				if(shape != null) {
 					shapeAssignment.put(new Tuple<>(transitLine.getId(), transitRoute.getId()), shape.getId());
-					mappingAnalyser[t++].addToQueue(transitLine, transitRoute, shape);
+					ShapeDistanceIndex shapeIndex = shapeIndices.computeIfAbsent(shape.getId(), k -> new ShapeDistanceIndex(shape));
+					mappingAnalyser[t++].addToQueue(transitLine, transitRoute, shapeIndex);
 				} else {
 					noAnalysis.add(new Tuple<>(transitLine.getId(), transitRoute.getId()));
 				}
@@ -275,26 +277,26 @@ public class MappingAnalysis {
 	 */
 	private class MappingAnalyser implements Runnable {
 
-		private Map<Tuple<TransitLine, TransitRoute>, RouteShape> queue = new HashMap<>();
+		private Map<Tuple<TransitLine, TransitRoute>, ShapeDistanceIndex> queue = new HashMap<>();
 
-		public void addToQueue(TransitLine transitLine, TransitRoute transitRoute, RouteShape shape) {
-			if(queue.put(new Tuple<>(transitLine, transitRoute), shape) != null) {
+		public void addToQueue(TransitLine transitLine, TransitRoute transitRoute, ShapeDistanceIndex shapeIndex) {
+			if(queue.put(new Tuple<>(transitLine, transitRoute), shapeIndex) != null) {
 				throw new RuntimeException(transitRoute.getId() + " already added to queue");
 			}
 		}
 
 		@Override
 		public void run() {
-			for(Map.Entry<Tuple<TransitLine, TransitRoute>, RouteShape> entry : queue.entrySet()) {
+			for(Map.Entry<Tuple<TransitLine, TransitRoute>, ShapeDistanceIndex> entry : queue.entrySet()) {
 				calcRouteShapeDistances(entry.getKey().getFirst(), entry.getKey().getSecond(), entry.getValue());
-				calcLengthDiffRatios(entry.getKey().getFirst(), entry.getKey().getSecond(), entry.getValue());
+				calcLengthDiffRatios(entry.getKey().getFirst(), entry.getKey().getSecond(), entry.getValue().getShape());
 			}
 		}
 
 		/**
 		 * Calculate the distances between the transitRoute and its corresponding shape
 		 */
-		private void calcRouteShapeDistances(TransitLine transitLine, TransitRoute transitRoute, RouteShape shape) {
+		private void calcRouteShapeDistances(TransitLine transitLine, TransitRoute transitRoute, ShapeDistanceIndex shapeIndex) {
 			List<Link> links = NetworkTools.getLinksFromIds(network, ScheduleTools.getTransitRouteLinkIds(transitRoute));
 			// we need an equivalent number of measurements for the whole transitRoute
 			double lengthOnLink = 0;
@@ -306,7 +308,7 @@ public class MappingAnalysis {
 					Coord currentPoint = CoordTools.calcNewPoint(link.getFromNode().getCoord(), azimuth, lengthOnLink);
 
 					// look for shortest distance to shape
-					double minDistanceToShape = ShapeTools.calcMinDistanceToShape(currentPoint, shape);
+					double minDistanceToShape = shapeIndex.calcMinDistance(currentPoint);
 					addMinDistance(transitLine.getId(), transitRoute.getId(), minDistanceToShape);
 					lengthOnLink += MEASURE_INTERVAL;
 				}
@@ -24,6 +24,7 @@ import org.matsim.core.utils.collections.Tuple;
 import org.matsim.pt.transitSchedule.api.*;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.tools.CsvTools;
+import org.matsim.pt2matsim.tools.LinkSpatialIndex;
 import org.matsim.pt2matsim.tools.MiscUtils;
 import org.matsim.pt2matsim.tools.NetworkTools;
 import org.matsim.pt2matsim.tools.ScheduleTools;
@@ -66,9 +67,11 @@ public class NearbyLinkAnalysis {
 		}
 
 		PublicTransitMappingConfigGroup config = PublicTransitMappingConfigGroup.createDefaultConfig();
+		Map<String, LinkSpatialIndex> linkIndices = new HashMap<>();
 
 		for(PublicTransitStop stop : stops) {
-			Map<Double, Set<Link>> sortedLinks = NetworkTools.findClosestLinks(network, stop.getStopFacility().getCoord(), 500, config.getTransportModeAssignment().get(stop.getMode()));
+			LinkSpatialIndex linkIndex = linkIndices.computeIfAbsent(stop.getMode(), m -> new LinkSpatialIndex(network, config.getTransportModeAssignment().get(m), 500));
+			Map<Double, Set<Link>> sortedLinks = linkIndex.findClosestLinks(stop.getStopFacility().getCoord(), 500);
 			stop.addLinks(sortedLinks);
 		}
 	}
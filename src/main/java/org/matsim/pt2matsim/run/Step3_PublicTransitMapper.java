@@ -65,10 +65,13 @@ public final class Step3_PublicTransitMapper {
 	 * @see CreateDefaultPTMapperConfig
 	 *
 	 * @param args <br/>[0] PublicTransitMapping config file<br/>
+	 *             [1] "resume" (optional), resumes an aborted run from the checkpoint file set in the config<br/>
 	 */
 	public static void main(String[] args) {
 		if(args.length == 1) {
 			run(args[0]);
+		} else if(args.length == 2 && args[1].equals("resume")) {
+			run(args[0], true);
 		} else {
 			throw new IllegalArgumentException("Public Transit Mapping config file as argument needed");
 		}
@@ -83,16 +86,42 @@ public final class Step3_PublicTransitMapper {
 	 * @param configFile the PublicTransitMapping config file
 	 */
 	public static void run(String configFile) {
+		run(configFile, false);
+	}
+
+	/**
+	 * Routes the unmapped MATSim Transit Schedule to the network using the file
+	 * paths specified in the config. Writes the resulting schedule and network to xml files.<p/>
+	 *
+	 * @param configFile the PublicTransitMapping config file
+	 * @param resume     if <tt>true</tt>, transit routes recorded in the checkpoint file of an aborted
+	 *                   run are not routed again. Needs a checkpoint file in the config.
+	 */
+	public static void run(String configFile, boolean resume) {
 		// Load config
 		PublicTransitMappingConfigGroup config = PublicTransitMappingConfigGroup.loadConfig(configFile);
+		if(resume && config.getCheckpointFile() == null) {
+			throw new IllegalArgumentException("No checkpoint file defined in config, cannot resume");
+		}
 
 		// Load input schedule and network
 		TransitSchedule schedule = config.getInputScheduleFile() == null ? null : ScheduleTools.readTransitSchedule(config.getInputScheduleFile());
 		Network network = config.getInputNetworkFile() == null ? null : NetworkTools.readNetwork(config.getInputNetworkFile());
 
 		// Run PTMapper
-		PTMapper.mapScheduleToNetwork(schedule, network, config);
-		// or: new PTMapper(schedule, network).run(config);
+		PTMapper ptMapper;
+		if(config.getPreviousMappedScheduleFile() != null) {
+			// incremental mapping, unchanged transit routes reuse the previous mapping
+			TransitSchedule previousSchedule = ScheduleTools.readTransitSchedule(config.getPreviousMappedScheduleFile());
+			Network previousNetwork = config.getPreviousMappedNetworkFile() == null ? null : NetworkTools.readNetwork(config.getPreviousMappedNetworkFile());
+			ptMapper = new PTMapper(schedule, network, previousSchedule, previousNetwork);
+		} else {
+			ptMapper = new PTMapper(schedule, network);
+		}
+		if(config.getCheckpointFile() != null) {
+			ptMapper.setCheckpoint(config.getCheckpointFile(), resume);
+		}
+		ptMapper.run(config);
 
 		// Write the schedule and network to output files (if defined in config)
 		if(config.getOutputNetworkFile() != null && config.getOutputScheduleFile() != null) {
@@ -0,0 +1,198 @@
+package org.matsim.pt2matsim.tools;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Helpers for binary cache files. A cache file is named after a hash of all inputs
+ * of the cached data (see {@link Key}), a file with a different name is never used
+ * if an input changes.
+ * <p/>
+ * Strings are stored once in a string table at the start of a file and referenced
+ * by their index afterwards.
+ */
+public final class CacheTools {
+
+	private static final int MAGIC = 0x50544d43;
+
+	private CacheTools() {}
+
+	/**
+	 * @return the cache file in <tt>cacheDirectory</tt> for the given key, the directory is
+	 * created if needed.
+	 */
+	public static File getCacheFile(String cacheDirectory, String prefix, Key key) {
+		File dir = new File(cacheDirectory);
+		if(!dir.exists() && !dir.mkdirs()) {
+			throw new RuntimeException("Cannot create cache directory " + cacheDirectory);
+		}
+		return new File(dir, prefix + "_" + key.toHex() + ".bin");
+	}
+
+	/**
+	 * Writes the file to a temporary file first and replaces the cache file once
+	 * writing is done, so the cache file is never read while it is incomplete.
+	 */
+	public static void writeFile(File file, int version, List<String> strings, CacheWriter writer) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(version);
+			out.writeInt(strings.size());
+			for(String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			writer.write(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Memory maps the file and reads the string table.
+	 *
+	 * @return the mapped buffer positioned after the string table or <tt>null</tt> if the file
+	 * has not been written with the given version
+	 */
+	public static MappedByteBuffer mapFile(File file, int version, List<String> strings) throws IOException {
+		MappedByteBuffer buffer;
+		try(FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if(buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != version) {
+			return null;
+		}
+		int nStrings = buffer.getInt();
+		for(int i = 0; i < nStrings; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return buffer;
+	}
+
+	/**
+	 * Assigns an index to each distinct string written to a cache file
+	 */
+	public static class StringTable {
+
+		private final Map<String, Integer> index = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+
+		public int get(Object o) {
+			String s = o.toString();
+			return index.computeIfAbsent(s, k -> {
+				strings.add(k);
+				return strings.size() - 1;
+			});
+		}
+
+		public List<String> getStrings() {
+			return strings;
+		}
+	}
+
+	@FunctionalInterface
+	public interface CacheWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * SHA-256 hash of the inputs of cached data
+	 */
+	public static class Key {
+
+		private final MessageDigest digest;
+		private final ByteBuffer buffer = ByteBuffer.allocate(8);
+
+		public Key() {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public Key add(String s) {
+			digest.update(String.valueOf(s).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			return this;
+		}
+
+		public Key add(double d) {
+			buffer.clear();
+			buffer.putDouble(d);
+			digest.update(buffer.array());
+			return this;
+		}
+
+		public Key add(Collection<String> strings) {
+			List<String> sorted = new ArrayList<>(strings);
+			Collections.sort(sorted);
+			add(sorted.size());
+			sorted.forEach(this::add);
+			return this;
+		}
+
+		/**
+		 * Adds the nodes and attributes of all links, sorted by link id
+		 */
+		public Key add(Network network) {
+			List<Link> links = new ArrayList<>(network.getLinks().values());
+			links.sort(Comparator.comparing(Link::getId));
+			add(links.size());
+			for(Link link : links) {
+				add(link.getId().toString());
+				add(link.getFromNode().getId().toString());
+				add(link.getFromNode().getCoord().getX());
+				add(link.getFromNode().getCoord().getY());
+				add(link.getToNode().getId().toString());
+				add(link.getToNode().getCoord().getX());
+				add(link.getToNode().getCoord().getY());
+				add(link.getLength());
+				add(link.getFreespeed());
+				add(link.getCapacity());
+				add(link.getAllowedModes());
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a transport mode assignment (schedule mode to network modes)
+		 */
+		public Key add(Map<String, Set<String>> transportModeAssignment) {
+			for(String scheduleMode : new TreeSet<>(transportModeAssignment.keySet())) {
+				add(scheduleMode);
+				Set<String> networkModes = transportModeAssignment.get(scheduleMode);
+				add(networkModes == null ? Collections.emptySet() : networkModes);
+			}
+			return this;
+		}
+
+		public String toHex() {
+			byte[] hash;
+			try {
+				hash = ((MessageDigest) digest.clone()).digest();
+			} catch (CloneNotSupportedException e) {
+				throw new RuntimeException(e);
+			}
+			StringBuilder hex = new StringBuilder();
+			for(int i = 0; i < 16; i++) {
+				hex.append(String.format("%02x", hash[i]));
+			}
+			return hex.toString();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package org.matsim.pt2matsim.tools;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.collections.MapUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.util.*;
+
+/**
+ * Uniform grid over the link segments (from node to to node) of a network. Only links
+ * that share at least one mode with the given network modes are stored. A link is
+ * stored in every grid cell its segment passes through, the distance of a coordinate
+ * to a link is the distance to its segment (see {@link CoordUtils#distancePointLinesegment}).
+ * <p/>
+ * Unlike {@link NetworkTools#findClosestLinks}, which looks at the in- and out-links of
+ * all nodes within a search radius, only the cells within the query distance are
+ * visited. The index is not updated if the network changes, it can be queried by
+ * multiple threads.
+ */
+public class LinkSpatialIndex {
+
+	private final double cellSize;
+	private final Map<Long, List<Link>> cells = new HashMap<>();
+	private int minCellX = Integer.MAX_VALUE;
+	private int maxCellX = Integer.MIN_VALUE;
+	private int minCellY = Integer.MAX_VALUE;
+	private int maxCellY = Integer.MIN_VALUE;
+
+	/**
+	 * @param networkModes only links with at least one of these modes are indexed, all
+	 *                     links are indexed if <tt>null</tt>
+	 * @param cellSize     edge length of a grid cell, should be in the range of the
+	 *                     usual query distance
+	 */
+	public LinkSpatialIndex(Network network, Set<String> networkModes, double cellSize) {
+		if(cellSize <= 0) {
+			throw new IllegalArgumentException("cellSize of link spatial index must be greater than 0");
+		}
+		this.cellSize = cellSize;
+
+		for(Link link : network.getLinks().values()) {
+			if(networkModes == null || MiscUtils.collectionsShareMinOneStringEntry(link.getAllowedModes(), networkModes)) {
+				addLink(link);
+			}
+		}
+	}
+
+	/**
+	 * Adds the link to all cells its segment passes through. A segment passes through a cell
+	 * if its distance to the cell center is at most half the cell diagonal (all other cells
+	 * within the bounding box are skipped).
+	 */
+	private void addLink(Link link) {
+		Coord from = link.getFromNode().getCoord();
+		Coord to = link.getToNode().getCoord();
+		int x0 = cellIndex(Math.min(from.getX(), to.getX()));
+		int x1 = cellIndex(Math.max(from.getX(), to.getX()));
+		int y0 = cellIndex(Math.min(from.getY(), to.getY()));
+		int y1 = cellIndex(Math.max(from.getY(), to.getY()));
+		double halfDiagonal = cellSize * Math.sqrt(0.5);
+
+		for(int x = x0; x <= x1; x++) {
+			for(int y = y0; y <= y1; y++) {
+				Coord center = new Coord((x + 0.5) * cellSize, (y + 0.5) * cellSize);
+				if(x0 == x1 || y0 == y1 || CoordUtils.distancePointLinesegment(from, to, center) <= halfDiagonal) {
+					cells.computeIfAbsent(cellKey(x, y), k -> new ArrayList<>()).add(link);
+					minCellX = Math.min(minCellX, x);
+					maxCellX = Math.max(maxCellX, x);
+					minCellY = Math.min(minCellY, y);
+					maxCellY = Math.max(maxCellY, y);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return all indexed links within <tt>maxDistance</tt> of <tt>coord</tt>. Links are grouped by
+	 * their distance to the coord, i.e. two opposite links are stored under the same distance
+	 * (same format as {@link NetworkTools#findClosestLinks}).
+	 */
+	public SortedMap<Double, Set<Link>> findClosestLinks(Coord coord, double maxDistance) {
+		SortedMap<Double, Set<Link>> closestLinks = new TreeMap<>();
+		int cx = cellIndex(coord.getX());
+		int cy = cellIndex(coord.getY());
+		int r = ringsNeeded(maxDistance);
+
+		Set<Link> visited = new HashSet<>();
+		for(int x = Math.max(cx - r, minCellX); x <= Math.min(cx + r, maxCellX); x++) {
+			for(int y = Math.max(cy - r, minCellY); y <= Math.min(cy + r, maxCellY); y++) {
+				List<Link> cellLinks = cells.get(cellKey(x, y));
+				if(cellLinks == null) continue;
+				for(Link link : cellLinks) {
+					if(visited.add(link)) {
+						double distance = distance(link, coord);
+						if(distance <= maxDistance) {
+							MapUtils.getSet(distance, closestLinks).add(link);
+						}
+					}
+				}
+			}
+		}
+		return closestLinks;
+	}
+
+	/**
+	 * @return the <tt>k</tt> nearest links within <tt>maxDistance</tt> of <tt>coord</tt>, grouped by
+	 * distance. Links with the same distance as the k-th link are returned as well. The search
+	 * starts in the cell of the coord and is extended ring by ring until k links are found.
+	 */
+	public SortedMap<Double, Set<Link>> findNearestLinks(Coord coord, int k, double maxDistance) {
+		SortedMap<Double, Set<Link>> nearestLinks = new TreeMap<>();
+		if(cells.isEmpty() || k < 1) {
+			return nearestLinks;
+		}
+		int cx = cellIndex(coord.getX());
+		int cy = cellIndex(coord.getY());
+		int maxRing = Math.max(Math.max(cx - minCellX, maxCellX - cx), Math.max(cy - minCellY, maxCellY - cy));
+		if(maxDistance < Double.POSITIVE_INFINITY) {
+			maxRing = Math.min(maxRing, ringsNeeded(maxDistance));
+		}
+
+		Set<Link> visited = new HashSet<>();
+		SortedMap<Double, Set<Link>> found = new TreeMap<>();
+		for(int ring = 0; ring <= maxRing; ring++) {
+			for(int x = cx - ring; x <= cx + ring; x++) {
+				// only cells on the ring
+				int yStep = (x == cx - ring || x == cx + ring) ? 1 : Math.max(1, 2 * ring);
+				for(int y = cy - ring; y <= cy + ring; y += yStep) {
+					List<Link> cellLinks = cells.get(cellKey(x, y));
+					if(cellLinks == null) continue;
+					for(Link link : cellLinks) {
+						if(visited.add(link)) {
+							double distance = distance(link, coord);
+							if(distance <= maxDistance) {
+								MapUtils.getSet(distance, found).add(link);
+							}
+						}
+					}
+				}
+			}
+			// all links closer than ring * cellSize have been found
+			if(kthDistance(found, k) < ring * cellSize) {
+				break;
+			}
+		}
+
+		int n = 0;
+		for(Map.Entry<Double, Set<Link>> e : found.entrySet()) {
+			if(n >= k) break;
+			nearestLinks.put(e.getKey(), e.getValue());
+			n += e.getValue().size();
+		}
+		return nearestLinks;
+	}
+
+	/**
+	 * @return the nearest indexed link or <tt>null</tt> if the index is empty
+	 */
+	public Link findNearestLink(Coord coord) {
+		SortedMap<Double, Set<Link>> nearest = findNearestLinks(coord, 1, Double.POSITIVE_INFINITY);
+		return nearest.isEmpty() ? null : nearest.get(nearest.firstKey()).iterator().next();
+	}
+
+	private static double kthDistance(SortedMap<Double, Set<Link>> links, int k) {
+		int n = 0;
+		for(Map.Entry<Double, Set<Link>> e : links.entrySet()) {
+			n += e.getValue().size();
+			if(n >= k) return e.getKey();
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private static double distance(Link link, Coord coord) {
+		return CoordUtils.distancePointLinesegment(link.getFromNode().getCoord(), link.getToNode().getCoord(), coord);
+	}
+
+	/**
+	 * A point within <tt>distance</tt> of a coord lies at most this many cells
+	 * away from the cell of the coord.
+	 */
+	private int ringsNeeded(double distance) {
+		return (int) Math.min(Math.floor(distance / cellSize) + 1, 1 << 30);
+	}
+
+	private int cellIndex(double value) {
+		return (int) Math.floor(value / cellSize);
+	}
+
+	private static long cellKey(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+}
@@ -19,6 +19,8 @@
 package org.matsim.pt2matsim.tools;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -250,4 +252,46 @@ public final class MiscUtils {
 
 		return map.computeIfAbsent(key, k -> new TreeSet<>());
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Distributes the items on numOfThreads threads and waits until all items are processed.
+	 * The first exception thrown by a thread is rethrown.
+	 */
+	public static <T> void runInThreads(Collection<T> items, int numOfThreads, Consumer<T> task) {
+		List<List<T>> partitions = new ArrayList<>();
+		for(int i = 0; i < numOfThreads; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		int thr = 0;
+		for(T item : items) {
+			partitions.get(thr++ % numOfThreads).add(item);
+		}
+
+		AtomicReference<RuntimeException> exception = new AtomicReference<>();
+		Thread[] threads = new Thread[numOfThreads];
+		for(int i = 0; i < numOfThreads; i++) {
+			List<T> partition = partitions.get(i);
+			threads[i] = new Thread(() -> {
+				try {
+					for(T item : partition) {
+						task.accept(item);
+					}
+				} catch (RuntimeException e) {
+					exception.compareAndSet(null, e);
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				throw new RuntimeException(e);
+			}
+		}
+		if(exception.get() != null) {
+			throw exception.get();
+		}
+	}
+}
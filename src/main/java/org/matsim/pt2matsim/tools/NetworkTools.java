@@ -137,6 +137,27 @@ public final class NetworkTools {
 		}
 	}
 
+	/**
+	 * Returns the nearest link in the given link index. If there are two opposite links,
+	 * the link with the coordinate on its right side is returned (see {@link #getNearestLink(Network, Coord, double)}).
+	 *
+	 * @return the nearest link or <tt>null</tt> if the index does not contain any links
+	 */
+	public static Link getNearestLink(LinkSpatialIndex linkIndex, Coord coord) {
+		Link closestLink = linkIndex.findNearestLink(coord);
+		if(closestLink == null) {
+			return null;
+		}
+
+		// check for opposite link
+		Link oppositeLink = getOppositeLink(closestLink);
+		if(oppositeLink != null && !coordIsOnRightSideOfLink(coord, closestLink)) {
+			return oppositeLink;
+		} else {
+			return closestLink;
+		}
+	}
+
 
 	/**
 	 * Looks for nodes within search radius of <tt>coord</tt> (using {@link NetworkUtils#getNearestNodes},
@@ -683,6 +704,17 @@ public final class NetworkTools {
 		return network;
 	}
 
+	/**
+	 * @return the max freespeed of all links in the network, 0 if the network has no links
+	 */
+	public static double getMaxFreespeed(Network network) {
+		double maxFreespeed = 0;
+		for(Link link : network.getLinks().values()) {
+			maxFreespeed = Math.max(maxFreespeed, link.getFreespeed());
+		}
+		return maxFreespeed;
+	}
+
 	/**
 	 * Calculates the length of a link sequence
 	 * @param euclidian uses the sum of all link lengths if <tt>false</tt>
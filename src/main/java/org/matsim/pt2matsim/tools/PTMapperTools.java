@@ -36,6 +36,7 @@ import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
 import org.matsim.pt2matsim.mapping.pseudoRouter.ArtificialLinkImpl;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -100,69 +101,152 @@ public final class PTMapperTools {
 	 * @return the number of child stop facilities pulled
 	 */
 	public static int pullChildStopFacilitiesTogether(TransitSchedule schedule, Network network) {
+		ChildStopFacilityProvider facilityProvider = (template, childId, link) -> {
+			TransitStopFacility childStopFacility = schedule.getFacilities().get(childId);
+			if(childStopFacility == null) {
+				childStopFacility = createChildStopFacility(schedule.getFactory(), template, childId, link);
+				schedule.addStopFacility(childStopFacility);
+			}
+			return childStopFacility;
+		};
+
 		int nPulled = 0;
 		for(TransitLine line : schedule.getTransitLines().values()) {
 			for(TransitRoute transitRoute : line.getRoutes().values()) {
-				boolean hasStopLoop = ScheduleTools.routeHasStopSequenceLoop(transitRoute);
-				if(transitRoute.getRoute() != null && !hasStopLoop) {
-					TransitRouteStop currentStop;
-					List<TransitRouteStop> routeStops = transitRoute.getStops();
+				if(transitRoute.getRoute() != null && !ScheduleTools.routeHasStopSequenceLoop(transitRoute)) {
+					nPulled += pullChildStopFacilitiesTogether(transitRoute, network, facilityProvider, new ArrayList<>());
+				}
+			}
+		}
+		return nPulled;
+	}
 
-					Iterator<TransitRouteStop> stopsIterator = routeStops.iterator();
+	/**
+	 * Pulls child stop facilities together (see {@link #pullChildStopFacilitiesTogether(TransitSchedule, Network)})
+	 * until no child stop facility can be pulled anymore. Whether a stop of a transit route is pulled
+	 * only depends on the route itself, so only routes with pulled stops are revisited in the next pass.
+	 * <p/>
+	 * Routes are processed in parallel. New child stop facilities are shared between threads and
+	 * added to the schedule after each pass in route order. The result is the same as calling
+	 * {@link #pullChildStopFacilitiesTogether(TransitSchedule, Network)} until it returns 0.
+	 *
+	 * @return the number of child stop facilities pulled in all passes
+	 */
+	public static int pullChildStopFacilitiesTogether(TransitSchedule schedule, Network network, int numOfThreads) {
+		List<TransitRoute> worklist = new ArrayList<>();
+		for(TransitLine line : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : line.getRoutes().values()) {
+				if(transitRoute.getRoute() != null && !ScheduleTools.routeHasStopSequenceLoop(transitRoute)) {
+					worklist.add(transitRoute);
+				}
+			}
+		}
 
-					List<Id<Link>> linkIdList = ScheduleTools.getTransitRouteLinkIds(transitRoute);
-					List<Link> linkList = NetworkTools.getLinksFromIds(network, linkIdList);
+		int nPulledTotal = 0;
+		int pass = 0;
+		while(!worklist.isEmpty()) {
+			pass++;
+			// the schedule's facilities are only read during a pass
+			Map<Id<TransitStopFacility>, TransitStopFacility> newFacilities = new ConcurrentHashMap<>();
+			ChildStopFacilityProvider facilityProvider = (template, childId, link) -> {
+				TransitStopFacility childStopFacility = schedule.getFacilities().get(childId);
+				if(childStopFacility == null) {
+					childStopFacility = newFacilities.computeIfAbsent(childId, id -> createChildStopFacility(schedule.getFactory(), template, id, link));
+				}
+				return childStopFacility;
+			};
+
+			Map<TransitRoute, List<TransitStopFacility>> pulledFacilities = new ConcurrentHashMap<>();
+			MiscUtils.runInThreads(worklist, numOfThreads, transitRoute -> {
+				List<TransitStopFacility> pulled = new ArrayList<>();
+				pullChildStopFacilitiesTogether(transitRoute, network, facilityProvider, pulled);
+				pulledFacilities.put(transitRoute, pulled);
+			});
+
+			List<TransitRoute> nextWorklist = new ArrayList<>();
+			int nPulled = 0;
+			for(TransitRoute transitRoute : worklist) {
+				List<TransitStopFacility> pulled = pulledFacilities.get(transitRoute);
+				for(TransitStopFacility childStopFacility : pulled) {
+					if(!schedule.getFacilities().containsKey(childStopFacility.getId())) {
+						schedule.addStopFacility(childStopFacility);
+					}
+				}
+				if(pulled.size() > 0) {
+					nextWorklist.add(transitRoute);
+					nPulled += pulled.size();
+				}
+			}
+			log.info("    pass " + pass + ": " + nPulled + " child stop facilities pulled on " + worklist.size() + " transit routes");
+			nPulledTotal += nPulled;
+			worklist = nextWorklist;
+		}
+		return nPulledTotal;
+	}
 
-					currentStop = stopsIterator.next();
+	/**
+	 * Pulls the child stop facilities of one transit route
+	 *
+	 * @param pulled the child stop facilities used for pulled stops are added to this list
+	 * @return the number of child stop facilities pulled
+	 */
+	private static int pullChildStopFacilitiesTogether(TransitRoute transitRoute, Network network, ChildStopFacilityProvider facilityProvider, List<TransitStopFacility> pulled) {
+		int nPulled = 0;
+		TransitRouteStop currentStop;
+		List<TransitRouteStop> routeStops = transitRoute.getStops();
 
-					// look for a closer link before the route's start
-					// only use links with closer fromNodes
-					Set<Link> inlinksWithSameMode = NetworkTools.filterLinkSetExactlyByModes(linkList.get(0).getFromNode().getInLinks().values(), linkList.get(0).getAllowedModes());
-					double firstDist = CoordUtils.calcEuclideanDistance(currentStop.getStopFacility().getCoord(), linkList.get(0).getFromNode().getCoord());
-					for(Link l : new HashSet<>(inlinksWithSameMode)) {
-						if(CoordUtils.calcEuclideanDistance(l.getFromNode().getCoord(), currentStop.getStopFacility().getCoord()) > firstDist) {
-							inlinksWithSameMode.remove(l);
-						}
-					}
-					Id<Link> closerLinkBefore = useCloserRefLinkForChildStopFacility(schedule, network, transitRoute, currentStop.getStopFacility(), inlinksWithSameMode);
-					if(closerLinkBefore != null) {
-						linkIdList.add(0, closerLinkBefore);
-						nPulled++;
-					}
-					currentStop = stopsIterator.next();
+		Iterator<TransitRouteStop> stopsIterator = routeStops.iterator();
 
-					// optimize referenced links between start and end
-					for(int i = 1; i < linkList.size() - 1; i++) {
-						if(linkList.get(i).getId().equals(currentStop.getStopFacility().getLinkId())) {
-							Set<Link> testSet = new HashSet<>();
-							if(!(linkList.get(i) instanceof ArtificialLinkImpl)) testSet.add(linkList.get(i));
-							if(!(linkList.get(i - 1) instanceof ArtificialLinkImpl)) testSet.add(linkList.get(i - 1));
-							if(!(linkList.get(i + 1) instanceof ArtificialLinkImpl)) testSet.add(linkList.get(i + 1));
+		List<Id<Link>> linkIdList = ScheduleTools.getTransitRouteLinkIds(transitRoute);
+		List<Link> linkList = NetworkTools.getLinksFromIds(network, linkIdList);
 
-							Id<Link> check = useCloserRefLinkForChildStopFacility(schedule, network, transitRoute, currentStop.getStopFacility(), testSet);
+		currentStop = stopsIterator.next();
 
-							if(check != null) nPulled++;
+		// look for a closer link before the route's start
+		// only use links with closer fromNodes
+		Set<Link> inlinksWithSameMode = NetworkTools.filterLinkSetExactlyByModes(linkList.get(0).getFromNode().getInLinks().values(), linkList.get(0).getAllowedModes());
+		double firstDist = CoordUtils.calcEuclideanDistance(currentStop.getStopFacility().getCoord(), linkList.get(0).getFromNode().getCoord());
+		for(Link l : new HashSet<>(inlinksWithSameMode)) {
+			if(CoordUtils.calcEuclideanDistance(l.getFromNode().getCoord(), currentStop.getStopFacility().getCoord()) > firstDist) {
+				inlinksWithSameMode.remove(l);
+			}
+		}
+		Id<Link> closerLinkBefore = useCloserRefLinkForChildStopFacility(facilityProvider, network, transitRoute, currentStop.getStopFacility(), inlinksWithSameMode, pulled);
+		if(closerLinkBefore != null) {
+			linkIdList.add(0, closerLinkBefore);
+			nPulled++;
+		}
+		currentStop = stopsIterator.next();
 
-							if(stopsIterator.hasNext()) {
-								currentStop = stopsIterator.next();
-							}
-						}
-					}
+		// optimize referenced links between start and end
+		for(int i = 1; i < linkList.size() - 1; i++) {
+			if(linkList.get(i).getId().equals(currentStop.getStopFacility().getLinkId())) {
+				Set<Link> testSet = new HashSet<>();
+				if(!(linkList.get(i) instanceof ArtificialLinkImpl)) testSet.add(linkList.get(i));
+				if(!(linkList.get(i - 1) instanceof ArtificialLinkImpl)) testSet.add(linkList.get(i - 1));
+				if(!(linkList.get(i + 1) instanceof ArtificialLinkImpl)) testSet.add(linkList.get(i + 1));
 
-					// look for a closer link after the route's end
-					currentStop = routeStops.get(routeStops.size() - 1);
-					Set<Link> outlinksWithSameMode = NetworkTools.filterLinkSetExactlyByModes(linkList.get(linkList.size() - 1).getToNode().getOutLinks().values(), linkList.get(linkList.size() - 1).getAllowedModes());
-					Id<Link> closerLinkAfter = useCloserRefLinkForChildStopFacility(schedule, network, transitRoute, currentStop.getStopFacility(), outlinksWithSameMode);
-					if(closerLinkAfter != null) {
-						linkIdList.add(closerLinkAfter);
-						nPulled++;
-					}
+				Id<Link> check = useCloserRefLinkForChildStopFacility(facilityProvider, network, transitRoute, currentStop.getStopFacility(), testSet, pulled);
+
+				if(check != null) nPulled++;
 
-					// set the new link list
-					transitRoute.setRoute(RouteUtils.createNetworkRoute(linkIdList, network));
+				if(stopsIterator.hasNext()) {
+					currentStop = stopsIterator.next();
 				}
 			}
 		}
+
+		// look for a closer link after the route's end
+		currentStop = routeStops.get(routeStops.size() - 1);
+		Set<Link> outlinksWithSameMode = NetworkTools.filterLinkSetExactlyByModes(linkList.get(linkList.size() - 1).getToNode().getOutLinks().values(), linkList.get(linkList.size() - 1).getAllowedModes());
+		Id<Link> closerLinkAfter = useCloserRefLinkForChildStopFacility(facilityProvider, network, transitRoute, currentStop.getStopFacility(), outlinksWithSameMode, pulled);
+		if(closerLinkAfter != null) {
+			linkIdList.add(closerLinkAfter);
+			nPulled++;
+		}
+
+		// set the new link list
+		transitRoute.setRoute(RouteUtils.createNetworkRoute(linkIdList, network));
 		return nPulled;
 	}
 
@@ -174,7 +258,7 @@ public final class PTMapperTools {
 	 * @return The id of the new closest link or <tt>null</tt> if the existing ref link
 	 * was used.
 	 */
-	private static Id<Link> useCloserRefLinkForChildStopFacility(TransitSchedule schedule, Network network, TransitRoute transitRoute, TransitStopFacility stopFacility, Collection<? extends Link> comparingLinks) {
+	private static Id<Link> useCloserRefLinkForChildStopFacility(ChildStopFacilityProvider facilityProvider, Network network, TransitRoute transitRoute, TransitStopFacility stopFacility, Collection<? extends Link> comparingLinks, List<TransitStopFacility> pulled) {
 		// check if previous link is closer to stop facility
 		double minDist = CoordTools.distanceStopFacilityToLink(stopFacility, network.getLinks().get(stopFacility.getLinkId()));
 		Link minLink = null;
@@ -188,25 +272,33 @@ public final class PTMapperTools {
 		}
 
 		if(minLink != null) {
-			TransitStopFacility newChildStopFacility;
 			Id<TransitStopFacility> parentId = ScheduleTools.createParentStopFacilityId(stopFacility);
 			Id<TransitStopFacility> newChildStopFacilityId = ScheduleTools.createChildStopFacilityId(parentId, minLink.getId());
-			if(schedule.getFacilities().containsKey(newChildStopFacilityId)) {
-				newChildStopFacility = schedule.getFacilities().get(newChildStopFacilityId);
-			} else {
-				newChildStopFacility = schedule.getFactory().createTransitStopFacility(newChildStopFacilityId, stopFacility.getCoord(), false);
-				newChildStopFacility.setName(stopFacility.getName());
-				newChildStopFacility.setStopAreaId(stopFacility.getStopAreaId());
-				newChildStopFacility.setLinkId(minLink.getId());
-				schedule.addStopFacility(newChildStopFacility);
-			}
+			TransitStopFacility newChildStopFacility = facilityProvider.getChildStopFacility(stopFacility, newChildStopFacilityId, minLink);
 			transitRoute.getStop(stopFacility).setStopFacility(newChildStopFacility);
+			pulled.add(newChildStopFacility);
 			return minLink.getId();
 		} else {
 			return null;
 		}
 	}
 
+	private static TransitStopFacility createChildStopFacility(TransitScheduleFactory factory, TransitStopFacility stopFacility, Id<TransitStopFacility> childId, Link link) {
+		TransitStopFacility newChildStopFacility = factory.createTransitStopFacility(childId, stopFacility.getCoord(), false);
+		newChildStopFacility.setName(stopFacility.getName());
+		newChildStopFacility.setStopAreaId(stopFacility.getStopAreaId());
+		newChildStopFacility.setLinkId(link.getId());
+		return newChildStopFacility;
+	}
+
+	/**
+	 * Returns the existing child stop facility with the given id or creates a new one
+	 * based on the stop facility that is replaced.
+	 */
+	private interface ChildStopFacilityProvider {
+		TransitStopFacility getChildStopFacility(TransitStopFacility stopFacility, Id<TransitStopFacility> childId, Link link);
+	}
+
 	public static void setLogLevels() {
 		Logger.getLogger(org.matsim.core.router.Dijkstra.class).setLevel(Level.ERROR); // suppress no route found warnings
 		Logger.getLogger(Network.class).setLevel(Level.WARN);
@@ -234,6 +326,25 @@ public final class PTMapperTools {
 	public static double calcTravelCost(Link link, PublicTransitMappingConfigGroup.TravelCostType travelCostType) {
 		return (travelCostType.equals(PublicTransitMappingConfigGroup.TravelCostType.travelTime) ? link.getLength() / link.getFreespeed() : link.getLength());
 	}
+
+	/**
+	 * Calculates the minimal travel cost per unit of beeline distance over all links of the network
+	 * (i.e. the inverse max freespeed for travel time if link lengths are at least the beeline distance).
+	 * Multiplied with the beeline distance between two nodes, this is a lower bound of the travel
+	 * cost of any path between them.
+	 *
+	 * @return 0 if no lower bound can be given (e.g. links with length 0)
+	 */
+	public static double calcMinTravelCostPerDistance(Network network, PublicTransitMappingConfigGroup.TravelCostType travelCostType) {
+		double minCostPerDistance = Double.POSITIVE_INFINITY;
+		for(Link link : network.getLinks().values()) {
+			double beelineDistance = CoordUtils.calcEuclideanDistance(link.getFromNode().getCoord(), link.getToNode().getCoord());
+			if(beelineDistance > 0) {
+				minCostPerDistance = Math.min(minCostPerDistance, calcTravelCost(link, travelCostType) / beelineDistance);
+			}
+		}
+		return minCostPerDistance == Double.POSITIVE_INFINITY || Double.isNaN(minCostPerDistance) ? 0 : minCostPerDistance;
+	}
 	
 	/**
 	 * "De-spaces" link IDs as pt2matsim may create stop-based links, with spaces
@@ -0,0 +1,239 @@
+package org.matsim.pt2matsim.tools;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.pt2matsim.tools.lib.RouteShape;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uniform grid over the segments of a {@link RouteShape} to calculate the minimal distance
+ * of a point to the shape. Returns the same distances as {@link ShapeTools#calcMinDistanceToShape}
+ * but only the grid cells around the point are searched instead of all shape segments. The
+ * shape coordinates are copied to arrays when the index is created, the index is not updated
+ * if the shape changes.
+ * <p/>
+ * The distances of links to the shape are stored, i.e. they are only calculated once per link.
+ * The index can be queried by multiple threads.
+ */
+public class ShapeDistanceIndex {
+
+	private final RouteShape shape;
+	private final double[] xs;
+	private final double[] ys;
+
+	// grid, the segments of cell c are cellSegments[cellStart[c]] to cellSegments[cellStart[c+1]-1]
+	private final double cellSize;
+	private final double minX;
+	private final double minY;
+	private final int nCellsX;
+	private final int nCellsY;
+	private final int[] cellStart;
+	private final int[] cellSegments;
+
+	private final Map<Id<Link>, Double> linkDistances = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an index with a cell size of about the average segment length of the shape
+	 */
+	public ShapeDistanceIndex(RouteShape shape) {
+		this(shape, -1);
+	}
+
+	/**
+	 * @param cellSize edge length of a grid cell, the average segment length (but at least
+	 *                 as large to keep the number of cells in the range of the number of
+	 *                 segments) is used if <tt>cellSize</tt> is not positive.
+	 */
+	public ShapeDistanceIndex(RouteShape shape, double cellSize) {
+		this.shape = shape;
+		Collection<Coord> coords = shape.getCoordsSorted().values();
+		int n = coords.size();
+		this.xs = new double[n];
+		this.ys = new double[n];
+		int i = 0;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		double length = 0;
+		for(Coord coord : coords) {
+			xs[i] = coord.getX();
+			ys[i] = coord.getY();
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+			if(i > 0) {
+				length += Math.sqrt(sq(xs[i] - xs[i - 1]) + sq(ys[i] - ys[i - 1]));
+			}
+			i++;
+		}
+		int nSegments = Math.max(0, n - 1);
+
+		if(cellSize <= 0) {
+			double avgSegmentLength = nSegments > 0 ? length / nSegments : 0;
+			double minCellSize = nSegments > 0 ? Math.sqrt((maxX - minX) * (maxY - minY) / (4.0 * nSegments)) : 0;
+			cellSize = Math.max(avgSegmentLength, minCellSize);
+			if(!(cellSize > 0)) cellSize = 1.0;
+		}
+		this.cellSize = cellSize;
+		this.minX = nSegments > 0 ? minX : 0;
+		this.minY = nSegments > 0 ? minY : 0;
+		this.nCellsX = nSegments > 0 ? (int) Math.floor((maxX - minX) / cellSize) + 1 : 0;
+		this.nCellsY = nSegments > 0 ? (int) Math.floor((maxY - minY) / cellSize) + 1 : 0;
+
+		/*
+		  A segment is stored in every cell of its bounding box whose center is at most half the
+		  cell diagonal away from the segment, i.e. in every cell the segment passes through.
+		 */
+		List<List<Integer>> cells = new ArrayList<>();
+		for(int c = 0; c < nCellsX * nCellsY; c++) {
+			cells.add(null);
+		}
+		double halfDiagonal = cellSize * Math.sqrt(0.5);
+		int nEntries = 0;
+		for(int s = 0; s < nSegments; s++) {
+			int x0 = cellX(Math.min(xs[s], xs[s + 1]));
+			int x1 = cellX(Math.max(xs[s], xs[s + 1]));
+			int y0 = cellY(Math.min(ys[s], ys[s + 1]));
+			int y1 = cellY(Math.max(ys[s], ys[s + 1]));
+			for(int x = x0; x <= x1; x++) {
+				for(int y = y0; y <= y1; y++) {
+					double centerX = this.minX + (x + 0.5) * cellSize;
+					double centerY = this.minY + (y + 0.5) * cellSize;
+					if(x0 == x1 || y0 == y1 || distancePointSegment(s, centerX, centerY) <= halfDiagonal) {
+						int c = x * nCellsY + y;
+						if(cells.get(c) == null) cells.set(c, new ArrayList<>());
+						cells.get(c).add(s);
+						nEntries++;
+					}
+				}
+			}
+		}
+		this.cellStart = new int[nCellsX * nCellsY + 1];
+		this.cellSegments = new int[nEntries];
+		int e = 0;
+		for(int c = 0; c < cells.size(); c++) {
+			cellStart[c] = e;
+			if(cells.get(c) != null) {
+				for(int s : cells.get(c)) {
+					cellSegments[e++] = s;
+				}
+			}
+		}
+		cellStart[cells.size()] = e;
+	}
+
+	public RouteShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return the minimal distance from the point to the shape, <tt>Double.MAX_VALUE</tt> if
+	 * the shape has less than two points.
+	 */
+	public double calcMinDistance(Coord point) {
+		return calcMinDistance(point.getX(), point.getY());
+	}
+
+	/**
+	 * Searches the cells ring by ring, starting with the cell of the point. Segments in cells
+	 * outside ring r are at least r * cellSize away from the point.
+	 */
+	public double calcMinDistance(double px, double py) {
+		double minDist = Double.MAX_VALUE;
+		if(cellSegments.length == 0) {
+			return minDist;
+		}
+		int cx = cellX(px);
+		int cy = cellY(py);
+		int firstRing = Math.max(Math.max(-cx, cx - (nCellsX - 1)), Math.max(-cy, cy - (nCellsY - 1)));
+		int lastRing = Math.max(Math.max(cx, nCellsX - 1 - cx), Math.max(cy, nCellsY - 1 - cy));
+		for(int ring = Math.max(0, firstRing); ring <= lastRing; ring++) {
+			for(int x = Math.max(cx - ring, 0); x <= Math.min(cx + ring, nCellsX - 1); x++) {
+				// only cells on the ring
+				if(x == cx - ring || x == cx + ring) {
+					for(int y = Math.max(cy - ring, 0); y <= Math.min(cy + ring, nCellsY - 1); y++) {
+						minDist = searchCell(x, y, px, py, minDist);
+					}
+				} else {
+					minDist = searchCell(x, cy - ring, px, py, minDist);
+					minDist = searchCell(x, cy + ring, px, py, minDist);
+				}
+			}
+			if(minDist <= ring * cellSize) {
+				break;
+			}
+		}
+		return minDist;
+	}
+
+	private double searchCell(int x, int y, double px, double py, double minDist) {
+		if(y < 0 || y >= nCellsY) {
+			return minDist;
+		}
+		int c = x * nCellsY + y;
+		for(int e = cellStart[c]; e < cellStart[c + 1]; e++) {
+			double dist = distancePointSegment(cellSegments[e], px, py);
+			if(dist < minDist) {
+				minDist = dist;
+			}
+		}
+		return minDist;
+	}
+
+	/**
+	 * @return the minimal distance from a link to the shape as average distance of the two
+	 * link nodes and the center of the link (see {@link ShapeTools#calcMinDistanceToShape(Link, RouteShape)}).
+	 * The distance is calculated once per link id.
+	 */
+	public double calcMinDistance(Link link) {
+		Double dist = linkDistances.get(link.getId());
+		if(dist == null) {
+			Coord c1 = link.getFromNode().getCoord();
+			Coord c2 = link.getToNode().getCoord();
+			double dist1 = calcMinDistance(c1.getX(), c1.getY());
+			double dist2 = calcMinDistance(c2.getX(), c2.getY());
+			double dist3 = calcMinDistance((c1.getX() + c2.getX()) / 2, (c1.getY() + c2.getY()) / 2);
+			dist = (dist1 + dist2 + dist3) / 3.0;
+			linkDistances.put(link.getId(), dist);
+		}
+		return dist;
+	}
+
+	/**
+	 * Distance from a point to segment s (see {@link org.matsim.core.utils.geometry.CoordUtils#distancePointLinesegment})
+	 */
+	private double distancePointSegment(int s, double px, double py) {
+		double x1 = xs[s], y1 = ys[s];
+		double dx = xs[s + 1] - x1;
+		double dy = ys[s + 1] - y1;
+		if(dx == 0 && dy == 0) {
+			return Math.sqrt(sq(px - x1) + sq(py - y1));
+		}
+		double u = ((px - x1) * dx + (py - y1) * dy) / (dx * dx + dy * dy);
+		if(u <= 0) {
+			return Math.sqrt(sq(px - x1) + sq(py - y1));
+		}
+		if(u >= 1) {
+			return Math.sqrt(sq(px - xs[s + 1]) + sq(py - ys[s + 1]));
+		}
+		return Math.sqrt(sq(px - (x1 + u * dx)) + sq(py - (y1 + u * dy)));
+	}
+
+	private int cellX(double x) {
+		return (int) Math.floor((x - minX) / cellSize);
+	}
+
+	private int cellY(double y) {
+		return (int) Math.floor((y - minY) / cellSize);
+	}
+
+	private static double sq(double d) {
+		return d * d;
+	}
+}
@@ -56,17 +56,21 @@ import static org.matsim.pt2matsim.tools.CsvTools.getIndices;
 public final class ShapeTools {
 
 	/**
-	 * Calculates the minimal distance from a point to a given routeShape
+	 * Calculates the minimal distance from a point to a given routeShape. Scans all shape
+	 * segments, use a {@link ShapeDistanceIndex} for repeated queries on the same shape.
 	 */
 	public static double calcMinDistanceToShape(Coord point, RouteShape shape) {
-		List<Coord> shapePoints = new ArrayList<>(shape.getCoordsSorted().values());
 		double minDist = Double.MAX_VALUE;
 		// look for the minimal distance between the current point and all pairs of shape points
-		for(int i = 0; i < shapePoints.size() - 1; i++) {
-			double dist = CoordUtils.distancePointLinesegment(shapePoints.get(i), shapePoints.get(i + 1), point);
-			if(dist < minDist) {
-				minDist = dist;
+		Coord previous = null;
+		for(Coord current : shape.getCoordsSorted().values()) {
+			if(previous != null) {
+				double dist = CoordUtils.distancePointLinesegment(previous, current, point);
+				if(dist < minDist) {
+					minDist = dist;
+				}
 			}
+			previous = current;
 		}
 		return minDist;
 	}
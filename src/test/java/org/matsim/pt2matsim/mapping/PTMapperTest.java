@@ -2,23 +2,34 @@ package org.matsim.pt2matsim.mapping;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.matsim.pt.utils.TransitScheduleValidator;
 import org.matsim.pt2matsim.config.OsmConverterConfigGroup;
 import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
 import org.matsim.pt2matsim.config.PublicTransitMappingStrings;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.PublicTransitStop;
+import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersContractionHierarchies;
+import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersStandard;
+import org.matsim.pt2matsim.mapping.pseudoRouter.PseudoRouteStop;
 import org.matsim.pt2matsim.run.CreateDefaultPTMapperConfig;
 import org.matsim.pt2matsim.tools.NetworkToolsTest;
 import org.matsim.pt2matsim.tools.ScheduleTools;
 import org.matsim.pt2matsim.tools.ScheduleToolsTest;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.matsim.pt2matsim.tools.ScheduleToolsTest.ROUTE_B;
@@ -28,6 +39,9 @@ import static org.matsim.pt2matsim.tools.ScheduleToolsTest.ROUTE_B;
  */
 public class PTMapperTest {
 
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
 	public Network network;
 	public TransitSchedule schedule;
 	public PublicTransitMappingConfigGroup ptmConfig;
@@ -69,6 +83,15 @@ public class PTMapperTest {
 		}
 	}
 
+	/**
+	 * Ids are interned and never released, mapping the schedule must not create ids for stops
+	 */
+	@Test
+	public void noIdsForStops() {
+		Assert.assertEquals(0, Id.getNumberOfIds(PublicTransitStop.class));
+		Assert.assertEquals(0, Id.getNumberOfIds(PseudoRouteStop.class));
+	}
+
 	@Test
 	public void numberOfStopFacilities() {
 		Assert.assertEquals(10, schedule.getFacilities().size());
@@ -103,6 +126,198 @@ public class PTMapperTest {
 		Assert.assertEquals(NetworkToolsTest.initNetwork().getLinks().size()+4, network2.getLinks().size());
 		Assert.assertEquals(9, schedule2.getFacilities().size());
 	}
+
+	@Test
+	public void staticAndDynamicScheduling() {
+		PublicTransitMappingConfigGroup staticConfig = initPTMConfig();
+		staticConfig.setPseudoRoutingScheduling(PublicTransitMappingConfigGroup.PseudoRoutingScheduling.staticLines);
+		TransitSchedule staticSchedule = ScheduleToolsTest.initUnmappedSchedule();
+		new PTMapper(staticSchedule, NetworkToolsTest.initNetwork()).run(staticConfig);
+
+		PublicTransitMappingConfigGroup dynamicConfig = initPTMConfig();
+		dynamicConfig.setPseudoRoutingScheduling(PublicTransitMappingConfigGroup.PseudoRoutingScheduling.dynamicRoutes);
+		dynamicConfig.setNumOfThreads(4);
+		TransitSchedule dynamicSchedule = ScheduleToolsTest.initUnmappedSchedule();
+		new PTMapper(dynamicSchedule, NetworkToolsTest.initNetwork()).run(dynamicConfig);
+
+		for(TransitLine l : staticSchedule.getTransitLines().values()) {
+			for(TransitRoute r : l.getRoutes().values()) {
+				TransitRoute dynamicRoute = dynamicSchedule.getTransitLines().get(l.getId()).getRoutes().get(r.getId());
+				Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(r), ScheduleTools.getTransitRouteLinkIds(dynamicRoute));
+			}
+		}
+	}
+
+	@Test
+	public void contractionHierarchies() {
+		PublicTransitMappingConfigGroup chConfig = initPTMConfig();
+		TransitSchedule chSchedule = ScheduleToolsTest.initUnmappedSchedule();
+		Network chNetwork = NetworkToolsTest.initNetwork();
+		new PTMapper(chSchedule, chNetwork).run(chConfig, null, new ScheduleRoutersContractionHierarchies.Factory(chSchedule, chNetwork, chConfig));
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(chSchedule, chNetwork).isValid());
+		for(TransitLine l : schedule.getTransitLines().values()) {
+			for(TransitRoute r : l.getRoutes().values()) {
+				TransitRoute chRoute = chSchedule.getTransitLines().get(l.getId()).getRoutes().get(r.getId());
+				if(!r.getId().equals(ROUTE_B)) { // route B has paths with equal costs
+					Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(r), ScheduleTools.getTransitRouteLinkIds(chRoute));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void identicalRoutesAreCopied() {
+		TransitSchedule schedule2 = ScheduleToolsTest.initUnmappedSchedule();
+		TransitScheduleFactory fac = schedule2.getFactory();
+		TransitLine lineA = schedule2.getTransitLines().get(ScheduleToolsTest.LINE_A);
+		TransitRoute routeA1 = lineA.getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+
+		// same stop sequence with different offsets
+		List<TransitRouteStop> copyStops = new ArrayList<>();
+		for(TransitRouteStop routeStop : routeA1.getStops()) {
+			copyStops.add(fac.createTransitRouteStop(routeStop.getStopFacility(), routeStop.getArrivalOffset().seconds() * 2, routeStop.getDepartureOffset().seconds() * 2));
+		}
+		Id<TransitRoute> copyId = Id.create("routeA1copy", TransitRoute.class);
+		lineA.addRoute(fac.createTransitRoute(copyId, null, copyStops, "bus"));
+
+		Network network2 = NetworkToolsTest.initNetwork();
+		PTMapper ptMapper = new PTMapper(schedule2, network2);
+		ptMapper.run(initPTMConfig());
+		Assert.assertEquals(1, ptMapper.getNumberOfCopiedRoutes());
+
+		TransitRoute mappedA1 = schedule2.getTransitLines().get(ScheduleToolsTest.LINE_A).getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+		TransitRoute mappedCopy = schedule2.getTransitLines().get(ScheduleToolsTest.LINE_A).getRoutes().get(copyId);
+		Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(mappedA1), ScheduleTools.getTransitRouteLinkIds(mappedCopy));
+		Assert.assertEquals(copyStops.get(1).getArrivalOffset().seconds(), mappedCopy.getStops().get(1).getArrivalOffset().seconds(), 0.0);
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule2, network2).isValid());
+	}
+
+	@Test
+	public void incrementalMapping() {
+		TransitSchedule schedule2 = ScheduleToolsTest.initUnmappedSchedule();
+		TransitScheduleFactory fac = schedule2.getFactory();
+		TransitLine lineA = schedule2.getTransitLines().get(ScheduleToolsTest.LINE_A);
+		TransitRoute routeA1 = lineA.getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+
+		// new transit route, has to be routed
+		List<TransitRouteStop> newStops = new ArrayList<>();
+		for(TransitRouteStop routeStop : routeA1.getStops().subList(0, 3)) {
+			newStops.add(fac.createTransitRouteStop(routeStop.getStopFacility(), routeStop.getArrivalOffset().seconds(), routeStop.getDepartureOffset().seconds()));
+		}
+		Id<TransitRoute> newId = Id.create("routeA1short", TransitRoute.class);
+		lineA.addRoute(fac.createTransitRoute(newId, null, newStops, "bus"));
+
+		Network network2 = NetworkToolsTest.initNetwork();
+		new PTMapper(schedule2, network2, schedule, network).run(initPTMConfig());
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule2, network2).isValid());
+		for(TransitLine l : schedule.getTransitLines().values()) {
+			for(TransitRoute r : l.getRoutes().values()) {
+				TransitRoute route2 = schedule2.getTransitLines().get(l.getId()).getRoutes().get(r.getId());
+				Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(r), ScheduleTools.getTransitRouteLinkIds(route2));
+				for(int i = 0; i < r.getStops().size(); i++) {
+					Assert.assertEquals(r.getStops().get(i).getStopFacility().getId(), route2.getStops().get(i).getStopFacility().getId());
+				}
+			}
+		}
+		TransitRoute newRoute = schedule2.getTransitLines().get(ScheduleToolsTest.LINE_A).getRoutes().get(newId);
+		Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(routeA1).subList(0, 3), ScheduleTools.getTransitRouteLinkIds(newRoute).subList(0, 3));
+	}
+
+	@Test
+	public void incrementalMappingCopiesArtificialLinks() {
+		PublicTransitMappingConfigGroup ptmConfig2 = initPTMConfig();
+		ptmConfig2.setMaxLinkCandidateDistance(3);
+
+		TransitSchedule previousSchedule = ScheduleToolsTest.initUnmappedSchedule();
+		Network previousNetwork = NetworkToolsTest.initNetwork();
+		new PTMapper(previousSchedule, previousNetwork).run(ptmConfig2);
+
+		// all transit routes are reused, the input network does not contain any artificial links
+		TransitSchedule schedule2 = ScheduleToolsTest.initUnmappedSchedule();
+		Network network2 = NetworkToolsTest.initNetwork();
+		new PTMapper(schedule2, network2, previousSchedule, previousNetwork).run(ptmConfig2);
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule2, network2).isValid());
+		Assert.assertEquals(previousNetwork.getLinks().keySet(), network2.getLinks().keySet());
+		for(TransitLine l : previousSchedule.getTransitLines().values()) {
+			for(TransitRoute r : l.getRoutes().values()) {
+				TransitRoute route2 = schedule2.getTransitLines().get(l.getId()).getRoutes().get(r.getId());
+				Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(r), ScheduleTools.getTransitRouteLinkIds(route2));
+			}
+		}
+	}
+
+	@Test
+	public void incrementalMappingReroutesRemovedLinks() {
+		TransitRoute previousRoute = schedule.getTransitLines().get(ScheduleToolsTest.LINE_A).getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+		List<Id<Link>> previousLinkIds = ScheduleTools.getTransitRouteLinkIds(previousRoute);
+		Id<Link> removedLinkId = null;
+		for(Id<Link> linkId : previousLinkIds.subList(1, previousLinkIds.size() - 1)) {
+			if(!linkId.toString().startsWith(PublicTransitMappingStrings.PREFIX_ARTIFICIAL)) {
+				removedLinkId = linkId;
+				break;
+			}
+		}
+		Assert.assertNotNull(removedLinkId);
+
+		// the street has been removed from the network, the transit route must not be reused
+		TransitSchedule schedule2 = ScheduleToolsTest.initUnmappedSchedule();
+		Network network2 = NetworkToolsTest.initNetwork();
+		network2.removeLink(removedLinkId);
+		new PTMapper(schedule2, network2, schedule, network).run(initPTMConfig());
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule2, network2).isValid());
+		Assert.assertFalse(network2.getLinks().containsKey(removedLinkId));
+		TransitRoute route2 = schedule2.getTransitLines().get(ScheduleToolsTest.LINE_A).getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+		Assert.assertFalse(ScheduleTools.getTransitRouteLinkIds(route2).contains(removedLinkId));
+	}
+
+	@Test
+	public void resumeFromCheckpoint() throws Exception {
+		PublicTransitMappingConfigGroup ptmConfig2 = initPTMConfig();
+		ptmConfig2.setMaxLinkCandidateDistance(3);
+		File checkpointFile = new File(tmp.getRoot(), "checkpoint.bin");
+
+		TransitSchedule schedule1 = ScheduleToolsTest.initUnmappedSchedule();
+		Network network1 = NetworkToolsTest.initNetwork();
+		PTMapper ptMapper1 = new PTMapper(schedule1, network1);
+		ptMapper1.setCheckpoint(checkpointFile.getPath(), false);
+		ptMapper1.run(ptmConfig2);
+
+		// process killed while writing the last record
+		try(RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+
+		TransitSchedule schedule2 = ScheduleToolsTest.initUnmappedSchedule();
+		Network network2 = NetworkToolsTest.initNetwork();
+		PTMapper ptMapper2 = new PTMapper(schedule2, network2);
+		ptMapper2.setCheckpoint(checkpointFile.getPath(), true);
+		ptMapper2.run(ptmConfig2);
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule2, network2).isValid());
+		Assert.assertEquals(network1.getLinks().keySet(), network2.getLinks().keySet());
+		for(TransitLine l : schedule1.getTransitLines().values()) {
+			for(TransitRoute r : l.getRoutes().values()) {
+				TransitRoute route2 = schedule2.getTransitLines().get(l.getId()).getRoutes().get(r.getId());
+				Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(r), ScheduleTools.getTransitRouteLinkIds(route2));
+			}
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void checkpointRequiresRoutersFromConfig() {
+		PublicTransitMappingConfigGroup config = initPTMConfig();
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		Network network = NetworkToolsTest.initNetwork();
+
+		PTMapper ptMapper = new PTMapper(schedule, network);
+		ptMapper.setCheckpoint(new File(tmp.getRoot(), "checkpoint.bin").getPath(), true);
+		ptMapper.run(config, null, new ScheduleRoutersStandard.Factory(schedule, network, config));
+	}
+
 	@Test
 	public void noTransportModeAssignment() {
 		PublicTransitMappingConfigGroup noTMAConfig = new PublicTransitMappingConfigGroup();
@@ -0,0 +1,139 @@
+package org.matsim.pt2matsim.mapping.linkCandidateCreation;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt.utils.TransitScheduleValidator;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.mapping.PTMapper;
+import org.matsim.pt2matsim.mapping.PTMapperTest;
+import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersFactory;
+import org.matsim.pt2matsim.mapping.networkRouter.ScheduleRoutersGtfsShapes;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.pt2matsim.tools.PTMapperTools;
+import org.matsim.pt2matsim.tools.ScheduleToolsTest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SortedSet;
+
+public class LinkCandidateCreatorLazyTest {
+
+	@Test
+	public void mapWithLazyCandidates() {
+		PublicTransitMappingConfigGroup config = PTMapperTest.initPTMConfig();
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		Network network = NetworkToolsTest.initNetwork();
+
+		new PTMapper(schedule, network).run(config, new LinkCandidateCreatorLazy(schedule, network, config), null);
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule, network).isValid());
+	}
+
+	@Test
+	public void mapWithLazyCandidatesFromConfig() {
+		PublicTransitMappingConfigGroup config = PTMapperTest.initPTMConfig();
+		config.setLinkCandidateCreatorType(PublicTransitMappingConfigGroup.LinkCandidateCreatorType.lazy);
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		Network network = NetworkToolsTest.initNetwork();
+
+		new PTMapper(schedule, network).run(config);
+
+		Assert.assertTrue(TransitScheduleValidator.validateAll(schedule, network).isValid());
+	}
+
+	@Test
+	public void candidatesAreShared() {
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		TransitScheduleFactory fac = schedule.getFactory();
+		TransitLine lineA = schedule.getTransitLines().get(ScheduleToolsTest.LINE_A);
+		TransitRoute routeA1 = lineA.getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+
+		List<TransitRouteStop> copyStops = new ArrayList<>();
+		for(TransitRouteStop routeStop : routeA1.getStops()) {
+			copyStops.add(fac.createTransitRouteStop(routeStop.getStopFacility(), routeStop.getArrivalOffset().seconds() * 2, routeStop.getDepartureOffset().seconds() * 2));
+		}
+		TransitRoute copy = fac.createTransitRoute(Id.create("routeA1copy", TransitRoute.class), null, copyStops, "bus");
+		lineA.addRoute(copy);
+
+		LinkCandidateCreatorLazy lazy = new LinkCandidateCreatorLazy(schedule, NetworkToolsTest.initNetwork(), PTMapperTest.initPTMConfig());
+		for(int i = 0; i < copyStops.size(); i++) {
+			SortedSet<LinkCandidate> candidates = lazy.getLinkCandidates(routeA1.getStops().get(i), lineA, routeA1);
+			Assert.assertFalse(candidates.isEmpty());
+			Assert.assertSame(candidates, lazy.getLinkCandidates(copyStops.get(i), lineA, copy));
+		}
+		Assert.assertEquals(2 * copyStops.size(), lazy.getNumberOfRequests());
+		Assert.assertEquals(copyStops.size(), lazy.getNumberOfCreatedCandidateSets());
+	}
+
+	@Test
+	public void removedCandidatesAreRecreated() {
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		PublicTransitMappingConfigGroup config = PTMapperTest.initPTMConfig();
+		Network network = NetworkToolsTest.initNetwork();
+		LinkCandidateCreatorLazy unbounded = new LinkCandidateCreatorLazy(schedule, network, config.getNLinkThreshold(), config.getCandidateDistanceMultiplier(), config.getMaxLinkCandidateDistance(), config.getTransportModeAssignment(), Integer.MAX_VALUE);
+		LinkCandidateCreatorLazy bounded = new LinkCandidateCreatorLazy(schedule, network, config.getNLinkThreshold(), config.getCandidateDistanceMultiplier(), config.getMaxLinkCandidateDistance(), config.getTransportModeAssignment(), 1);
+
+		for(int run = 0; run < 2; run++) {
+			for(TransitLine transitLine : schedule.getTransitLines().values()) {
+				for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+					for(TransitRouteStop routeStop : transitRoute.getStops()) {
+						Assert.assertEquals(getLinkIds(unbounded.getLinkCandidates(routeStop, transitLine, transitRoute)), getLinkIds(bounded.getLinkCandidates(routeStop, transitLine, transitRoute)));
+					}
+				}
+			}
+		}
+		Assert.assertTrue(bounded.getNumberOfCreatedCandidateSets() > unbounded.getNumberOfCreatedCandidateSets());
+	}
+
+	private static List<Id<Link>> getLinkIds(SortedSet<LinkCandidate> candidates) {
+		List<Id<Link>> linkIds = new ArrayList<>();
+		for(LinkCandidate candidate : candidates) {
+			linkIds.add(candidate.getLink().getId());
+		}
+		return linkIds;
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void lazyCandidatesWithShapesAreRejected() {
+		PublicTransitMappingConfigGroup config = PTMapperTest.initPTMConfig();
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		Network network = NetworkToolsTest.initNetwork();
+
+		ScheduleRoutersFactory shapesFactory = new ScheduleRoutersGtfsShapes.Factory(schedule, network, new HashMap<>(), config.getTransportModeAssignment(), config.getTravelCostType(), 50, 200);
+		new PTMapper(schedule, network).run(config, new LinkCandidateCreatorLazy(schedule, network, config), shapesFactory);
+	}
+
+	@Test
+	public void loopLinksAreAddedAfterRouting() {
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		TransitScheduleFactory fac = schedule.getFactory();
+		TransitLine lineA = schedule.getTransitLines().get(ScheduleToolsTest.LINE_A);
+		TransitStopFacility firstFacility = lineA.getRoutes().get(ScheduleToolsTest.ROUTE_A1).getStops().get(0).getStopFacility();
+
+		TransitStopFacility farFacility = fac.createTransitStopFacility(Id.create("far", TransitStopFacility.class), new Coord(firstFacility.getCoord().getX() + 100000, firstFacility.getCoord().getY()), false);
+		schedule.addStopFacility(farFacility);
+		List<TransitRouteStop> stops = new ArrayList<>();
+		stops.add(fac.createTransitRouteStop(farFacility, 0, 0));
+		stops.add(fac.createTransitRouteStop(firstFacility, 60, 60));
+		TransitRoute farRoute = fac.createTransitRoute(Id.create("farRoute", TransitRoute.class), null, stops, "bus");
+		lineA.addRoute(farRoute);
+
+		Network network = NetworkToolsTest.initNetwork();
+		LinkCandidateCreatorLazy lazy = new LinkCandidateCreatorLazy(schedule, network, PTMapperTest.initPTMConfig());
+		SortedSet<LinkCandidate> candidates = lazy.getLinkCandidates(stops.get(0), lineA, farRoute);
+		Assert.assertEquals(1, candidates.size());
+		Link loopLink = candidates.first().getLink();
+		Assert.assertEquals(PTMapperTools.createArtificialLinkId(farFacility), loopLink.getId());
+		Assert.assertFalse(network.getLinks().containsKey(loopLink.getId()));
+
+		lazy.addLoopLinks(network);
+		Assert.assertSame(loopLink, network.getLinks().get(loopLink.getId()));
+		Assert.assertTrue(network.getNodes().containsKey(loopLink.getFromNode().getId()));
+	}
+}
@@ -0,0 +1,81 @@
+package org.matsim.pt2matsim.mapping.linkCandidateCreation;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.mapping.PTMapperTest;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.pt2matsim.tools.ScheduleToolsTest;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+
+public class LinkCandidateCreatorStandardTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void sameCandidatesForAllNumbersOfThreads() {
+		Map<String, String> expected = createCandidates(1);
+		Assert.assertFalse(expected.isEmpty());
+
+		for(int numOfThreads : new int[]{2, 3, 8}) {
+			Assert.assertEquals(expected, createCandidates(numOfThreads));
+		}
+	}
+
+	@Test
+	public void sameCandidatesFromCacheFile() throws Exception {
+		String cacheDirectory = tmp.newFolder("cache").getPath();
+		Map<String, String> expected = createCandidates(1);
+
+		Assert.assertEquals(expected, createCandidates(1, cacheDirectory));
+		File[] cacheFiles = new File(cacheDirectory).listFiles((dir, name) -> name.startsWith("linkCandidates_"));
+		Assert.assertNotNull(cacheFiles);
+		Assert.assertEquals(1, cacheFiles.length);
+		long lastModified = cacheFiles[0].lastModified();
+
+		// loaded from the cache file, the file is not written again
+		Assert.assertEquals(expected, createCandidates(2, cacheDirectory));
+		Assert.assertEquals(lastModified, cacheFiles[0].lastModified());
+	}
+
+	/**
+	 * @return the link ids and priorities of all candidates by line, route and stop
+	 */
+	private Map<String, String> createCandidates(int numOfThreads) {
+		return createCandidates(numOfThreads, null);
+	}
+
+	private Map<String, String> createCandidates(int numOfThreads, String cacheDirectory) {
+		TransitSchedule schedule = ScheduleToolsTest.initUnmappedSchedule();
+		PublicTransitMappingConfigGroup config = PTMapperTest.initPTMConfig();
+		config.setNumOfThreads(numOfThreads);
+		config.setCacheDirectory(cacheDirectory);
+		LinkCandidateCreator linkCandidateCreator = new LinkCandidateCreatorStandard(schedule, NetworkToolsTest.initNetwork(), config);
+
+		Map<String, String> candidates = new HashMap<>();
+		for(TransitLine transitLine : schedule.getTransitLines().values()) {
+			for(TransitRoute transitRoute : transitLine.getRoutes().values()) {
+				for(TransitRouteStop routeStop : transitRoute.getStops()) {
+					SortedSet<LinkCandidate> stopCandidates = linkCandidateCreator.getLinkCandidates(routeStop, transitLine, transitRoute);
+					StringBuilder sb = new StringBuilder();
+					for(LinkCandidate lc : stopCandidates) {
+						sb.append(lc.getLink().getId()).append(":").append(lc.getPriority()).append(" ");
+					}
+					candidates.put(new PublicTransitStopImpl(transitLine, transitRoute, routeStop).toString(), sb.toString());
+				}
+			}
+		}
+		return candidates;
+	}
+}
@@ -0,0 +1,129 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ContractionHierarchyTest {
+
+	private final TravelTimeRouter router = new TravelTimeRouter();
+
+	@Test
+	public void sameCostAsDijkstra() {
+		Network network = NetworkToolsTest.initNetwork();
+		LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(network, router, router);
+		ContractionHierarchy ch = new ContractionHierarchy(network, router, router);
+
+		for(Node fromNode : network.getNodes().values()) {
+			Map<Node, LeastCostPathCalculator.Path> paths = ch.calcLeastCostPaths(fromNode, network.getNodes().values(), Double.MAX_VALUE);
+
+			for(Node toNode : network.getNodes().values()) {
+				LeastCostPathCalculator.Path expected = dijkstra.calcLeastCostPath(fromNode, toNode, 0, null, null);
+				LeastCostPathCalculator.Path pointToPoint = ch.calcLeastCostPath(fromNode, toNode, 0, null, null);
+				LeastCostPathCalculator.Path oneToMany = paths.get(toNode);
+				if(expected == null) {
+					Assert.assertNull(pointToPoint);
+					Assert.assertNull(oneToMany);
+				} else {
+					assertValidPath(expected, pointToPoint, fromNode, toNode);
+					assertValidPath(expected, oneToMany, fromNode, toNode);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void gridNetwork() {
+		Network network = PathCalculatorScalingTest.createGridNetwork(30);
+		OneToManyDijkstra dijkstra = new OneToManyDijkstra(router, router);
+		ContractionHierarchy ch = new ContractionHierarchy(network, router, router);
+
+		Random random = new Random(42);
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		for(int i = 0; i < 200; i++) {
+			Node fromNode = nodes.get(random.nextInt(nodes.size()));
+			List<Node> toNodes = new ArrayList<>();
+			for(int t = 0; t < 5; t++) {
+				toNodes.add(nodes.get(random.nextInt(nodes.size())));
+			}
+			double maxTravelCost = i % 2 == 0 ? Double.MAX_VALUE : 100 + random.nextDouble() * 300;
+
+			Map<Node, LeastCostPathCalculator.Path> expected = dijkstra.calcLeastCostPaths(fromNode, toNodes, maxTravelCost);
+			Map<Node, LeastCostPathCalculator.Path> actual = ch.calcLeastCostPaths(fromNode, toNodes, maxTravelCost);
+			Assert.assertEquals(expected.keySet(), actual.keySet());
+			for(Map.Entry<Node, LeastCostPathCalculator.Path> e : expected.entrySet()) {
+				assertValidPath(e.getValue(), actual.get(e.getKey()), fromNode, e.getKey());
+				assertValidPath(e.getValue(), ch.calcLeastCostPath(fromNode, e.getKey(), 0, null, null), fromNode, e.getKey());
+			}
+		}
+	}
+
+	@Test
+	public void searchIsBounded() {
+		Network network = NetworkToolsTest.initNetwork();
+		ContractionHierarchy ch = new ContractionHierarchy(network, router, router);
+		Node nodeA = network.getNodes().get(Id.createNodeId("A"));
+		Node nodeB = network.getNodes().get(Id.createNodeId("B"));
+		Node nodeG = network.getNodes().get(Id.createNodeId("G"));
+
+		// freespeed is 1 on all links, travel time equals link length
+		Map<Node, LeastCostPathCalculator.Path> paths = ch.calcLeastCostPaths(nodeA, network.getNodes().values(), 25);
+		Assert.assertEquals(20.0, paths.get(nodeB).travelCost, 0.0001);
+		Assert.assertNull(paths.get(nodeG));
+		for(LeastCostPathCalculator.Path path : paths.values()) {
+			Assert.assertTrue(path.travelCost <= 25);
+		}
+	}
+
+	/**
+	 * Same cost as the expected path and the links form a connected path from fromNode to toNode
+	 */
+	private void assertValidPath(LeastCostPathCalculator.Path expected, LeastCostPathCalculator.Path actual, Node fromNode, Node toNode) {
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.travelCost, actual.travelCost, 0.0001);
+		Assert.assertEquals(actual.links.size() + 1, actual.nodes.size());
+
+		Node current = fromNode;
+		double cost = 0;
+		for(Link link : actual.links) {
+			Assert.assertEquals(current.getId(), link.getFromNode().getId());
+			current = link.getToNode();
+			cost += router.getLinkMinimumTravelDisutility(link);
+		}
+		Assert.assertEquals(toNode.getId(), current.getId());
+		Assert.assertEquals(actual.travelCost, cost, 0.0001);
+	}
+
+	private static class TravelTimeRouter implements TravelDisutility, TravelTime {
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return link.getLength() / link.getFreespeed();
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.*;
+
+public class NetworkViewTest {
+
+	private Network network;
+	private Network cutNetwork;
+	private NetworkView view;
+
+	@Before
+	public void prepare() {
+		network = NetworkToolsTest.initNetwork();
+		cutNetwork = NetworkToolsTest.initNetwork();
+
+		Set<Node> viewNodes = new HashSet<>();
+		Set<Node> cutNodes = new HashSet<>();
+		for(String id : new String[]{"A", "B", "C", "D", "H", "I", "W"}) {
+			viewNodes.add(network.getNodes().get(Id.createNodeId(id)));
+			cutNodes.add(cutNetwork.getNodes().get(Id.createNodeId(id)));
+		}
+		NetworkTools.cutNetwork(cutNetwork, cutNodes);
+		view = new NetworkView(new NetworkView.BaseGraph(network), viewNodes);
+	}
+
+	@Test
+	public void sameElementsAsCutNetwork() {
+		Assert.assertEquals(cutNetwork.getNodes().size(), view.getNumberOfNodes());
+		Assert.assertEquals(cutNetwork.getLinks().size(), view.getNumberOfLinks());
+		Assert.assertEquals(network.getNodes().size(), view.getBase().getNumberOfNodes());
+
+		for(Node node : network.getNodes().values()) {
+			Assert.assertEquals(cutNetwork.getNodes().containsKey(node.getId()), view.containsNode(node));
+			Assert.assertEquals(cutNetwork.getNodes().containsKey(node.getId()) ? node : null, view.getNode(node.getId()));
+		}
+		for(Link link : network.getLinks().values()) {
+			Assert.assertEquals(cutNetwork.getLinks().containsKey(link.getId()), view.containsLink(link));
+		}
+		// elements of another network with the same ids are not part of the view
+		for(Link link : cutNetwork.getLinks().values()) {
+			Assert.assertFalse(view.containsLink(link));
+		}
+	}
+
+	@Test
+	public void sameCostAsCutNetwork() {
+		LinkLengthRouter router = new LinkLengthRouter();
+		OneToManyDijkstra onView = new OneToManyDijkstra(router, router, view);
+		OneToManyDijkstra onCutNetwork = new OneToManyDijkstra(router, router);
+
+		for(Node fromNode : cutNetwork.getNodes().values()) {
+			Map<Node, LeastCostPathCalculator.Path> expectedPaths = onCutNetwork.calcLeastCostPaths(fromNode, cutNetwork.getNodes().values(), Double.MAX_VALUE);
+			List<Node> toNodes = new ArrayList<>();
+			for(Node toNode : cutNetwork.getNodes().values()) {
+				toNodes.add(view.getNode(toNode.getId()));
+			}
+			Map<Node, LeastCostPathCalculator.Path> actualPaths = onView.calcLeastCostPaths(view.getNode(fromNode.getId()), toNodes, Double.MAX_VALUE);
+
+			for(Node toNode : cutNetwork.getNodes().values()) {
+				assertSamePath(expectedPaths.get(toNode), actualPaths.get(view.getNode(toNode.getId())));
+			}
+		}
+	}
+
+	@Test
+	public void sameCostOnRestrictedGraph() {
+		LinkLengthRouter router = new LinkLengthRouter();
+		OneToManyDijkstra onCutNetwork = new OneToManyDijkstra(router, router);
+		// the graph of the base network is compiled with other travel costs than the restricted graph
+		UnitCostRouter unitCostRouter = new UnitCostRouter();
+		RoutingGraph.RestrictedGraph restrictedGraph = new RoutingGraph(view.getBase(), unitCostRouter, unitCostRouter).restrict(view, router);
+
+		for(Node node : network.getNodes().values()) {
+			Assert.assertEquals(view.getNode(node.getId()), restrictedGraph.getNode(node.getId()));
+		}
+
+		for(Node fromNode : cutNetwork.getNodes().values()) {
+			Map<Node, LeastCostPathCalculator.Path> expectedPaths = onCutNetwork.calcLeastCostPaths(fromNode, cutNetwork.getNodes().values(), Double.MAX_VALUE);
+			List<Node> toNodes = new ArrayList<>();
+			for(Node toNode : cutNetwork.getNodes().values()) {
+				toNodes.add(restrictedGraph.getNode(toNode.getId()));
+			}
+			Node viewFromNode = restrictedGraph.getNode(fromNode.getId());
+			Map<Node, LeastCostPathCalculator.Path> actualPaths = restrictedGraph.calcLeastCostPaths(viewFromNode, toNodes, Double.MAX_VALUE);
+
+			for(Node toNode : cutNetwork.getNodes().values()) {
+				Node viewToNode = restrictedGraph.getNode(toNode.getId());
+				assertSamePath(expectedPaths.get(toNode), actualPaths.get(viewToNode));
+				assertSamePath(expectedPaths.get(toNode), restrictedGraph.calcLeastCostPath(viewFromNode, viewToNode));
+			}
+		}
+	}
+
+	private void assertSamePath(LeastCostPathCalculator.Path expected, LeastCostPathCalculator.Path actual) {
+		if(expected == null) {
+			Assert.assertNull(actual);
+		} else {
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.travelCost, actual.travelCost, 0.0001);
+			Assert.assertEquals(expected.links.size(), actual.links.size());
+			for(Link link : actual.links) {
+				Assert.assertTrue(view.containsLink(link));
+			}
+		}
+	}
+
+	private static class LinkLengthRouter implements TravelDisutility, TravelTime {
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength();
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return link.getLength();
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+
+	private static class UnitCostRouter extends LinkLengthRouter {
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return 1;
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return 1;
+		}
+	}
+}
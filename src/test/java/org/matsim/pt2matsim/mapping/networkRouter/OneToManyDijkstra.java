@@ -0,0 +1,136 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.*;
+
+/**
+ * Dijkstra search from one source node to multiple target nodes. Instead of
+ * running one point-to-point query per target, the search tree of the source
+ * is expanded until all targets are settled. The search is aborted as soon as
+ * the travel cost of the next node exceeds a given bound, targets beyond that
+ * bound are not reached.
+ * <p/>
+ * The network used is the one the nodes belong to (i.e. out links of the
+ * nodes are followed), restricted to the links of a {@link NetworkView} if
+ * one is given. All search data is local to a query, an instance can
+ * be used by multiple threads as long as the travel disutility and travel time
+ * are thread safe.
+ * <p/>
+ * Only used by tests as reference for the one-to-many searches of
+ * {@link RoutingGraph} and {@link ContractionHierarchy}.
+ */
+public class OneToManyDijkstra implements OneToManyPathCalculator {
+
+	private final TravelDisutility travelDisutility;
+	private final TravelTime travelTime;
+	private final NetworkView view;
+
+	public OneToManyDijkstra(TravelDisutility travelDisutility, TravelTime travelTime) {
+		this(travelDisutility, travelTime, null);
+	}
+
+	/**
+	 * @param view only links of this view are followed, all links are followed if <tt>null</tt>
+	 */
+	public OneToManyDijkstra(TravelDisutility travelDisutility, TravelTime travelTime, NetworkView view) {
+		this.travelDisutility = travelDisutility;
+		this.travelTime = travelTime;
+		this.view = view;
+	}
+
+	@Override
+	public Map<Node, LeastCostPathCalculator.Path> calcLeastCostPaths(Node fromNode, Collection<? extends Node> toNodes, double maxTravelCost) {
+		Map<Node, LeastCostPathCalculator.Path> paths = new HashMap<>();
+		Set<Node> targets = new HashSet<>(toNodes);
+		if(targets.isEmpty()) {
+			return paths;
+		}
+
+		Map<Node, NodeData> nodeData = new HashMap<>();
+		PriorityQueue<NodeData> queue = new PriorityQueue<>();
+
+		NodeData start = new NodeData(fromNode, null, null, 0, 0);
+		nodeData.put(fromNode, start);
+		queue.add(start);
+
+		while(!queue.isEmpty() && paths.size() < targets.size()) {
+			NodeData current = queue.poll();
+			if(current.settled) {
+				continue;
+			}
+			if(current.cost > maxTravelCost) {
+				break;
+			}
+			current.settled = true;
+
+			if(targets.contains(current.node)) {
+				paths.put(current.node, constructPath(current));
+			}
+
+			for(Link link : current.node.getOutLinks().values()) {
+				if(view != null && !view.containsLink(link)) {
+					continue;
+				}
+				Node toNode = link.getToNode();
+				double cost = current.cost + travelDisutility.getLinkTravelDisutility(link, 0, null, null);
+				NodeData toData = nodeData.get(toNode);
+				if(toData == null || (!toData.settled && cost < toData.cost)) {
+					double time = current.time + travelTime.getLinkTravelTime(link, 0, null, null);
+					NodeData newData = new NodeData(toNode, current, link, cost, time);
+					if(toData != null) {
+						// lazy deletion, the outdated entry is skipped when polled
+						toData.settled = true;
+					}
+					nodeData.put(toNode, newData);
+					queue.add(newData);
+				}
+			}
+		}
+		return paths;
+	}
+
+	private static LeastCostPathCalculator.Path constructPath(NodeData target) {
+		LinkedList<Node> nodes = new LinkedList<>();
+		LinkedList<Link> links = new LinkedList<>();
+
+		NodeData step = target;
+		nodes.addFirst(step.node);
+		while(step.previous != null) {
+			links.addFirst(step.link);
+			step = step.previous;
+			nodes.addFirst(step.node);
+		}
+		return new LeastCostPathCalculator.Path(new ArrayList<>(nodes), new ArrayList<>(links), target.time, target.cost);
+	}
+
+	/**
+	 * Entry in the search tree
+	 */
+	private static class NodeData implements Comparable<NodeData> {
+
+		private final Node node;
+		private final NodeData previous;
+		private final Link link;
+		private final double cost;
+		private final double time;
+		private boolean settled = false;
+
+		NodeData(Node node, NodeData previous, Link link, double cost, double time) {
+			this.node = node;
+			this.previous = previous;
+			this.link = link;
+			this.cost = cost;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo(NodeData other) {
+			return Double.compare(this.cost, other.cost);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.Map;
+
+public class OneToManyDijkstraTest {
+
+	private Network network;
+	private LinkLengthRouter router;
+
+	@Before
+	public void prepare() {
+		network = NetworkToolsTest.initNetwork();
+		router = new LinkLengthRouter();
+	}
+
+	@Test
+	public void sameCostAsDijkstra() {
+		LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(network, router, router);
+		OneToManyDijkstra oneToMany = new OneToManyDijkstra(router, router);
+
+		for(Node fromNode : network.getNodes().values()) {
+			Map<Node, LeastCostPathCalculator.Path> paths = oneToMany.calcLeastCostPaths(fromNode, network.getNodes().values(), Double.MAX_VALUE);
+
+			for(Node toNode : network.getNodes().values()) {
+				LeastCostPathCalculator.Path expected = dijkstra.calcLeastCostPath(fromNode, toNode, 0, null, null);
+				LeastCostPathCalculator.Path actual = paths.get(toNode);
+				if(expected == null) {
+					Assert.assertNull(actual);
+				} else {
+					Assert.assertNotNull(actual);
+					Assert.assertEquals(expected.travelCost, actual.travelCost, 0.0001);
+					Assert.assertEquals(expected.links.size(), actual.links.size());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void searchIsBounded() {
+		OneToManyDijkstra oneToMany = new OneToManyDijkstra(router, router);
+		Node nodeA = network.getNodes().get(Id.createNodeId("A"));
+		Node nodeB = network.getNodes().get(Id.createNodeId("B"));
+		Node nodeG = network.getNodes().get(Id.createNodeId("G"));
+
+		Map<Node, LeastCostPathCalculator.Path> paths = oneToMany.calcLeastCostPaths(nodeA, network.getNodes().values(), 25);
+		Assert.assertEquals(20.0, paths.get(nodeB).travelCost, 0.0001);
+		Assert.assertNull(paths.get(nodeG));
+		for(LeastCostPathCalculator.Path path : paths.values()) {
+			Assert.assertTrue(path.travelCost <= 25);
+		}
+	}
+
+	private static class LinkLengthRouter implements TravelDisutility, TravelTime {
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength();
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return link.getLength();
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+
+import java.util.ArrayList;
+
+public class PathCacheTest {
+
+	private static final Id<Node> A = Id.createNodeId("A");
+	private static final Id<Node> B = Id.createNodeId("B");
+
+	private static LeastCostPathCalculator.Path path(double cost) {
+		return new LeastCostPathCalculator.Path(new ArrayList<>(), new ArrayList<>(), cost, cost);
+	}
+
+	@Test
+	public void cachedPath() {
+		PathCache cache = new PathCache();
+		Assert.assertNull(cache.get("bus", A, B, 100));
+
+		cache.put("bus", A, B, path(50), 100);
+		Assert.assertEquals(50, cache.get("bus", A, B, 100).getPath().travelCost, 0.0001);
+		// path is known for larger bounds as well
+		Assert.assertEquals(50, cache.get("bus", A, B, 1000).getPath().travelCost, 0.0001);
+		// not reachable within a smaller bound
+		Assert.assertNull(cache.get("bus", A, B, 20).getPath());
+		// different mode
+		Assert.assertNull(cache.get("rail", A, B, 100));
+
+		Assert.assertEquals(3, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void unreachableOnlyValidForSmallerBounds() {
+		PathCache cache = new PathCache();
+		cache.put("bus", A, B, null, 100);
+
+		Assert.assertNull(cache.get("bus", A, B, 80).getPath());
+		Assert.assertNull(cache.get("bus", A, B, 150));
+
+		// a path replaces the unreachable entry, an unreachable entry does not replace a path
+		cache.put("bus", A, B, path(120), 150);
+		cache.put("bus", A, B, null, 200);
+		Assert.assertEquals(120, cache.get("bus", A, B, 200).getPath().travelCost, 0.0001);
+	}
+
+	@Test
+	public void sizeIsBounded() {
+		PathCache cache = new PathCache(160);
+		for(int i = 0; i < 1000; i++) {
+			cache.put("bus", Id.createNodeId("from" + i), Id.createNodeId("to" + i), path(i), Double.POSITIVE_INFINITY);
+		}
+		Assert.assertTrue(cache.size() <= 160);
+	}
+}
@@ -0,0 +1,174 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the same set of queries on one shared {@link ScheduleRouters.PathCalculator}
+ * of a {@link RoutingGraph} (as created by the schedule routers) with 1, 2, 4, 8 and
+ * 16 threads. Results have to be identical to a single threaded run, the throughput
+ * per thread count is logged. If enough processors are available, four threads have
+ * to be at least somewhat faster than one thread.
+ */
+public class PathCalculatorScalingTest {
+
+	private static final Logger log = Logger.getLogger(PathCalculatorScalingTest.class);
+
+	private static final int GRID_SIZE = 60;
+	private static final int N_QUERIES = 4000;
+	private static final int N_REPETITIONS = 3;
+	private static final int[] THREADS = {1, 2, 4, 8, 16};
+	private static final double MIN_SPEEDUP_4_THREADS = 1.5;
+
+	private Network network;
+	private List<Node[]> queries;
+
+	@Before
+	public void prepare() {
+		network = createGridNetwork(GRID_SIZE);
+
+		Random random = new Random(1234);
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		queries = new ArrayList<>();
+		for(int i = 0; i < N_QUERIES; i++) {
+			queries.add(new Node[]{nodes.get(random.nextInt(nodes.size())), nodes.get(random.nextInt(nodes.size()))});
+		}
+	}
+
+	@Test
+	public void scaling() throws Exception {
+		LinkLengthRouter r = new LinkLengthRouter();
+		RoutingGraph graph = new RoutingGraph(network, r, r);
+		graph.createLandmarks(16, 1);
+		ScheduleRouters.PathCalculator pathCalculator = new ScheduleRouters.PathCalculator(graph::createPathCalculator, graph, null, null);
+
+		// warm up and reference costs
+		double[] expected = runQueries(pathCalculator, 1);
+
+		double singleThreadDuration = 0;
+		double speedup4Threads = 0;
+		for(int nThreads : THREADS) {
+			// the fastest repetition is used to reduce the influence of other processes
+			double duration = Double.POSITIVE_INFINITY;
+			for(int rep = 0; rep < N_REPETITIONS; rep++) {
+				long start = System.nanoTime();
+				double[] actual = runQueries(pathCalculator, nThreads);
+				duration = Math.min(duration, (System.nanoTime() - start) / 1e9);
+				Assert.assertArrayEquals(expected, actual, 0.0001);
+			}
+			if(nThreads == 1) {
+				singleThreadDuration = duration;
+			}
+			if(nThreads == 4) {
+				speedup4Threads = singleThreadDuration / duration;
+			}
+			log.info(String.format("%2d threads: %6.3f s, %8.0f queries/s, speedup %.2f", nThreads, duration, N_QUERIES / duration, singleThreadDuration / duration));
+		}
+
+		if(Runtime.getRuntime().availableProcessors() >= 4) {
+			Assert.assertTrue("speedup with 4 threads is only " + speedup4Threads, speedup4Threads >= MIN_SPEEDUP_4_THREADS);
+		}
+	}
+
+	/**
+	 * @return the travel cost of each query, queries are split into one block per thread
+	 */
+	private double[] runQueries(ScheduleRouters.PathCalculator pathCalculator, int nThreads) throws Exception {
+		double[] costs = new double[N_QUERIES];
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<?>> futures = new ArrayList<>();
+		int blockSize = (N_QUERIES + nThreads - 1) / nThreads;
+		for(int t = 0; t < nThreads; t++) {
+			int from = t * blockSize;
+			int to = Math.min(N_QUERIES, from + blockSize);
+			futures.add(executor.submit(() -> {
+				for(int i = from; i < to; i++) {
+					Node[] q = queries.get(i);
+					LeastCostPathCalculator.Path path = pathCalculator.calcPath(q[0], q[1]);
+					costs[i] = path == null ? -1 : path.travelCost;
+				}
+			}));
+		}
+		for(Future<?> f : futures) {
+			f.get();
+		}
+		executor.shutdown();
+		return costs;
+	}
+
+	/**
+	 * Bidirectional grid network with 100m links and varying freespeeds
+	 */
+	static Network createGridNetwork(int size) {
+		Network net = NetworkTools.createNetwork();
+		NetworkFactory fac = net.getFactory();
+
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				net.addNode(fac.createNode(Id.createNodeId(x + "_" + y), new Coord(x * 100.0, y * 100.0)));
+			}
+		}
+		for(int x = 0; x < size; x++) {
+			for(int y = 0; y < size; y++) {
+				Node node = net.getNodes().get(Id.createNodeId(x + "_" + y));
+				if(x + 1 < size) {
+					Node right = net.getNodes().get(Id.createNodeId((x + 1) + "_" + y));
+					addLink(net, node, right, 5 + (y % 4) * 5);
+					addLink(net, right, node, 5 + (y % 4) * 5);
+				}
+				if(y + 1 < size) {
+					Node up = net.getNodes().get(Id.createNodeId(x + "_" + (y + 1)));
+					addLink(net, node, up, 5 + (x % 3) * 5);
+					addLink(net, up, node, 5 + (x % 3) * 5);
+				}
+			}
+		}
+		return net;
+	}
+
+	private static void addLink(Network net, Node fromNode, Node toNode, double freespeed) {
+		Link link = net.getFactory().createLink(Id.createLinkId(fromNode.getId() + "-" + toNode.getId()), fromNode, toNode);
+		link.setLength(100);
+		link.setFreespeed(freespeed);
+		net.addLink(link);
+	}
+
+	private static class LinkLengthRouter implements TravelDisutility, TravelTime {
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return link.getLength() / link.getFreespeed();
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.FastAStarLandmarksFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Compares the routing graph with the MATSim path calculators. The duration of point-to-point
+ * queries on a grid network is logged for both.
+ */
+public class RoutingGraphTest {
+
+	private static final Logger log = Logger.getLogger(RoutingGraphTest.class);
+
+	private static final int N_QUERIES = 4000;
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	@Test
+	public void sameCostAsDijkstra() {
+		Network network = NetworkToolsTest.initNetwork();
+		TravelTimeRouter r = new TravelTimeRouter();
+		LeastCostPathCalculator dijkstra = new DijkstraFactory().createPathCalculator(network, r, r);
+		RoutingGraph graph = new RoutingGraph(network, r, r);
+
+		Assert.assertEquals(network.getNodes().size(), graph.getNumberOfNodes());
+		Assert.assertEquals(network.getLinks().size(), graph.getNumberOfLinks());
+
+		for(Node fromNode : network.getNodes().values()) {
+			Map<Node, LeastCostPathCalculator.Path> paths = graph.calcLeastCostPaths(fromNode, network.getNodes().values(), Double.MAX_VALUE);
+			for(Node toNode : network.getNodes().values()) {
+				LeastCostPathCalculator.Path expected = dijkstra.calcLeastCostPath(fromNode, toNode, 0, null, null);
+				assertSamePath(expected, graph.calcLeastCostPath(fromNode, toNode));
+				assertSamePath(expected, paths.get(toNode));
+			}
+		}
+	}
+
+	@Test
+	public void searchIsBounded() {
+		Network network = NetworkToolsTest.initNetwork();
+		TravelTimeRouter r = new TravelTimeRouter();
+		RoutingGraph graph = new RoutingGraph(network, r, r);
+		OneToManyDijkstra dijkstra = new OneToManyDijkstra(r, r);
+		Node nodeA = network.getNodes().get(Id.createNodeId("A"));
+
+		Map<Node, LeastCostPathCalculator.Path> expected = dijkstra.calcLeastCostPaths(nodeA, network.getNodes().values(), 3);
+		Map<Node, LeastCostPathCalculator.Path> actual = graph.calcLeastCostPaths(nodeA, network.getNodes().values(), 3);
+		Assert.assertEquals(expected.keySet(), actual.keySet());
+		for(LeastCostPathCalculator.Path path : actual.values()) {
+			Assert.assertTrue(path.travelCost <= 3);
+		}
+	}
+
+	@Test
+	public void sameCostAsFastAStarLandmarks() {
+		Network network = PathCalculatorScalingTest.createGridNetwork(60);
+		TravelTimeRouter r = new TravelTimeRouter();
+
+		Random random = new Random(4321);
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		List<Node[]> queries = new ArrayList<>();
+		for(int i = 0; i < N_QUERIES; i++) {
+			queries.add(new Node[]{nodes.get(random.nextInt(nodes.size())), nodes.get(random.nextInt(nodes.size()))});
+		}
+
+		long start = System.nanoTime();
+		LeastCostPathCalculator landmarks = new FastAStarLandmarksFactory(1).createPathCalculator(network, r, r);
+		double landmarksPreprocessing = (System.nanoTime() - start) / 1e9;
+		start = System.nanoTime();
+		RoutingGraph graph = new RoutingGraph(network, r, r);
+		double graphPreprocessing = (System.nanoTime() - start) / 1e9;
+
+		// warm up
+		double[] expected = runQueries(queries, landmarks);
+		double[] actual = runQueries(queries, graph.createPathCalculator());
+
+		start = System.nanoTime();
+		runQueries(queries, landmarks);
+		double landmarksDuration = (System.nanoTime() - start) / 1e9;
+		start = System.nanoTime();
+		runQueries(queries, graph.createPathCalculator());
+		double graphDuration = (System.nanoTime() - start) / 1e9;
+
+		Assert.assertArrayEquals(expected, actual, 0.0001);
+		log.info(String.format("FastAStarLandmarks: preprocessing %6.3f s, %8.0f queries/s", landmarksPreprocessing, N_QUERIES / landmarksDuration));
+		log.info(String.format("RoutingGraph:       preprocessing %6.3f s, %8.0f queries/s", graphPreprocessing, N_QUERIES / graphDuration));
+	}
+
+	@Test
+	public void sameCostWithLandmarks() {
+		Network network = PathCalculatorScalingTest.createGridNetwork(30);
+		TravelTimeRouter r = new TravelTimeRouter();
+		RoutingGraph graph = new RoutingGraph(network, r, r);
+		RoutingGraph landmarksGraph = new RoutingGraph(network, r, r);
+		landmarksGraph.createLandmarks(8, 2);
+		Assert.assertEquals(8, landmarksGraph.getNumberOfLandmarks());
+
+		Random random = new Random(99);
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		for(int i = 0; i < 500; i++) {
+			Node fromNode = nodes.get(random.nextInt(nodes.size()));
+			Node toNode = nodes.get(random.nextInt(nodes.size()));
+			assertSamePath(graph.calcLeastCostPath(fromNode, toNode), landmarksGraph.calcLeastCostPath(fromNode, toNode));
+		}
+	}
+
+	@Test
+	public void landmarksFromCacheFile() {
+		Network network = PathCalculatorScalingTest.createGridNetwork(20);
+		TravelTimeRouter r = new TravelTimeRouter();
+		File cacheFile = new File(tmpFolder.getRoot(), "landmarks.bin");
+
+		RoutingGraph graph = new RoutingGraph(network, r, r);
+		graph.loadOrCreateLandmarks(4, 1, cacheFile);
+		Assert.assertTrue(cacheFile.exists());
+		long lastModified = cacheFile.lastModified();
+
+		// second run loads the landmarks from the file
+		RoutingGraph loadedGraph = new RoutingGraph(network, r, r);
+		loadedGraph.loadOrCreateLandmarks(4, 1, cacheFile);
+		Assert.assertEquals(4, loadedGraph.getNumberOfLandmarks());
+		Assert.assertEquals(lastModified, cacheFile.lastModified());
+
+		List<Node> nodes = new ArrayList<>(network.getNodes().values());
+		for(Node fromNode : nodes.subList(0, 20)) {
+			for(Node toNode : nodes) {
+				assertSamePath(graph.calcLeastCostPath(fromNode, toNode), loadedGraph.calcLeastCostPath(fromNode, toNode));
+			}
+		}
+
+		// different number of landmarks, the file is written again
+		RoutingGraph otherGraph = new RoutingGraph(network, r, r);
+		otherGraph.loadOrCreateLandmarks(6, 1, cacheFile);
+		Assert.assertEquals(6, otherGraph.getNumberOfLandmarks());
+	}
+
+	private static double[] runQueries(List<Node[]> queries, LeastCostPathCalculator pathCalculator) {
+		double[] costs = new double[queries.size()];
+		for(int i = 0; i < queries.size(); i++) {
+			Node[] q = queries.get(i);
+			LeastCostPathCalculator.Path path = pathCalculator.calcLeastCostPath(q[0], q[1], 0, null, null);
+			costs[i] = path == null ? -1 : path.travelCost;
+		}
+		return costs;
+	}
+
+	private static void assertSamePath(LeastCostPathCalculator.Path expected, LeastCostPathCalculator.Path actual) {
+		if(expected == null) {
+			Assert.assertNull(actual);
+		} else {
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.travelCost, actual.travelCost, 0.0001);
+			Assert.assertEquals(expected.travelTime, actual.travelTime, 0.0001);
+			Assert.assertEquals(expected.links.size(), actual.links.size());
+			Assert.assertEquals(actual.links.size() + 1, actual.nodes.size());
+		}
+	}
+
+	private static class TravelTimeRouter implements TravelDisutility, TravelTime {
+
+		@Override
+		public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+
+		@Override
+		public double getLinkMinimumTravelDisutility(Link link) {
+			return link.getLength() / link.getFreespeed();
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package org.matsim.pt2matsim.mapping.networkRouter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.collections.CollectionUtils;
+import org.matsim.pt2matsim.config.OsmConverterConfigGroup;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+import org.matsim.pt2matsim.tools.NetworkToolsTest;
+import org.matsim.pt2matsim.tools.PTMapperTools;
+
+public class ScheduleRoutersOsmAttributesTest {
+
+	@Test
+	public void linkTravelCosts() {
+		Network network = NetworkToolsTest.initNetwork();
+		network.getLinks().get(Id.createLinkId("AD")).getAttributes().putAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE, "bus");
+		network.getLinks().get(Id.createLinkId("DA")).getAttributes().putAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE_MASTER, "tram,bus");
+		network.getLinks().get(Id.createLinkId("DE")).getAttributes().putAttribute(OsmConverterConfigGroup.LINK_ATTRIBUTE_RELATION_ROUTE, "tram");
+
+		PublicTransitMappingConfigGroup.TravelCostType costType = PublicTransitMappingConfigGroup.TravelCostType.linkLength;
+		RoutingGraph busGraph = ScheduleRoutersOsmAttributes.createRoutingGraph(network, "bus", CollectionUtils.stringToSet("car,bus"), costType, 0.5);
+
+		for(Link link : network.getLinks().values()) {
+			double factor = ScheduleRoutersOsmAttributes.hasRoute(link.getAttributes(), "bus") ? 0.5 : 1.0;
+			Assert.assertEquals(factor * PTMapperTools.calcTravelCost(link, costType), busGraph.getLinkTravelCost(link), 1E-9);
+		}
+		Link ad = network.getLinks().get(Id.createLinkId("AD"));
+		Link de = network.getLinks().get(Id.createLinkId("DE"));
+		Assert.assertEquals(0.5 * ad.getLength(), busGraph.getLinkTravelCost(ad), 1E-9);
+		Assert.assertEquals(0.5 * network.getLinks().get(Id.createLinkId("DA")).getLength(), busGraph.getLinkTravelCost(network.getLinks().get(Id.createLinkId("DA"))), 1E-9);
+		Assert.assertEquals(de.getLength(), busGraph.getLinkTravelCost(de), 1E-9);
+
+		// no link with this mode
+		RoutingGraph railGraph = ScheduleRoutersOsmAttributes.createRoutingGraph(network, "rail", CollectionUtils.stringToSet("rail"), costType, 0.5);
+		Assert.assertTrue(Double.isNaN(railGraph.getLinkTravelCost(ad)));
+	}
+}
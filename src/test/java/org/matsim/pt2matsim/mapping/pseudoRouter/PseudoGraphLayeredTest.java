@@ -0,0 +1,199 @@
+package org.matsim.pt2matsim.mapping.pseudoRouter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidate;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateImpl;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.PublicTransitStopImpl;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link PseudoGraphLayered} with {@link PseudoGraphImpl} on a long
+ * synthetic transit route with random edge weights.
+ */
+public class PseudoGraphLayeredTest {
+
+	private static final int N_STOPS = 150;
+	private static final int N_CANDIDATES = 5;
+
+	private List<TransitRouteStop> routeStops;
+	private List<List<LinkCandidate>> candidates;
+
+	/**
+	 * One stop facility per stop, each with a set of candidate links nearby
+	 */
+	private void initRoute(int nStops, int nCandidates) {
+		Network network = NetworkTools.createNetwork();
+		NetworkFactory netFac = network.getFactory();
+		TransitScheduleFactory fac = ScheduleTools.createSchedule().getFactory();
+
+		routeStops = new ArrayList<>();
+		List<List<Link>> candidateLinks = new ArrayList<>();
+		for(int i = 0; i < nStops; i++) {
+			TransitStopFacility facility = fac.createTransitStopFacility(Id.create("stop" + i, TransitStopFacility.class), new Coord(i * 100.0, 0.0), false);
+			routeStops.add(fac.createTransitRouteStop(facility, i * 60.0, i * 60.0));
+
+			List<Link> links = new ArrayList<>();
+			for(int c = 0; c < nCandidates; c++) {
+				Node from = netFac.createNode(Id.createNodeId(i + "_" + c + "_from"), new Coord(i * 100.0 - 10, c * 10.0));
+				Node to = netFac.createNode(Id.createNodeId(i + "_" + c + "_to"), new Coord(i * 100.0 + 10, c * 10.0));
+				network.addNode(from);
+				network.addNode(to);
+				Link link = netFac.createLink(Id.createLinkId(i + "_" + c), from, to);
+				network.addLink(link);
+				links.add(link);
+			}
+			candidateLinks.add(links);
+		}
+
+		TransitLine line = fac.createTransitLine(Id.create("line", TransitLine.class));
+		TransitRoute route = fac.createTransitRoute(Id.create("route", TransitRoute.class), null, routeStops, "bus");
+		line.addRoute(route);
+
+		candidates = new ArrayList<>();
+		for(int i = 0; i < nStops; i++) {
+			List<LinkCandidate> stopCandidates = new ArrayList<>();
+			for(Link link : candidateLinks.get(i)) {
+				stopCandidates.add(new LinkCandidateImpl(link, new PublicTransitStopImpl(line, route, routeStops.get(i))));
+			}
+			candidates.add(stopCandidates);
+		}
+	}
+
+	/**
+	 * Adds the same edges to both graphs
+	 */
+	private void addEdges(PseudoGraph dijkstra, PseudoGraph layered, EdgeWeight edgeWeight) {
+		int nStops = routeStops.size();
+		for(int i = 0; i < nStops - 1; i++) {
+			for(LinkCandidate current : candidates.get(i)) {
+				for(LinkCandidate next : candidates.get(i + 1)) {
+					boolean artificial = edgeWeight.isArtificial();
+					double weight = edgeWeight.getWeight(artificial);
+					dijkstra.addEdge(i, routeStops.get(i), current, routeStops.get(i + 1), next, weight, artificial);
+					layered.addEdge(i, routeStops.get(i), current, routeStops.get(i + 1), next, weight, artificial);
+				}
+			}
+		}
+		dijkstra.addDummyEdges(routeStops, candidates.get(0), candidates.get(nStops - 1));
+		layered.addDummyEdges(routeStops, candidates.get(0), candidates.get(nStops - 1));
+	}
+
+	private void assertSameResult(PseudoGraph dijkstra, PseudoGraph layered) {
+		List<PseudoRouteStop> expected = dijkstra.getLeastCostStopSequence();
+		List<PseudoRouteStop> actual = layered.getLeastCostStopSequence();
+
+		Assert.assertEquals(routeStops.size(), actual.size());
+		for(int i = 0; i < routeStops.size(); i++) {
+			Assert.assertEquals(expected.get(i).getLinkId(), actual.get(i).getLinkId());
+			Assert.assertEquals(expected.get(i).getParentStopFacilityId(), actual.get(i).getParentStopFacilityId());
+		}
+		Assert.assertEquals(dijkstra.getNetworkLinkIds(), layered.getNetworkLinkIds());
+		Assert.assertEquals(dijkstra.getArtificialNetworkLinks().size(), layered.getArtificialNetworkLinks().size());
+	}
+
+	@Test
+	public void sameResultAsDijkstra() {
+		initRoute(N_STOPS, N_CANDIDATES);
+
+		// the network path of an edge is the link of its from candidate
+		PseudoGraph.PathRouter pathRouter = (from, to) -> Collections.singletonList(from.getLink());
+		PseudoGraph dijkstra = new PseudoGraphImpl(pathRouter);
+		PseudoGraph layered = new PseudoGraphLayered(pathRouter);
+
+		// some edges are artificial
+		Random random = new Random(42);
+		addEdges(dijkstra, layered, new EdgeWeight() {
+			@Override
+			public boolean isArtificial() {
+				return random.nextDouble() < 0.2;
+			}
+
+			@Override
+			public double getWeight(boolean artificial) {
+				return 10 + random.nextDouble() * 100;
+			}
+		});
+
+		assertSameResult(dijkstra, layered);
+	}
+
+	/**
+	 * Integer edge weights lead to many equal cost alternatives, artificial edges have
+	 * negative weights (as with a high maxTravelCostFactor).
+	 */
+	@Test
+	public void sameResultWithEqualCostsAndArtificialEdges() {
+		initRoute(N_STOPS, N_CANDIDATES);
+
+		PseudoGraph.PathRouter pathRouter = (from, to) -> Collections.singletonList(from.getLink());
+
+		for(long seed = 0; seed < 20; seed++) {
+			PseudoGraph dijkstra = new PseudoGraphImpl(pathRouter);
+			PseudoGraph layered = new PseudoGraphLayered(pathRouter);
+
+			Random random = new Random(seed);
+			addEdges(dijkstra, layered, new EdgeWeight() {
+				@Override
+				public boolean isArtificial() {
+					return random.nextDouble() < 0.3;
+				}
+
+				@Override
+				public double getWeight(boolean artificial) {
+					return artificial ? -random.nextInt(3) * 5 : random.nextInt(3) * 5;
+				}
+			});
+
+			assertSameResult(dijkstra, layered);
+		}
+	}
+
+	/**
+	 * If all alternatives have the same cost, the link candidates added first are used.
+	 */
+	@Test
+	public void equalCostsUseFirstCandidates() {
+		initRoute(5, 3);
+
+		PseudoGraph.PathRouter pathRouter = (from, to) -> Collections.singletonList(from.getLink());
+		PseudoGraph dijkstra = new PseudoGraphImpl(pathRouter);
+		PseudoGraph layered = new PseudoGraphLayered(pathRouter);
+		addEdges(dijkstra, layered, new EdgeWeight() {
+			@Override
+			public boolean isArtificial() {
+				return false;
+			}
+
+			@Override
+			public double getWeight(boolean artificial) {
+				return 10;
+			}
+		});
+
+		assertSameResult(dijkstra, layered);
+		for(int i = 0; i < routeStops.size(); i++) {
+			Assert.assertEquals(candidates.get(i).get(0).getLink().getId(), layered.getLeastCostStopSequence().get(i).getLinkId());
+		}
+	}
+
+	private interface EdgeWeight {
+
+		boolean isArtificial();
+
+		double getWeight(boolean artificial);
+	}
+}
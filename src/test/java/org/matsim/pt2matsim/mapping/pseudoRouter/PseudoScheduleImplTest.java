@@ -0,0 +1,138 @@
+package org.matsim.pt2matsim.mapping.pseudoRouter;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.LinkCandidateImpl;
+import org.matsim.pt2matsim.mapping.linkCandidateCreation.PublicTransitStopImpl;
+import org.matsim.pt2matsim.tools.NetworkTools;
+import org.matsim.pt2matsim.tools.ScheduleTools;
+
+import java.util.*;
+
+/**
+ * Creates child stop facilities for a synthetic schedule with many parent stop facilities
+ * and minimal transfer times between them. Logs the time needed and checks that every pair
+ * of child stop facilities gets the transfer time of its parents.
+ */
+public class PseudoScheduleImplTest {
+
+	private static final Logger log = Logger.getLogger(PseudoScheduleImplTest.class);
+
+	private static final int N_PARENTS = 400;
+	private static final int N_TRANSFERS_PER_PARENT = 25;
+	private static final int N_ROUTES = 500;
+	private static final int N_STOPS_PER_ROUTE = 12;
+	private static final int N_LINKS_PER_PARENT = 3;
+
+	@Test
+	public void childTransferTimesOnManyTransfers() {
+		Random random = new Random(42);
+		TransitSchedule schedule = ScheduleTools.createSchedule();
+		TransitScheduleFactory fac = schedule.getFactory();
+		Network network = NetworkTools.createNetwork();
+		NetworkFactory netFac = network.getFactory();
+
+		// parent stop facilities, each with a few links nearby
+		List<TransitStopFacility> parents = new ArrayList<>();
+		Map<TransitStopFacility, List<Link>> parentLinks = new HashMap<>();
+		for(int i = 0; i < N_PARENTS; i++) {
+			Coord coord = new Coord((i % 20) * 200.0, (i / 20) * 200.0);
+			TransitStopFacility parent = fac.createTransitStopFacility(Id.create("stop" + i, TransitStopFacility.class), coord, false);
+			schedule.addStopFacility(parent);
+			parents.add(parent);
+
+			List<Link> links = new ArrayList<>();
+			for(int l = 0; l < N_LINKS_PER_PARENT; l++) {
+				Node from = netFac.createNode(Id.createNodeId(i + "_" + l + "_from"), new Coord(coord.getX() - 10, coord.getY() + l * 5.0));
+				Node to = netFac.createNode(Id.createNodeId(i + "_" + l + "_to"), new Coord(coord.getX() + 10, coord.getY() + l * 5.0));
+				network.addNode(from);
+				network.addNode(to);
+				Link link = netFac.createLink(Id.createLinkId(i + "_" + l), from, to);
+				network.addLink(link);
+				links.add(link);
+			}
+			parentLinks.put(parent, links);
+		}
+
+		// minimal transfer times between parent stop facilities
+		MinimalTransferTimes transferTimes = schedule.getMinimalTransferTimes();
+		Map<Id<TransitStopFacility>, Map<Id<TransitStopFacility>, Double>> parentTransfers = new HashMap<>();
+		for(TransitStopFacility from : parents) {
+			for(int t = 0; t < N_TRANSFERS_PER_PARENT; t++) {
+				TransitStopFacility to = parents.get(random.nextInt(N_PARENTS));
+				double seconds = 30 + random.nextInt(300);
+				transferTimes.set(from.getId(), to.getId(), seconds);
+				parentTransfers.computeIfAbsent(from.getId(), k -> new HashMap<>()).put(to.getId(), seconds);
+			}
+		}
+
+		// pseudo routes, each stop is mapped to a random link of its parent
+		PseudoSchedule pseudoSchedule = new PseudoScheduleImpl();
+		Map<Id<TransitStopFacility>, Set<Id<TransitStopFacility>>> expectedChildren = new HashMap<>();
+		TransitLine line = fac.createTransitLine(Id.create("line", TransitLine.class));
+		schedule.addTransitLine(line);
+		for(int r = 0; r < N_ROUTES; r++) {
+			List<TransitRouteStop> routeStops = new ArrayList<>();
+			for(int s = 0; s < N_STOPS_PER_ROUTE; s++) {
+				routeStops.add(fac.createTransitRouteStop(parents.get(random.nextInt(N_PARENTS)), s * 60.0, s * 60.0));
+			}
+			TransitRoute route = fac.createTransitRoute(Id.create("route" + r, TransitRoute.class), null, routeStops, "bus");
+			line.addRoute(route);
+
+			List<PseudoRouteStop> pseudoStops = new ArrayList<>();
+			List<Id<Link>> linkIds = new ArrayList<>();
+			for(int s = 0; s < N_STOPS_PER_ROUTE; s++) {
+				TransitRouteStop routeStop = routeStops.get(s);
+				List<Link> links = parentLinks.get(routeStop.getStopFacility());
+				Link link = links.get(random.nextInt(links.size()));
+				pseudoStops.add(new PseudoRouteStopImpl(s, routeStop, new LinkCandidateImpl(link, new PublicTransitStopImpl(line, route, routeStop))));
+				linkIds.add(link.getId());
+
+				Id<TransitStopFacility> parentId = routeStop.getStopFacility().getId();
+				expectedChildren.computeIfAbsent(parentId, k -> new HashSet<>()).add(ScheduleTools.createChildStopFacilityId(parentId, link.getId()));
+			}
+			pseudoSchedule.addPseudoRoute(line, route, pseudoStops, linkIds);
+		}
+
+		long start = System.nanoTime();
+		pseudoSchedule.createFacilitiesAndLinkSequences(schedule);
+		long duration = System.nanoTime() - start;
+		log.info(String.format("createFacilitiesAndLinkSequences: %d routes, %d parent transfers: %.1f ms",
+				N_ROUTES, N_PARENTS * N_TRANSFERS_PER_PARENT, duration / 1e6));
+
+		// every child pair gets the transfer time of its parents
+		int nChildTransfers = 0;
+		for(Map.Entry<Id<TransitStopFacility>, Map<Id<TransitStopFacility>, Double>> fromEntry : parentTransfers.entrySet()) {
+			Set<Id<TransitStopFacility>> fromChildren = expectedChildren.getOrDefault(fromEntry.getKey(), Collections.emptySet());
+			for(Map.Entry<Id<TransitStopFacility>, Double> toEntry : fromEntry.getValue().entrySet()) {
+				Set<Id<TransitStopFacility>> toChildren = expectedChildren.getOrDefault(toEntry.getKey(), Collections.emptySet());
+				for(Id<TransitStopFacility> fromChild : fromChildren) {
+					Assert.assertTrue(schedule.getFacilities().containsKey(fromChild));
+					for(Id<TransitStopFacility> toChild : toChildren) {
+						Assert.assertEquals(toEntry.getValue(), transferTimes.get(fromChild, toChild), 0.0);
+						nChildTransfers++;
+					}
+				}
+			}
+		}
+		Assert.assertTrue(nChildTransfers > 0);
+
+		// no other transfer times have been added
+		int nTransfers = 0;
+		MinimalTransferTimes.MinimalTransferTimesIterator iterator = transferTimes.iterator();
+		while(iterator.hasNext()) {
+			iterator.next();
+			nTransfers++;
+		}
+		int nParentTransfers = parentTransfers.values().stream().mapToInt(Map::size).sum();
+		Assert.assertEquals(nParentTransfers + nChildTransfers, nTransfers);
+	}
+}
@@ -0,0 +1,80 @@
+package org.matsim.pt2matsim.tools;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.*;
+
+public class LinkSpatialIndexTest {
+
+	private Network network;
+
+	@Before
+	public void prepare() {
+		network = NetworkToolsTest.initNetwork();
+	}
+
+	@Test
+	public void findClosestLinks() {
+		Node node = network.getNodes().get(Id.createNodeId("G"));
+		Coord coordToLookFrom = new Coord(node.getCoord().getX() + 2, node.getCoord().getY() + 2);
+
+		LinkSpatialIndex linkIndex = new LinkSpatialIndex(network, Collections.singleton("car"), 5);
+		Map<Double, Set<Link>> cars = linkIndex.findClosestLinks(coordToLookFrom, 3);
+		Assert.assertEquals(1, cars.keySet().size());
+		Assert.assertEquals(4, cars.get(2.0).size());
+
+		Map<Double, Set<Link>> expected = NetworkTools.findClosestLinks(network, coordToLookFrom, 3, Collections.singleton("car"));
+		Assert.assertEquals(expected, cars);
+
+		LinkSpatialIndex noModes = new LinkSpatialIndex(network, Collections.singleton("rail"), 5);
+		Assert.assertTrue(noModes.findClosestLinks(coordToLookFrom, 3).isEmpty());
+		Assert.assertNull(noModes.findNearestLink(coordToLookFrom));
+	}
+
+	@Test
+	public void sameLinksForAllCellSizes() {
+		Coord coord = new Coord(2600047.0, 1200033.0);
+		Map<Double, Set<Link>> expected = new LinkSpatialIndex(network, null, 1000).findClosestLinks(coord, 25);
+		Assert.assertFalse(expected.isEmpty());
+
+		for(double cellSize : new double[]{1, 3, 7, 20}) {
+			Assert.assertEquals(expected, new LinkSpatialIndex(network, null, cellSize).findClosestLinks(coord, 25));
+		}
+	}
+
+	@Test
+	public void findNearestLinks() {
+		LinkSpatialIndex linkIndex = new LinkSpatialIndex(network, null, 5);
+		Coord coord = new Coord(2600041.0, 1200050.0);
+
+		// opposite links have the same distance and are both returned
+		SortedMap<Double, Set<Link>> nearest = linkIndex.findNearestLinks(coord, 1, Double.POSITIVE_INFINITY);
+		Assert.assertEquals(1, nearest.size());
+		Assert.assertEquals(1.0, nearest.firstKey(), 0.0001);
+		Assert.assertEquals(2, nearest.get(nearest.firstKey()).size());
+
+		SortedMap<Double, Set<Link>> nearest3 = linkIndex.findNearestLinks(coord, 3, Double.POSITIVE_INFINITY);
+		Assert.assertEquals(2, nearest3.size());
+		Assert.assertEquals(4, nearest3.values().stream().mapToInt(Set::size).sum());
+
+		Assert.assertTrue(linkIndex.findNearestLinks(coord, 3, 0.5).isEmpty());
+	}
+
+	@Test
+	public void getNearestLink() {
+		LinkSpatialIndex linkIndex = new LinkSpatialIndex(network, null, 5);
+		Coord testR = new Coord(2600041.0, 1200050.0);
+		Coord testL = new Coord(2600039.0, 1200050.0);
+
+		Assert.assertEquals("AD", NetworkTools.getNearestLink(linkIndex, testR).getId().toString());
+		Assert.assertEquals("DA", NetworkTools.getNearestLink(linkIndex, testL).getId().toString());
+	}
+
+}
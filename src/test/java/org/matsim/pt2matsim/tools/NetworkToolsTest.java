@@ -247,6 +247,13 @@ public class NetworkToolsTest {
 		Assert.assertEquals(80.0, NetworkTools.calcRouteLength(seq, true), 0.0001);
 	}
 
+	@Test
+	public void getMaxFreespeed() {
+		Assert.assertEquals(1.0, NetworkTools.getMaxFreespeed(network), 0.0);
+		getLink("AB").setFreespeed(15.0);
+		Assert.assertEquals(15.0, NetworkTools.getMaxFreespeed(network), 0.0);
+	}
+
 	@Test
 	public void findClosestLinks() {
 		Node node = network.getNodes().get(Id.createNodeId("G"));
@@ -0,0 +1,88 @@
+package org.matsim.pt2matsim.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.pt.transitSchedule.api.*;
+import org.matsim.pt2matsim.config.PublicTransitMappingConfigGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PTMapperToolsTest {
+
+	@Test
+	public void calcMinTravelCostPerDistance() {
+		Network network = NetworkToolsTest.initNetwork();
+
+		// link lengths are equal to the beeline distance, freespeed is 1
+		Assert.assertEquals(1.0, PTMapperTools.calcMinTravelCostPerDistance(network, PublicTransitMappingConfigGroup.TravelCostType.linkLength), 0.0001);
+		Assert.assertEquals(1.0, PTMapperTools.calcMinTravelCostPerDistance(network, PublicTransitMappingConfigGroup.TravelCostType.travelTime), 0.0001);
+
+		Link ab = network.getLinks().get(Id.createLinkId("AB"));
+		ab.setFreespeed(10.0);
+		Assert.assertEquals(0.1, PTMapperTools.calcMinTravelCostPerDistance(network, PublicTransitMappingConfigGroup.TravelCostType.travelTime), 0.0001);
+
+		// shorter than the beeline distance
+		ab.setLength(ab.getLength() / 2);
+		Assert.assertEquals(0.5, PTMapperTools.calcMinTravelCostPerDistance(network, PublicTransitMappingConfigGroup.TravelCostType.linkLength), 0.0001);
+		Assert.assertEquals(0.05, PTMapperTools.calcMinTravelCostPerDistance(network, PublicTransitMappingConfigGroup.TravelCostType.travelTime), 0.0001);
+	}
+
+	@Test
+	public void pullChildStopFacilitiesTogether() {
+		for(int numOfThreads : new int[]{1, 3}) {
+			Network expectedNetwork = NetworkToolsTest.initNetwork();
+			TransitSchedule expected = initDisplacedSchedule();
+			int expectedPulled = 0;
+			int nPulled = 1;
+			while(nPulled != 0) {
+				nPulled = PTMapperTools.pullChildStopFacilitiesTogether(expected, expectedNetwork);
+				expectedPulled += nPulled;
+			}
+
+			Network network = NetworkToolsTest.initNetwork();
+			TransitSchedule schedule = initDisplacedSchedule();
+			Assert.assertEquals(expectedPulled, PTMapperTools.pullChildStopFacilitiesTogether(schedule, network, numOfThreads));
+
+			Assert.assertEquals(new ArrayList<>(expected.getFacilities().keySet()), new ArrayList<>(schedule.getFacilities().keySet()));
+			for(TransitLine expectedLine : expected.getTransitLines().values()) {
+				for(TransitRoute expectedRoute : expectedLine.getRoutes().values()) {
+					TransitRoute route = schedule.getTransitLines().get(expectedLine.getId()).getRoutes().get(expectedRoute.getId());
+					Assert.assertEquals(ScheduleTools.getTransitRouteLinkIds(expectedRoute), ScheduleTools.getTransitRouteLinkIds(route));
+					Assert.assertEquals(getStopFacilityIds(expectedRoute), getStopFacilityIds(route));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mapped test schedule where the second and third stop of route A1 reference the link after their link
+	 */
+	private static TransitSchedule initDisplacedSchedule() {
+		TransitSchedule schedule = ScheduleToolsTest.initSchedule();
+		TransitRoute routeA1 = schedule.getTransitLines().get(ScheduleToolsTest.LINE_A).getRoutes().get(ScheduleToolsTest.ROUTE_A1);
+		displaceStop(schedule, routeA1.getStops().get(1), "stop2.link:AX", "AX");
+		displaceStop(schedule, routeA1.getStops().get(2), "stop3.link:XB", "XB");
+		return schedule;
+	}
+
+	private static void displaceStop(TransitSchedule schedule, TransitRouteStop routeStop, String childId, String linkId) {
+		TransitStopFacility stopFacility = routeStop.getStopFacility();
+		TransitStopFacility child = schedule.getFactory().createTransitStopFacility(Id.create(childId, TransitStopFacility.class), stopFacility.getCoord(), false);
+		child.setName(stopFacility.getName());
+		child.setLinkId(Id.createLinkId(linkId));
+		schedule.addStopFacility(child);
+		routeStop.setStopFacility(child);
+	}
+
+	private static List<Id<TransitStopFacility>> getStopFacilityIds(TransitRoute transitRoute) {
+		List<Id<TransitStopFacility>> ids = new ArrayList<>();
+		for(TransitRouteStop routeStop : transitRoute.getStops()) {
+			ids.add(routeStop.getStopFacility().getId());
+		}
+		return ids;
+	}
+}
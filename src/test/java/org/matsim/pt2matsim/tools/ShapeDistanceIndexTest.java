@@ -0,0 +1,76 @@
+package org.matsim.pt2matsim.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.pt2matsim.gtfs.lib.GtfsShape;
+import org.matsim.pt2matsim.tools.lib.RouteShape;
+
+import java.util.Random;
+
+public class ShapeDistanceIndexTest {
+
+	private static final double d = 1E-9;
+
+	@Test
+	public void sameDistancesAsShapeTools() {
+		for(RouteShape shape : ShapeToolsTest.initShapes().values()) {
+			ShapeDistanceIndex index = new ShapeDistanceIndex(shape);
+			for(Coord coord : new Coord[]{CoordToolsTest.coordA, CoordToolsTest.coordC, CoordToolsTest.coordW, CoordToolsTest.coordZ, new Coord(-1000, 5000)}) {
+				Assert.assertEquals(ShapeTools.calcMinDistanceToShape(coord, shape), index.calcMinDistance(coord), d);
+			}
+		}
+	}
+
+	@Test
+	public void sameDistancesOnLongShape() {
+		Random random = new Random(7);
+		RouteShape shape = new GtfsShape("long");
+		double x = 0, y = 0;
+		for(int i = 0; i < 2000; i++) {
+			shape.addPoint(new Coord(x, y), i);
+			x += random.nextDouble() * 40 - 10;
+			y += random.nextDouble() * 30 - 15;
+		}
+
+		for(double cellSize : new double[]{-1, 5, 200}) {
+			ShapeDistanceIndex index = new ShapeDistanceIndex(shape, cellSize);
+			for(int i = 0; i < 500; i++) {
+				Coord coord = new Coord(random.nextDouble() * 60000 - 15000, random.nextDouble() * 20000 - 10000);
+				Assert.assertEquals(ShapeTools.calcMinDistanceToShape(coord, shape), index.calcMinDistance(coord), d);
+			}
+		}
+	}
+
+	@Test
+	public void linkDistances() {
+		Network network = NetworkTools.createNetwork();
+		NetworkFactory fac = network.getFactory();
+		Node n1 = fac.createNode(Id.createNodeId("1"), new Coord(2600043.0, 1200047.0));
+		Node n2 = fac.createNode(Id.createNodeId("2"), new Coord(2600071.0, 1200039.0));
+		network.addNode(n1);
+		network.addNode(n2);
+		Link link = fac.createLink(Id.createLinkId("1"), n1, n2);
+		network.addLink(link);
+
+		for(RouteShape shape : ShapeToolsTest.initShapes().values()) {
+			ShapeDistanceIndex index = new ShapeDistanceIndex(shape);
+			double expected = ShapeTools.calcMinDistanceToShape(link, shape);
+			Assert.assertEquals(expected, index.calcMinDistance(link), d);
+			// stored
+			Assert.assertEquals(expected, index.calcMinDistance(link), d);
+		}
+	}
+
+	@Test
+	public void shapeWithOnePoint() {
+		RouteShape shape = new GtfsShape("point");
+		shape.addPoint(new Coord(5, 5), 1);
+		Assert.assertEquals(Double.MAX_VALUE, new ShapeDistanceIndex(shape).calcMinDistance(new Coord(0, 0)), 0.0);
+	}
+}